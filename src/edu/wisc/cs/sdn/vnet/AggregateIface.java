@@ -0,0 +1,291 @@
+package edu.wisc.cs.sdn.vnet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.IPv4View;
+import net.floodlightcontroller.packet.TCP;
+import net.floodlightcontroller.packet.UDP;
+
+/**
+ * Several interfaces bundled into one logical interface, so parallel links
+ * to the same neighbor carry more traffic than one link could. Frames
+ * received on any member are handled as if received on the bundle, and
+ * frames sent on the bundle go out one member chosen by a hash of their
+ * addresses and ports, so the frames of one flow always use the same member
+ * and stay in order.
+ *
+ * A member is taken out of use when sending on it fails, and put back in use
+ * when a frame is received on it. Sends through the Virtual Network
+ * Simulator are buffered and never fail, so a bundle can also be given a
+ * hello time: the device then sends a hello on every member each hello
+ * time, and takes a member out of use once nothing, hello or otherwise, has
+ * been received on it for MISSED_HELLOS hello times. Both ends of the bundle
+ * must send hellos, or members carrying traffic in one direction only will
+ * be taken out of use. A member that receives but cannot send is not
+ * noticed.
+ */
+public class AggregateIface extends Iface
+{
+	/** Views for reading the IPv4 header of frames parsed only to layer 2;
+	 *  one per thread, since frames may be sent from several */
+	private static final ThreadLocal<IPv4View> IP_VIEWS =
+			ThreadLocal.withInitial(IPv4View::new);
+	
+	/** Destination MAC address of hellos; bridges do not forward frames
+	 *  sent to it */
+	public static final long HELLO_MAC = 0x0180C2000002L;
+
+	/** EtherType of hellos; the IEEE local experimental EtherType */
+	public static final short HELLO_ETHER_TYPE = (short)0x88B5;
+
+	/** Hello times without a frame on a member before it is out of use */
+	public static final int MISSED_HELLOS = 3;
+	
+	/** Interfaces in the bundle */
+	private List<Iface> members;
+
+	/** Time between hellos on each member, in ms; 0 if members are not
+	 *  monitored */
+	private volatile long helloTime;
+
+	/** Time a frame was last received on each member, in bundle order */
+	private AtomicLongArray heardAt;
+
+	/** Members frames may be sent on; replaced, never modified, once
+	 *  published */
+	private volatile Iface[] upMembers;
+
+	/**
+	 * @param name name of the bundle
+	 * @param index small number, unique among the device's interfaces, that
+	 *        identifies the bundle in tables indexed by port
+	 * @param members interfaces in the bundle; the bundle takes its MAC and
+	 *        IP addresses from the first
+	 */
+	public AggregateIface(String name, int index, List<Iface> members)
+	{
+		super(name, index);
+		this.members = Collections.unmodifiableList(
+				new ArrayList<Iface>(members));
+		this.upMembers = members.toArray(new Iface[0]);
+		this.heardAt = new AtomicLongArray(members.size());
+		Iface first = members.get(0);
+		this.setMacAddress(first.getMacAddress());
+		this.setIpAddress(first.getIpAddress());
+		this.setSubnetMask(first.getSubnetMask());
+		for (Iface member : members)
+		{ member.setAggregate(this); }
+	}
+
+	/**
+	 * @return interfaces in the bundle, whether or not they are in use
+	 */
+	public List<Iface> getMembers()
+	{ return this.members; }
+
+	/**
+	 * @return true if frames may be sent on a member
+	 */
+	public boolean isMemberUp(Iface member)
+	{ return Arrays.asList(this.upMembers).contains(member); }
+
+	/**
+	 * Put a member in use or take it out of use.
+	 * @param member an interface in the bundle
+	 * @param up true if frames may be sent on the member
+	 */
+	public synchronized void setMemberUp(Iface member, boolean up)
+	{
+		if (up == this.isMemberUp(member) || !this.members.contains(member))
+		{ return; }
+		// Keep members in bundle order, so every flow maps to the same
+		// member whichever order they went down and came back up in
+		List<Iface> updated = new ArrayList<Iface>(this.members.size());
+		for (Iface iface : this.members)
+		{
+			if ((iface == member) ? up : this.isMemberUp(iface))
+			{ updated.add(iface); }
+		}
+		this.upMembers = updated.toArray(new Iface[0]);
+	}
+
+	/**
+	 * @return time between hellos on each member, in ms; 0 if members are
+	 *         not monitored
+	 */
+	public long getHelloTime()
+	{ return this.helloTime; }
+
+	/**
+	 * Start or stop monitoring members with hellos. Every member counts as
+	 * just heard from when monitoring starts.
+	 * @param helloTime time between hellos on each member, in ms; 0 to stop
+	 */
+	public void setHelloTime(long helloTime)
+	{
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < this.members.size(); i++)
+		{ this.heardAt.set(i, now); }
+		this.helloTime = Math.max(0, helloTime);
+	}
+
+	/**
+	 * Note that a frame was received on a member, and put the member back
+	 * in use.
+	 * @param member an interface in the bundle
+	 */
+	public void heard(Iface member)
+	{
+		if (this.helloTime > 0)
+		{
+			int i = this.members.indexOf(member);
+			if (i >= 0)
+			{ this.heardAt.set(i, System.currentTimeMillis()); }
+		}
+		if (!this.isMemberUp(member))
+		{ this.setMemberUp(member, true); }
+	}
+
+	/**
+	 * Take out of use the members nothing has been received on for
+	 * MISSED_HELLOS hello times.
+	 * @param now current time, in ms
+	 */
+	public void expireMembers(long now)
+	{
+		long helloTime = this.helloTime;
+		if (0 == helloTime)
+		{ return; }
+		for (int i = 0; i < this.members.size(); i++)
+		{
+			if (now - this.heardAt.get(i) > MISSED_HELLOS * helloTime)
+			{ this.setMemberUp(this.members.get(i), false); }
+		}
+	}
+
+	/**
+	 * Build a hello to send on a member.
+	 * @param member an interface in the bundle
+	 */
+	public Ethernet createHello(Iface member)
+	{
+		Ethernet etherPacket = new Ethernet();
+		etherPacket.setDestinationMACAddress(HELLO_MAC);
+		etherPacket.setSourceMACAddress(member.getMacAddress());
+		etherPacket.setEtherType(HELLO_ETHER_TYPE);
+		// Padded to the shortest payload an Ethernet frame may carry
+		etherPacket.setPayload(new Data(new byte[46]));
+		return etherPacket;
+	}
+
+	/**
+	 * @return true if a frame is a hello, which only shows that the member
+	 *         it was received on works
+	 */
+	public static boolean isHello(Ethernet etherPacket)
+	{
+		return etherPacket.getEtherType() == HELLO_ETHER_TYPE
+				&& etherPacket.getDestinationMACLong() == HELLO_MAC;
+	}
+
+	/**
+	 * Choose the member to send a frame on.
+	 * @return a member in use; null if no member is in use
+	 */
+	public Iface selectMember(Ethernet etherPacket)
+	{
+		Iface[] current = this.upMembers;
+		if (0 == current.length)
+		{ return null; }
+		if (1 == current.length)
+		{ return current[0]; }
+		return current[Math.floorMod(flowHash(etherPacket), current.length)];
+	}
+
+	/**
+	 * Hash the MAC addresses of a frame and, if present, the IP addresses,
+	 * protocol, and TCP or UDP ports it carries. Both directions of a flow
+	 * hash the same, since each field pair is combined symmetrically. The
+	 * IPv4 header is read in place if the frame was only parsed to layer 2.
+	 */
+	static int flowHash(Ethernet etherPacket)
+	{
+		long hash = etherPacket.getSourceMAC().toLong()
+				^ etherPacket.getDestinationMAC().toLong();
+		if (etherPacket.getEtherType() == Ethernet.TYPE_IPv4
+				&& etherPacket.getPayload() instanceof Data)
+		{
+			Data data = (Data)etherPacket.getPayload();
+			IPv4View ipView = IP_VIEWS.get().wrap(data.getArray(),
+					data.getOffset(), data.getLength());
+			if (ipView.isValid())
+			{
+				hash = hash * 31 + (ipView.getSourceAddress()
+						^ ipView.getDestinationAddress());
+				hash = hash * 31 + ipView.getProtocol();
+				if (ipView.getSourcePort() >= 0)
+				{
+					hash = hash * 31 + (short)(ipView.getSourcePort()
+							^ ipView.getDestinationPort());
+				}
+			}
+		}
+		else if (etherPacket.getPayload() instanceof IPv4)
+		{
+			IPv4 ipPacket = (IPv4)etherPacket.getPayload();
+			hash = hash * 31 + (ipPacket.getSourceAddress()
+					^ ipPacket.getDestinationAddress());
+			hash = hash * 31 + ipPacket.getProtocol();
+			if (ipPacket.getPayload() instanceof TCP)
+			{
+				TCP tcp = (TCP)ipPacket.getPayload();
+				hash = hash * 31 + (tcp.getSourcePort()
+						^ tcp.getDestinationPort());
+			}
+			else if (ipPacket.getPayload() instanceof UDP)
+			{
+				UDP udp = (UDP)ipPacket.getPayload();
+				hash = hash * 31 + (udp.getSourcePort()
+						^ udp.getDestinationPort());
+			}
+			else if (ipPacket.getPayload() instanceof Data
+					&& (IPv4.PROTOCOL_TCP == ipPacket.getProtocol()
+						|| IPv4.PROTOCOL_UDP == ipPacket.getProtocol())
+					&& 0 == ipPacket.getFragmentOffset())
+			{
+				// Parsed to layer 3; the ports lead the payload
+				Data data = (Data)ipPacket.getPayload();
+				byte[] ports = data.getArray();
+				int i = data.getOffset();
+				if (data.getLength() >= 4)
+				{
+					hash = hash * 31 + (short)(((ports[i] ^ ports[i + 2]) << 8)
+							| ((ports[i + 1] ^ ports[i + 3]) & 0xff));
+				}
+			}
+		}
+		// Mix, so hashes that differ only in low bits spread across members
+		hash *= 0x9E3779B97F4A7C15L;
+		return (int)(hash ^ (hash >>> 32));
+	}
+
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder(super.toString());
+		sb.append("\n\tmembers:");
+		for (Iface member : this.members)
+		{
+			sb.append(" ").append(member.getName());
+			if (!this.isMemberUp(member))
+			{ sb.append("(down)"); }
+		}
+		return sb.toString();
+	}
+}
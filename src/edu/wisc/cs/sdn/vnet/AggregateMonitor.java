@@ -0,0 +1,100 @@
+package edu.wisc.cs.sdn.vnet;
+
+import java.util.List;
+
+/**
+ * Sends hellos on the members of a device's bundles that have a hello time,
+ * and takes members nothing has been heard on out of use.
+ */
+class AggregateMonitor implements Runnable
+{
+	private Device device;
+
+	/** Monitored bundles */
+	private AggregateIface[] aggregates;
+
+	/** Time hellos were last sent on each bundle's members */
+	private long[] sentAt;
+
+	private Thread timerThread;
+
+	/**
+	 * @param device device the bundles belong to
+	 * @param aggregates bundles to monitor; bundles without a hello time are
+	 *        skipped
+	 */
+	AggregateMonitor(Device device, List<AggregateIface> aggregates)
+	{
+		this.device = device;
+		this.aggregates = aggregates.toArray(new AggregateIface[0]);
+		this.sentAt = new long[this.aggregates.length];
+	}
+
+	/**
+	 * Start sending hellos.
+	 */
+	void start()
+	{
+		this.timerThread = new Thread(this, "AggregateMonitor");
+		this.timerThread.setDaemon(true);
+		this.timerThread.start();
+	}
+
+	void destroy()
+	{
+		if (this.timerThread != null)
+		{ this.timerThread.interrupt(); }
+	}
+
+	public void run()
+	{
+		while (true)
+		{
+			this.tick(System.currentTimeMillis());
+			try
+			{ Thread.sleep(this.tickTime()); }
+			catch (InterruptedException e)
+			{ break; }
+		}
+	}
+
+	/**
+	 * @return time between checks, a quarter of the shortest hello time
+	 */
+	private long tickTime()
+	{
+		long shortest = Long.MAX_VALUE;
+		for (AggregateIface aggregate : this.aggregates)
+		{
+			long helloTime = aggregate.getHelloTime();
+			if (helloTime > 0)
+			{ shortest = Math.min(shortest, helloTime); }
+		}
+		return (Long.MAX_VALUE == shortest) ? 1000
+				: Math.max(1, shortest / 4);
+	}
+
+	/**
+	 * Expire silent members, and send hellos on bundles that are due.
+	 */
+	void tick(long now)
+	{
+		PacketTransport transport = this.device.getTransport();
+		for (int i = 0; i < this.aggregates.length; i++)
+		{
+			AggregateIface aggregate = this.aggregates[i];
+			long helloTime = aggregate.getHelloTime();
+			if (0 == helloTime)
+			{ continue; }
+			aggregate.expireMembers(now);
+			if (now - this.sentAt[i] < helloTime || null == transport)
+			{ continue; }
+			this.sentAt[i] = now;
+			for (Iface member : aggregate.getMembers())
+			{
+				transport.sendPacket(aggregate.createHello(member),
+						member.getName());
+			}
+		}
+	}
+}
@@ -1,9 +1,18 @@
 package edu.wisc.cs.sdn.vnet;
 
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.PacketPool;
+import net.floodlightcontroller.packet.ParserRegistry;
 
 import edu.wisc.cs.sdn.vnet.vns.VNSComm;
 
@@ -18,12 +27,36 @@ public abstract class Device
 	/** List of the device's interfaces; maps interface name's to interfaces */
 	protected Map<String,Iface> interfaces;
 	
+	/** The device's interfaces, for looping over without an iterator; null
+	 *  until needed after an interface is added */
+	private volatile Iface[] interfaceArray;
+	
+	/** Names of the interfaces a packet is sent on; one list per thread, so
+	 *  sending on several interfaces does not allocate one */
+	private static final ThreadLocal<List<String>> IFACE_NAMES =
+			ThreadLocal.withInitial(ArrayList::new);
+	
 	/** PCAP dump file for logging all packets sent/received by the device;
 	 *  null if packets should not be logged */
 	private DumpFile logfile;
 	
-	/** Virtual Network Simulator communication manager for the device */
-	private VNSComm vnsComm;
+	/** Transport used to send packets out the device's interfaces; the
+	 *  Virtual Network Simulator communication manager by default */
+	private PacketTransport transport;
+	
+	/** Sends hellos on the members of bundles; null if no bundle has a
+	 *  hello time */
+	private AggregateMonitor aggregateMonitor;
+	
+	/** Highest layer parsed in frames the device receives */
+	private int parseDepth;
+	
+	/** True if received frames are returned to the packet pool once the
+	 *  device has handled them */
+	private boolean recyclePackets;
+	
+	/** True if every frame the device handles is printed */
+	private boolean verbose;
 	
 	/**
 	 * Creates a device.
@@ -35,7 +68,67 @@ public abstract class Device
 		this.host = host;
 		this.logfile = logfile;
 		this.interfaces = new HashMap<String,Iface>();
-		this.vnsComm = null;
+		this.transport = null;
+		this.parseDepth = ParserRegistry.ALL_LAYERS;
+		this.recyclePackets = false;
+		this.verbose = false;
+	}
+	
+	/**
+	 * @param parseDepth highest layer parsed in frames the device receives,
+	 *        such as ParserRegistry.LAYER_2; higher layers are left as Data
+	 */
+	public void setParseDepth(int parseDepth)
+	{ this.parseDepth = parseDepth; }
+	
+	/**
+	 * @return highest layer parsed in frames the device receives
+	 */
+	public int getParseDepth()
+	{ return this.parseDepth; }
+	
+	/**
+	 * @param recyclePackets true if received frames, and the bytes they were
+	 *        parsed from, may be reused once handlePacket returns; only for
+	 *        devices that keep no reference to a frame, such as in a queue
+	 *        of frames waiting for ARP replies, after handling it
+	 */
+	public void setRecyclePackets(boolean recyclePackets)
+	{ this.recyclePackets = recyclePackets; }
+	
+	/**
+	 * @return true if received frames, and the bytes they were parsed from,
+	 *         are reused once handlePacket returns
+	 */
+	public boolean getRecyclePackets()
+	{ return this.recyclePackets; }
+	
+	/**
+	 * @param verbose true to print every frame the device handles, and what
+	 *        it did with it; printing a frame costs far more than forwarding
+	 *        it, so this is off by default
+	 */
+	public void setVerbose(boolean verbose)
+	{ this.verbose = verbose; }
+	
+	/**
+	 * @return true if every frame the device handles is printed
+	 */
+	public boolean isVerbose()
+	{ return this.verbose; }
+	
+	/**
+	 * Print a frame, if the device is verbose.
+	 * @param message printed before the frame, such as why it was dropped
+	 * @param etherPacket the frame
+	 */
+	protected void logPacket(String message, Ethernet etherPacket)
+	{
+		if (this.verbose)
+		{
+			System.out.println(message
+					+ etherPacket.toString().replace("\n", "\n\t"));
+		}
 	}
 	
 	/**
@@ -65,11 +158,39 @@ public abstract class Device
 	public Map<String,Iface> getInterfaces()
 	{ return this.interfaces; }
 	
+	/**
+	 * @return the device's interfaces, including bundles and their members;
+	 *         the array is shared and must not be modified
+	 */
+	protected Iface[] getInterfaceArray()
+	{
+		Iface[] ifaces = this.interfaceArray;
+		if (null == ifaces || ifaces.length != this.interfaces.size())
+		{
+			ifaces = this.interfaces.values().toArray(new Iface[0]);
+			this.interfaceArray = ifaces;
+		}
+		return ifaces;
+	}
+	
 	/**
 	 * @param vnsComm Virtual Network System communication manager for the router
 	 */
 	public void setVNSComm(VNSComm vnsComm)
-	{ this.vnsComm = vnsComm; }
+	{ this.transport = vnsComm; }
+	
+	/**
+	 * @param transport transport used to send packets out the device's
+	 *        interfaces, in place of a Virtual Network Simulator connection
+	 */
+	public void setTransport(PacketTransport transport)
+	{ this.transport = transport; }
+	
+	/**
+	 * @return transport used to send packets out the device's interfaces
+	 */
+	public PacketTransport getTransport()
+	{ return this.transport; }
 	
 	/**
 	 * Close the PCAP dump file for the router, if logging is enabled.
@@ -78,6 +199,8 @@ public abstract class Device
 	{
 		if (logfile != null)
 		{ this.logfile.close(); }
+		if (this.aggregateMonitor != null)
+		{ this.aggregateMonitor.destroy(); }
 	}
 	
 	/**
@@ -86,11 +209,109 @@ public abstract class Device
 	 */
 	public Iface addInterface(String ifaceName)
 	{
-		Iface iface = new Iface(ifaceName);
+		Iface existing = this.interfaces.get(ifaceName);
+		int index = (null == existing ? this.interfaces.size()
+				: existing.getIndex());
+		Iface iface = new Iface(ifaceName, index);
 		this.interfaces.put(ifaceName, iface);
+		this.interfaceArray = null;
 		return iface;
 	}
 	
+	/**
+	 * Bundle several interfaces into one logical interface.
+	 * @param name name of the bundle
+	 * @param members interfaces in the bundle, none of which may already be
+	 *        in a bundle
+	 * @return the bundle
+	 */
+	public AggregateIface addAggregate(String name, List<Iface> members)
+	{
+		AggregateIface aggregate = new AggregateIface(name,
+				this.interfaces.size(), members);
+		this.interfaces.put(name, aggregate);
+		this.interfaceArray = null;
+		return aggregate;
+	}
+	
+	/**
+	 * Load interface bundles from a file. Each line names a bundle followed
+	 * by its member interfaces and, optionally, "hello" and the time between
+	 * hellos on each member in ms, to take members nothing is received on out
+	 * of use; blank lines and lines starting with # are ignored.
+	 * @param filename the name of the file containing the bundles
+	 * @return true if the bundles were loaded successfully, otherwise false
+	 */
+	public boolean loadAggregates(String filename)
+	{
+		try (BufferedReader reader = new BufferedReader(
+				new FileReader(filename)))
+		{
+			List<AggregateIface> monitored = new ArrayList<AggregateIface>();
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] fields = line.trim().split("\\s+");
+				if (fields[0].isEmpty() || fields[0].startsWith("#"))
+				{ continue; }
+				int memberFields = fields.length;
+				long helloTime = 0;
+				if (fields.length >= 2
+						&& fields[fields.length - 2].equals("hello"))
+				{
+					memberFields = fields.length - 2;
+					try
+					{ helloTime = Long.parseLong(fields[fields.length - 1]); }
+					catch (NumberFormatException e)
+					{ helloTime = -1; }
+				}
+				if (memberFields < 3 || this.interfaces.containsKey(fields[0])
+						|| helloTime < 0 || (memberFields < fields.length
+							&& 0 == helloTime))
+				{
+					System.err.println("Invalid bundle " + line.trim());
+					return false;
+				}
+				List<Iface> members = new ArrayList<Iface>();
+				for (int i = 1; i < memberFields; i++)
+				{
+					Iface member = this.interfaces.get(fields[i]);
+					if (null == member || member.getAggregate() != null
+							|| member instanceof AggregateIface
+							|| members.contains(member))
+					{
+						System.err.println("Invalid bundle member "
+								+ fields[i]);
+						return false;
+					}
+					members.add(member);
+				}
+				AggregateIface aggregate = this.addAggregate(fields[0], members);
+				if (helloTime > 0)
+				{
+					aggregate.setHelloTime(helloTime);
+					monitored.add(aggregate);
+				}
+			}
+			if (!monitored.isEmpty())
+			{
+				this.aggregateMonitor = new AggregateMonitor(this, monitored);
+				this.aggregateMonitor.start();
+			}
+		}
+		catch (FileNotFoundException e)
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+		catch (IOException e)
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+		return true;
+	}
+	
 	/**
 	 * Gets an interface on the device by the interface's name.
 	 * @param ifaceName name of the desired interface
@@ -108,7 +329,98 @@ public abstract class Device
 	 * @return true if the packet was sent successfully, otherwise false
 	 */
 	public boolean sendPacket(Ethernet etherPacket, Iface iface)
-	{ return this.vnsComm.sendPacket(etherPacket, iface.getName()); }
+	{
+		if (!(iface instanceof AggregateIface))
+		{ return this.transport.sendPacket(etherPacket, iface.getName()); }
+		
+		// Fall back to the remaining members if sending on one fails
+		AggregateIface aggregate = (AggregateIface)iface;
+		Iface member;
+		while ((member = aggregate.selectMember(etherPacket)) != null)
+		{
+			if (this.transport.sendPacket(etherPacket, member.getName()))
+			{ return true; }
+			aggregate.setMemberUp(member, false);
+		}
+		return false;
+	}
+	
+	/**
+	 * Send the same Ethernet packet out several interfaces. The packet is
+	 * serialized once rather than once per interface.
+	 * @param etherPacket an Ethernet packet with all fields, encapsulated
+	 * 		  headers, and payloads completed
+	 * @param ifaces interfaces on which to send the packet
+	 * @return true if the packet was sent successfully on every interface,
+	 *         otherwise false
+	 */
+	public boolean sendPacket(Ethernet etherPacket, Collection<Iface> ifaces)
+	{
+		if (ifaces.isEmpty())
+		{ return true; }
+		boolean sent = true;
+		List<String> ifaceNames = IFACE_NAMES.get();
+		ifaceNames.clear();
+		for (Iface iface : ifaces)
+		{
+			// Bundles are sent on separately, so failed members are noticed
+			if (iface instanceof AggregateIface)
+			{ sent &= this.sendPacket(etherPacket, iface); }
+			else
+			{ ifaceNames.add(iface.getName()); }
+		}
+		if (!ifaceNames.isEmpty())
+		{ sent &= this.transport.sendPacket(etherPacket, ifaceNames); }
+		return sent;
+	}
+	
+	/**
+	 * Pass an Ethernet packet received on an interface to the device. A
+	 * packet received on a member of a bundle is handled as received on the
+	 * bundle, and puts the member back in use. Hellos, and packets received
+	 * on no known interface, are dropped.
+	 * @param etherPacket the Ethernet packet that was received
+	 * @param iface the interface on which the packet was received; null if
+	 *        it was received on an interface the device does not have
+	 */
+	public void receivePacket(Ethernet etherPacket, Iface iface)
+	{
+		if (null == iface)
+		{
+			System.err.println("Dropped packet received on unknown interface");
+			return;
+		}
+		AggregateIface aggregate = iface.getAggregate();
+		if (aggregate != null)
+		{
+			aggregate.heard(iface);
+			iface = aggregate;
+		}
+		if (AggregateIface.isHello(etherPacket))
+		{ return; }
+		this.handlePacket(etherPacket, iface);
+	}
+	
+	/**
+	 * Parse a frame received on an interface, to the device's parse depth,
+	 * and pass it to the device. The frame is parsed into packets from the
+	 * packet pool, and returned to the pool once the device has handled it
+	 * if the device recycles packets.
+	 * @param data bytes containing the frame; not copied, so they must not
+	 *        change while the device may still refer to the frame
+	 * @param offset offset of the frame within data
+	 * @param length length of the frame
+	 * @param iface the interface on which the frame was received
+	 */
+	public void receiveFrame(byte[] data, int offset, int length, Iface iface)
+	{
+		Ethernet etherPacket = PacketPool.acquire(Ethernet.class, 
+				Ethernet::new);
+		etherPacket.deserialize(data, offset, length, this.parseDepth);
+		this.receivePacket(etherPacket, iface);
+		if (this.recyclePackets)
+		{ PacketPool.release(etherPacket); }
+	}
 	
 	public abstract void handlePacket(Ethernet etherPacket, Iface inIface);
 }
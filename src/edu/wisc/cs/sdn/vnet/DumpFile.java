@@ -76,18 +76,32 @@ public class DumpFile
 	}
 	
 	public void dump(Ethernet etherPacket)
+	{ this.dump(etherPacket.serialize()); }
+	
+	/**
+	 * Write an already serialized frame to the dump file.
+	 * @param buf the frame's bytes
+	 */
+	public void dump(byte[] buf)
+	{ this.dump(buf, 0, buf.length); }
+	
+	/**
+	 * Write an already serialized frame to the dump file.
+	 * @param buf bytes containing the frame
+	 * @param offset offset of the frame within buf
+	 * @param length length of the frame
+	 */
+	public synchronized void dump(byte[] buf, int offset, int length)
 	{
-		byte[] buf = etherPacket.serialize();
-		
 		int sec = (int)(System.currentTimeMillis()/1000);
 		int usec = (int)((System.currentTimeMillis() % 1000)*1000);
 		try
 		{
 			this.outStream.writeInt(sec);
 			this.outStream.writeInt(usec);
-			this.outStream.writeInt(buf.length);
-			this.outStream.writeInt(buf.length);
-			this.outStream.write(buf);
+			this.outStream.writeInt(length);
+			this.outStream.writeInt(length);
+			this.outStream.write(buf, offset, length);
 			this.outStream.flush();
 		}
 		catch (IOException e)
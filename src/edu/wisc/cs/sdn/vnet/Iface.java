@@ -1,5 +1,8 @@
 package edu.wisc.cs.sdn.vnet;
 
+import java.util.BitSet;
+
+import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.MACAddress;
 
@@ -10,20 +13,52 @@ import net.floodlightcontroller.packet.MACAddress;
 public class Iface 
 {
 	private String name;
+	private int index;
 	private MACAddress macAddress;
 	private int ipAddress;
 	private int subnetMask;
 	
+	/** VLAN of an access port; Ethernet.VLAN_UNTAGGED if the interface is
+	 *  not an access port */
+	private short accessVlan;
+	
+	/** VLANs carried by a trunk port; null if the interface is not a trunk
+	 *  port */
+	private BitSet trunkVlans;
+	
+	/** VLAN of untagged frames on a trunk port; Ethernet.VLAN_UNTAGGED if
+	 *  the trunk does not accept untagged frames */
+	private short nativeVlan;
+	
+	/** Bundle the interface belongs to; null if it is not in a bundle */
+	private AggregateIface aggregate;
+	
 	public Iface(String name)
+	{ this(name, -1); }
+	
+	/**
+	 * @param name name of the interface
+	 * @param index small number, unique among the device's interfaces, that
+	 *        identifies the interface in tables indexed by port
+	 */
+	public Iface(String name, int index)
 	{
 		this.name = name;
+		this.index = index;
 		this.macAddress = null;
 		this.ipAddress = 0;
+		this.accessVlan = Ethernet.VLAN_UNTAGGED;
+		this.trunkVlans = null;
+		this.nativeVlan = Ethernet.VLAN_UNTAGGED;
+		this.aggregate = null;
 	}
 	
 	public String getName()
 	{ return this.name; }
 	
+	public int getIndex()
+	{ return this.index; }
+	
 	public void setMacAddress(MACAddress mac)
 	{ this.macAddress = mac; }
 	
@@ -41,6 +76,82 @@ public class Iface
 	
 	public int getSubnetMask()
 	{ return this.subnetMask; }
+	
+	void setAggregate(AggregateIface aggregate)
+	{ this.aggregate = aggregate; }
+	
+	/**
+	 * @return bundle the interface belongs to; null if it is not in a bundle
+	 */
+	public AggregateIface getAggregate()
+	{ return this.aggregate; }
+	
+	/**
+	 * Make the interface an access port, which carries one VLAN untagged.
+	 * @param vlan VLAN ID
+	 */
+	public void setAccessVlan(short vlan)
+	{
+		this.accessVlan = vlan;
+		this.trunkVlans = null;
+		this.nativeVlan = Ethernet.VLAN_UNTAGGED;
+	}
+	
+	public short getAccessVlan()
+	{ return this.accessVlan; }
+	
+	/**
+	 * Make the interface a trunk port, which carries several VLANs tagged.
+	 * @param vlans IDs of the VLANs the trunk carries
+	 * @param nativeVlan VLAN carried untagged; Ethernet.VLAN_UNTAGGED if
+	 *        untagged frames are not accepted
+	 */
+	public void setTrunkVlans(BitSet vlans, short nativeVlan)
+	{
+		this.accessVlan = Ethernet.VLAN_UNTAGGED;
+		this.trunkVlans = (BitSet)vlans.clone();
+		this.nativeVlan = nativeVlan;
+		if (nativeVlan != Ethernet.VLAN_UNTAGGED)
+		{ this.trunkVlans.set(nativeVlan); }
+	}
+	
+	public short getNativeVlan()
+	{ return this.nativeVlan; }
+	
+	public boolean isAccessPort()
+	{ return this.accessVlan != Ethernet.VLAN_UNTAGGED; }
+	
+	public boolean isTrunkPort()
+	{ return this.trunkVlans != null; }
+	
+	/**
+	 * An interface with no VLAN configuration carries every VLAN and passes
+	 * tags through unchanged.
+	 * @param vlan VLAN ID; Ethernet.VLAN_UNTAGGED for untagged frames on
+	 *        interfaces with no VLAN configuration
+	 * @return true if the interface carries the VLAN, otherwise false
+	 */
+	public boolean isVlanMember(short vlan)
+	{
+		if (this.isAccessPort())
+		{ return vlan == this.accessVlan; }
+		if (this.isTrunkPort())
+		{ return vlan >= 0 && this.trunkVlans.get(vlan); }
+		return true;
+	}
+	
+	/**
+	 * @param vlan VLAN ID of a frame sent on the interface
+	 * @return true if the frame must carry an 802.1Q tag, otherwise false
+	 */
+	public boolean isVlanTagged(short vlan)
+	{
+		if (this.isAccessPort())
+		{ return false; }
+		if (this.isTrunkPort())
+		{ return vlan != this.nativeVlan; }
+		return vlan != Ethernet.VLAN_UNTAGGED;
+	}
 
 	public String toString()
 	{
@@ -9,14 +9,26 @@ public class Main
 {
 	private static final short DEFAULT_PORT = 8888;
 	private static final String DEFAULT_SERVER = "localhost";
+	private static final String DEFAULT_UNIX_SOCKET = "/tmp/vns.sock";
+	private static final String DEFAULT_RING_PREFIX = "/dev/shm/vns-";
+	
+	private static final String TRANSPORT_TCP = "tcp";
+	private static final String TRANSPORT_UNIX = "unix";
+	private static final String TRANSPORT_SHM = "shm";
 	
 	public static void main(String[] args)
 	{
 		String host = null;
-		String server = DEFAULT_SERVER;
+		String server = null;
+		String transport = TRANSPORT_TCP;
 		String routeTableFile = null;
 		String arpCacheFile = null;
 		String logfile = null;
+		String switchConfigFile = null;
+		String aggregateFile = null;
+		long macTimeout = 0;
+		boolean spanningTree = false;
+		boolean verbose = false;
 		short port = DEFAULT_PORT;
 		VNSComm vnsComm = null;
 		Device dev = null;
@@ -36,12 +48,24 @@ public class Main
 			{ host = args[++i]; }
 			else if (arg.equals("-s"))
 			{ server = args[++i]; }
+			else if (arg.equals("-t"))
+			{ transport = args[++i]; }
 			else if (arg.equals("-l"))
 			{ logfile = args[++i]; }
 			else if (arg.equals("-r"))
 			{ routeTableFile = args[++i]; }
 			else if (arg.equals("-a"))
 			{ arpCacheFile = args[++i]; }
+			else if (arg.equals("-c"))
+			{ switchConfigFile = args[++i]; }
+			else if (arg.equals("-b"))
+			{ spanningTree = true; }
+			else if (arg.equals("-d"))
+			{ verbose = true; }
+			else if (arg.equals("-m"))
+			{ macTimeout = Long.parseLong(args[++i]); }
+			else if (arg.equals("-g"))
+			{ aggregateFile = args[++i]; }
 		}
 		
 		if (null == host)
@@ -50,6 +74,18 @@ public class Main
 			return;
 		}
 		
+		// The server is a host name, a socket path or a ring file,
+		// depending on how the server is reached
+		if (null == server)
+		{
+			if (transport.equals(TRANSPORT_UNIX))
+			{ server = DEFAULT_UNIX_SOCKET; }
+			else if (transport.equals(TRANSPORT_SHM))
+			{ server = DEFAULT_RING_PREFIX + host; }
+			else
+			{ server = DEFAULT_SERVER; }
+		}
+		
 		// Open PCAP dump file for logging packets sent/received by the router
 		DumpFile dump = null;
 		if (logfile != null)
@@ -63,7 +99,12 @@ public class Main
 		}
 		
 		if (host.startsWith("s"))
-		{ dev = new Switch(host, dump); }
+		{
+			Switch sw = new Switch(host, dump);
+			if (macTimeout > 0)
+			{ sw.setMacTimeout(macTimeout * 1000); }
+			dev = sw;
+		}
 		else if (host.startsWith("r"))
 		{
 			// Create router instance
@@ -74,15 +115,49 @@ public class Main
 			System.err.println("Device name must start with 's' or 'r'");
 			return;
 		}
+		dev.setVerbose(verbose);
 		
 		// Connect to Virtual Network Simulator server and negotiate session
-		System.out.println(String.format("Connecting to server %s:%d", 
-				server, port));
 		vnsComm = new VNSComm(dev);
-		if (!vnsComm.connectToServer(port, server))
+		boolean connected;
+		if (transport.equals(TRANSPORT_TCP))
+		{
+			System.out.println(String.format("Connecting to server %s:%d", 
+					server, port));
+			connected = vnsComm.connectToServer(port, server);
+		}
+		else if (transport.equals(TRANSPORT_UNIX))
+		{
+			System.out.println("Connecting to server at socket " + server);
+			connected = vnsComm.connectToUnixServer(server);
+		}
+		else if (transport.equals(TRANSPORT_SHM))
+		{
+			System.out.println("Connecting to server through ring " + server);
+			connected = vnsComm.connectToRing(server);
+		}
+		else
+		{
+			System.err.println("Unknown transport " + transport);
+			usage();
+			return;
+		}
+		if (!connected)
 		{ System.exit(1); }
 		vnsComm.readFromServerExpect(Command.VNS_HW_INFO);	
 		
+		// Bundle interfaces before anything refers to them
+		if (aggregateFile != null)
+		{
+			if (!dev.loadAggregates(aggregateFile))
+			{
+				System.err.println("Error setting up interface bundles from file "
+						+ aggregateFile);
+				System.exit(1);
+			}
+			System.out.println("Loaded interface bundles");
+		}
+		
 		if (dev instanceof Router) 
 		{
 			// Read static route table
@@ -93,6 +168,16 @@ public class Main
 			if (arpCacheFile != null)
 			{ ((Router)dev).loadArpCache(arpCacheFile); }
 		}
+		else if (dev instanceof Switch)
+		{
+			// Read port settings
+			if (switchConfigFile != null)
+			{ ((Switch)dev).loadConfig(switchConfigFile); }
+			
+			// Run the spanning tree protocol
+			if (spanningTree)
+			{ ((Switch)dev).startSpanningTree(); }
+		}
 
 		// Read messages from the server until the server closes the connection
 		System.out.println("<-- Ready to process packets -->");
@@ -105,9 +190,17 @@ public class Main
 	static void usage()
 	{
 		System.out.println("Virtual Network Client");
-		System.out.println("VNet -v host [-s server] [-p port] [-h]");
+		System.out.println("VNet -v host [-s server] [-p port] [-t transport] [-h]");
 		System.out.println("     [-r routing_table] [-a arp_cache] [-l log_file]");
+		System.out.println("     [-c switch_config] [-m mac_timeout_seconds] [-b]");
+		System.out.println("     [-g interface_bundles] [-d]");
 		System.out.println(String.format("  defaults server=%s port=%d", 
 				DEFAULT_SERVER, DEFAULT_PORT));
+		System.out.println("  -d prints every packet the device handles");
+		System.out.println("  transport is tcp, unix or shm; for unix, server is the");
+		System.out.println("  server's socket, default " + DEFAULT_UNIX_SOCKET
+				+ "; for shm, it is");
+		System.out.println("  the ring file the server made, default "
+				+ DEFAULT_RING_PREFIX + "host");
 	}
 }
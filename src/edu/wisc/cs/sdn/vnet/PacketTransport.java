@@ -0,0 +1,42 @@
+package edu.wisc.cs.sdn.vnet;
+
+import java.util.List;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+/**
+ * Carries Ethernet frames sent by a device out one of its interfaces.
+ * The Virtual Network Simulator connection is the usual transport; other
+ * implementations can deliver frames without going through the VNS server.
+ */
+public interface PacketTransport
+{
+	/**
+	 * Send an Ethernet packet out a specific interface.
+	 * @param etherPacket an Ethernet packet with all fields, encapsulated
+	 * 		  headers, and payloads completed
+	 * @param ifaceName name of the interface on which to send the packet
+	 * @return true if the packet was sent successfully, otherwise false
+	 */
+	public boolean sendPacket(Ethernet etherPacket, String ifaceName);
+
+	/**
+	 * Send the same Ethernet packet out several interfaces. Transports should
+	 * serialize the packet once and reuse the bytes for every interface.
+	 * Devices reuse the list of names for their next packet, so it must not
+	 * be kept after returning.
+	 * @param etherPacket an Ethernet packet with all fields, encapsulated
+	 * 		  headers, and payloads completed
+	 * @param ifaceNames names of the interfaces on which to send the packet
+	 * @return true if the packet was sent successfully on every interface,
+	 *         otherwise false
+	 */
+	public default boolean sendPacket(Ethernet etherPacket,
+			List<String> ifaceNames)
+	{
+		boolean sent = true;
+		for (String ifaceName : ifaceNames)
+		{ sent &= this.sendPacket(etherPacket, ifaceName); }
+		return sent;
+	}
+}
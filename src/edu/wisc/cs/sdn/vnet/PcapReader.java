@@ -0,0 +1,164 @@
+package edu.wisc.cs.sdn.vnet;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads frames from a PCAP file, such as one written by {@link DumpFile}.
+ * The file is memory-mapped, so frames are read without system calls.
+ */
+public class PcapReader
+{
+	private static final int TCPDUMP_MAGIC = 0xa1b2c3d4;
+	private static final int TCPDUMP_MAGIC_NANO = 0xa1b23c4d;
+	private static final int LINKTYPE_ETHERNET = 1;
+	private static final int FILE_HEADER_LENGTH = 24;
+	private static final int RECORD_HEADER_LENGTH = 16;
+
+	/** Contents of the file */
+	private MappedByteBuffer buf;
+
+	/** True if record timestamps have nanosecond rather than microsecond
+	 *  resolution */
+	private boolean nanoResolution;
+
+	/** Timestamp of the current frame, in nanoseconds since the epoch */
+	private long timestamp;
+
+	/** Offset and length of the current frame within the file */
+	private int frameOffset;
+	private int frameLength;
+
+	private PcapReader(MappedByteBuffer buf)
+	{
+		this.buf = buf;
+		this.frameOffset = 0;
+		this.frameLength = 0;
+	}
+
+	/**
+	 * Open a PCAP file for reading.
+	 * @param filename name of the file
+	 * @return a reader positioned before the first frame; null if the file
+	 *         could not be opened or is not an Ethernet PCAP file
+	 */
+	public static PcapReader open(String filename)
+	{
+		MappedByteBuffer buf;
+		try (RandomAccessFile file = new RandomAccessFile(filename, "r"))
+		{
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				System.err.println("Capture file " + filename + " too large");
+				return null;
+			}
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		catch (IOException e)
+		{
+			System.err.println("Cannot open " + filename);
+			return null;
+		}
+
+		PcapReader reader = new PcapReader(buf);
+		if (!reader.readHeader())
+		{
+			System.err.println(filename + " is not an Ethernet capture file");
+			return null;
+		}
+		return reader;
+	}
+
+	private boolean readHeader()
+	{
+		if (this.buf.limit() < FILE_HEADER_LENGTH)
+		{ return false; }
+
+		// The magic number tells us the byte order and timestamp resolution
+		int magic = this.buf.getInt(0);
+		if (Integer.reverseBytes(magic) == TCPDUMP_MAGIC
+				|| Integer.reverseBytes(magic) == TCPDUMP_MAGIC_NANO)
+		{
+			this.buf.order(ByteOrder.LITTLE_ENDIAN);
+			magic = Integer.reverseBytes(magic);
+		}
+		if (magic != TCPDUMP_MAGIC && magic != TCPDUMP_MAGIC_NANO)
+		{ return false; }
+		this.nanoResolution = (TCPDUMP_MAGIC_NANO == magic);
+
+		if (this.buf.getInt(20) != LINKTYPE_ETHERNET)
+		{ return false; }
+		this.buf.position(FILE_HEADER_LENGTH);
+		return true;
+	}
+
+	/**
+	 * Advance to the next frame in the file.
+	 * @return true if there is another frame, false at the end of the file or
+	 *         if the last record is truncated
+	 */
+	public boolean next()
+	{
+		if (this.buf.remaining() < RECORD_HEADER_LENGTH)
+		{ return false; }
+
+		int pos = this.buf.position();
+		long sec = this.buf.getInt(pos) & 0xffffffffL;
+		long frac = this.buf.getInt(pos + 4) & 0xffffffffL;
+		int length = this.buf.getInt(pos + 8);
+		if (length < 0 || this.buf.remaining() - RECORD_HEADER_LENGTH < length)
+		{ return false; }
+
+		this.timestamp = sec * 1000000000L
+				+ (this.nanoResolution ? frac : frac * 1000L);
+		this.frameOffset = pos + RECORD_HEADER_LENGTH;
+		this.frameLength = length;
+		this.buf.position(this.frameOffset + length);
+		return true;
+	}
+
+	/**
+	 * Return to the first frame in the file.
+	 */
+	public void rewind()
+	{
+		this.buf.position(FILE_HEADER_LENGTH);
+		this.frameOffset = 0;
+		this.frameLength = 0;
+	}
+
+	/**
+	 * @return timestamp of the current frame, in nanoseconds since the epoch
+	 */
+	public long getTimestamp()
+	{ return this.timestamp; }
+
+	/**
+	 * @return number of captured bytes in the current frame
+	 */
+	public int getLength()
+	{ return this.frameLength; }
+
+	/**
+	 * Copy the current frame into a buffer.
+	 * @param dst buffer to copy the frame into; must have room for at least
+	 *        {@link #getLength()} bytes
+	 * @return number of bytes copied
+	 */
+	public int getFrame(byte[] dst)
+	{
+		this.buf.get(this.frameOffset, dst, 0, this.frameLength);
+		return this.frameLength;
+	}
+
+	/**
+	 * @param index offset of the byte within the current frame
+	 * @return the byte at the offset
+	 */
+	public byte getByte(int index)
+	{ return this.buf.get(this.frameOffset + index); }
+}
@@ -23,6 +23,10 @@ public class RouteTable
 	/** Entries in the route table */
 	private List<RouteEntry> entries; 
 	
+	/** Buffers lookups format addresses into; guarded by the entries lock */
+	private byte[] sIp = new byte[IPv4.MAX_ADDRESS_STRING_LENGTH];
+	private byte[] currIp = new byte[IPv4.MAX_ADDRESS_STRING_LENGTH];
+	
 	/**
 	 * Initialize an empty route table.
 	 */
@@ -39,15 +43,19 @@ public class RouteTable
 		synchronized(this.entries)
 		{
 			/*****************************************************************/
-			char[] sIp = IPv4.fromIPv4Address(ip).toCharArray();
+			// addresses are compared as text, formatted into two buffers
+			// rather than into new strings for every entry
+			byte[] sIp = this.sIp;
+			int sIpLength = IPv4.putIPv4Address(sIp, 0, ip);
+			byte[] currIp = this.currIp;
 			int matchDigits = 0;
 			RouteEntry matchedIp = null;
 			for (RouteEntry entry: this.entries){
-				char[] currIp = IPv4.fromIPv4Address(
-						entry.getDestinationAddress()).toCharArray();
+				int currIpLength = IPv4.putIPv4Address(currIp, 0,
+						entry.getDestinationAddress());
 				
 				//compare the characters between the ip until get to a no match
-				for(int i = 0; i < Math.min(sIp.length, currIp.length); i++){
+				for(int i = 0; i < Math.min(sIpLength, currIpLength); i++){
 					if(sIp[i] != currIp[i]){
 						if(i > matchDigits){
 							matchDigits = i;
@@ -145,6 +153,10 @@ public class RouteTable
 				return false;
 			}
 			
+			// Routes out a member of a bundle use the whole bundle
+			if (iface.getAggregate() != null)
+			{ iface = iface.getAggregate(); }
+			
 			// Add an entry to the route table
 			this.insert(dstIp, gwIp, maskIp, iface);
 		}
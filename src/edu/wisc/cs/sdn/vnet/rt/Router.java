@@ -7,6 +7,8 @@ import edu.wisc.cs.sdn.vnet.Iface;
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.IPacket;
+import net.floodlightcontroller.packet.MACAddress;
+import net.floodlightcontroller.packet.ParserRegistry;
 
 /**
  * @author Aaron Gember-Jacobson and Anubhavnidhi Abhashkumar
@@ -28,6 +30,10 @@ public class Router extends Device
 		super(host,logfile);
 		this.routeTable = new RouteTable();
 		this.arpCache = new ArpCache();
+		this.setParseDepth(ParserRegistry.LAYER_3);
+		// Frames are forwarded or dropped before handlePacket returns; turn
+		// this off before queueing frames, such as while waiting for ARP
+		this.setRecyclePackets(true);
 	}
 	
 	/**
@@ -36,6 +42,12 @@ public class Router extends Device
 	public RouteTable getRouteTable()
 	{ return this.routeTable; }
 	
+	/**
+	 * @return ARP cache for the router
+	 */
+	public ArpCache getArpCache()
+	{ return this.arpCache; }
+	
 	/**
 	 * Load a new routing table from a file.
 	 * @param routeTableFile the name of the file containing the routing table
@@ -81,8 +93,7 @@ public class Router extends Device
 	 */
 	public void handlePacket(Ethernet etherPacket, Iface inIface)
 	{
-		System.out.println("*** -> Received packet: " +
-				etherPacket.toString().replace("\n", "\n\t"));
+		this.logPacket("*** -> Received packet: ", etherPacket);
 		
 		/********************************************************************/
 		//packet handline
@@ -94,31 +105,23 @@ public class Router extends Device
 			payload = (IPv4)data;
 		}
 		else{
-			System.out.println("*** -> Packet dropped - not a IPv4 packet: " + 
-				etherPacket.toString().replace("\n", "\n\t"));
+			this.logPacket("*** -> Packet dropped - not a IPv4 packet: ",
+				etherPacket);
 			return;
 		}
 		
 		//verify the checksum. If not correct, drop it
-		//get the given checksum
-		short givenChecksum = payload.getChecksum();
-		
-		//recompute the checksum
-		payload.resetChecksum();
-		payload.serialize();
-		short newChecksum = payload.getChecksum();
-		
-		if(givenChecksum != newChecksum){
-			System.out.println("*** -> Packet dropped - checksum incorrect: " + 
-				etherPacket.toString().replace("\n", "\n\t"));
+		if(!payload.isChecksumValid()){
+			this.logPacket("*** -> Packet dropped - checksum incorrect: ",
+				etherPacket);
 			return;
 		}
 		
 		//decrease the TTL by 1. If result is 0, drop it
 		byte ttl = 0;
 		if((ttl = payload.getTtl()) <= (byte)1){
-			System.out.println("*** -> Packet dropped - TTL reached 0: " + 
-				etherPacket.toString().replace("\n", "\n\t"));
+			this.logPacket("*** -> Packet dropped - TTL reached 0: ",
+				etherPacket);
 			return;
 		}
 		ttl--;
@@ -130,16 +133,16 @@ public class Router extends Device
 		for(Iface iface: this.interfaces.values()){
 			int currIp = iface.getIpAddress();
 			if(currIp == destinationIp){
-				System.out.println("*** -> Packet dropped - destination is the current router: " + 
-					etherPacket.toString().replace("\n", "\n\t"));
+				this.logPacket("*** -> Packet dropped - destination is the current router: ",
+					etherPacket);
 				return;
 			}
 		}
 		
 		RouteEntry routeEntry = routeTable.lookup(destinationIp);			
 		if (routeEntry == null){
-			System.out.println("*** -> Packet dropped - can't find route entry: " + 
-				etherPacket.toString().replace("\n", "\n\t"));
+			this.logPacket("*** -> Packet dropped - can't find route entry: ",
+				etherPacket);
 			return;
 		}
 		//get the gateway address
@@ -151,23 +154,21 @@ public class Router extends Device
 				
 		ArpEntry arpEntry = arpCache.lookup(nextHopIp);
 		if(arpEntry == null){
-			System.out.println("*** -> Packet dropped - can't find arp entry for destination: " + 
-				etherPacket.toString().replace("\n", "\n\t"));
+			this.logPacket("*** -> Packet dropped - can't find arp entry for destination: ",
+				etherPacket);
 			return;
 		}
-		String destinationMAC = arpEntry.getMac().toString();
+		MACAddress destinationMAC = arpEntry.getMac();
 		
 		//set the MAC addresses for the frame
-		etherPacket.setSourceMACAddress(etherPacket.getDestinationMAC().toString());
+		etherPacket.setSourceMACAddress(etherPacket.getDestinationMAC());
 		etherPacket.setDestinationMACAddress(destinationMAC);	
 		
-		//re-serialize the frame
-		payload.resetChecksum();	
-		payload.serialize();
+		//the checksum is recomputed when the frame is serialized to be sent
+		payload.resetChecksum();
 		etherPacket.setPayload(payload);
 		this.sendPacket(etherPacket, routeEntry.getInterface());
-		System.out.println("*** -> Packet sent: " + 
-			etherPacket.toString().replace("\n", "\n\t"));
+		this.logPacket("*** -> Packet sent: ", etherPacket);
 		/********************************************************************/
 	}
 }
@@ -0,0 +1,139 @@
+package edu.wisc.cs.sdn.vnet.sim;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import net.floodlightcontroller.packet.Checksum;
+
+/**
+ * Times the Internet checksum of buffers of several sizes, computed by
+ * {@link Checksum} and by the loop IPv4, TCP and UDP used before it, which
+ * read one 16-bit word at a time with getShort. Each size is timed over
+ * several rounds and the fastest round of each loop is reported, since the
+ * first rounds include compiling the loops and any round can be slowed by
+ * other work on the host.
+ */
+public class ChecksumBench
+{
+	private static final int[] DEFAULT_SIZES = { 20, 64, 576, 1500 };
+	private static final long DEFAULT_BYTES = 200000000L;
+	private static final int DEFAULT_ROUNDS = 7;
+
+	/** Keeps the JIT from discarding checksums nothing uses */
+	private static volatile int sink;
+
+	/**
+	 * The checksum loop IPv4, TCP and UDP used before Checksum, including
+	 * its single fold of the carries.
+	 */
+	static short legacyChecksum(ByteBuffer bb, int start, int length)
+	{
+		bb.position(start);
+		int accumulation = 0;
+		for (int i = 0; i < length / 2; ++i)
+		{ accumulation += 0xffff & bb.getShort(); }
+		if (length % 2 > 0)
+		{ accumulation += (bb.get() & 0xff) << 8; }
+		accumulation = ((accumulation >> 16) & 0xffff)
+				+ (accumulation & 0xffff);
+		return (short)(~accumulation & 0xffff);
+	}
+
+	/**
+	 * Time both loops over random data of one size.
+	 * @param size bytes checksummed each time
+	 * @param bytes bytes checksummed by each loop in each round
+	 * @param rounds times each loop is run
+	 * @return ns per checksum in the fastest round, for the old loop and
+	 *         for Checksum
+	 */
+	static double[] time(int size, long bytes, int rounds)
+	{
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		ByteBuffer bb = ByteBuffer.wrap(data);
+		long iterations = Math.max(1, bytes / size);
+
+		double[] result = { Double.MAX_VALUE, Double.MAX_VALUE };
+		for (int round = 0; round < rounds; round++)
+		{
+			int sum = 0;
+			long start = System.nanoTime();
+			for (long i = 0; i < iterations; i++)
+			{ sum += legacyChecksum(bb, 0, size); }
+			long middle = System.nanoTime();
+			for (long i = 0; i < iterations; i++)
+			{ sum += Checksum.finish(Checksum.add(0, bb, 0, size)); }
+			long end = System.nanoTime();
+			sink = sum;
+
+			result[0] = Math.min(result[0],
+					(middle - start) / (double)iterations);
+			result[1] = Math.min(result[1],
+					(end - middle) / (double)iterations);
+		}
+		return result;
+	}
+
+	public static void main(String[] args)
+	{
+		int[] sizes = DEFAULT_SIZES;
+		long bytes = DEFAULT_BYTES;
+		int rounds = DEFAULT_ROUNDS;
+
+		// Parse arguments
+		for (int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			if (arg.equals("-h"))
+			{
+				usage();
+				return;
+			}
+			else if (arg.equals("-s"))
+			{
+				String[] parts = args[++i].split(",");
+				sizes = new int[parts.length];
+				for (int j = 0; j < parts.length; j++)
+				{ sizes[j] = Integer.parseInt(parts[j].trim()); }
+			}
+			else if (arg.equals("-b"))
+			{ bytes = Long.parseLong(args[++i]); }
+			else if (arg.equals("-r"))
+			{ rounds = Integer.parseInt(args[++i]); }
+		}
+
+		if (bytes <= 0 || rounds <= 0)
+		{
+			usage();
+			return;
+		}
+		for (int size : sizes)
+		{
+			if (size <= 0)
+			{
+				usage();
+				return;
+			}
+		}
+
+		System.out.printf("%8s %12s %12s %8s\n", "Bytes", "getShort(ns)",
+				"Checksum(ns)", "Speedup");
+		for (int size : sizes)
+		{
+			double[] ns = time(size, bytes, rounds);
+			System.out.printf("%8d %12.1f %12.1f %7.1fx\n", size, ns[0], ns[1],
+					ns[0] / ns[1]);
+		}
+	}
+
+	static void usage()
+	{
+		System.out.println("Checksum Benchmark");
+		System.out.println("ChecksumBench [-s size[,...]] [-b bytes_per_round]"
+				+ " [-r rounds] [-h]");
+		System.out.println(String.format("  defaults sizes=20,64,576,1500"
+				+ " bytes_per_round=%d rounds=%d", DEFAULT_BYTES,
+				DEFAULT_ROUNDS));
+	}
+}
@@ -0,0 +1,85 @@
+package edu.wisc.cs.sdn.vnet.sim;
+
+import java.util.List;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+import edu.wisc.cs.sdn.vnet.Device;
+import edu.wisc.cs.sdn.vnet.Iface;
+import edu.wisc.cs.sdn.vnet.PacketTransport;
+
+/**
+ * Runs a switch or router inside the simulator. Frames received on the
+ * node's ports are passed to the device, and frames the device sends are
+ * placed on the corresponding links.
+ */
+public class DeviceNode extends SimNode implements PacketTransport
+{
+	/** Switch or router that processes the frames */
+	private Device device;
+
+	/**
+	 * Creates a node for a device.
+	 * @param device switch or router that processes the frames
+	 */
+	public DeviceNode(Device device)
+	{
+		super(device.getHost());
+		this.device = device;
+		this.device.setTransport(this);
+	}
+
+	public Device getDevice()
+	{ return this.device; }
+
+	/**
+	 * Add a port to the node, along with a matching interface on the device.
+	 */
+	public SimPort addPort(String ifaceName, int queueLength)
+	{
+		this.device.addInterface(ifaceName);
+		return super.addPort(ifaceName, queueLength);
+	}
+
+	protected void receive(byte[] frame, SimPort port)
+	{
+		Iface inIface = this.device.getInterface(port.getIfaceName());
+		this.device.receiveFrame(frame, 0, frame.length, inIface);
+	}
+
+	public boolean sendPacket(Ethernet etherPacket, String ifaceName)
+	{
+		SimPort port = this.ports.get(ifaceName);
+		if (null == port)
+		{
+			System.err.println("** Error, interface " + ifaceName 
+					+ ", does not exist");
+			return false;
+		}
+		return port.transmit(etherPacket.serialize());
+	}
+
+	public boolean sendPacket(Ethernet etherPacket, List<String> ifaceNames)
+	{
+		byte[] frame = etherPacket.serialize();
+		boolean sent = true;
+		for (int i = 0; i < ifaceNames.size(); i++)
+		{
+			SimPort port = this.ports.get(ifaceNames.get(i));
+			if (null == port)
+			{
+				System.err.println("** Error, interface " + ifaceNames.get(i)
+						+ ", does not exist");
+				sent = false;
+				continue;
+			}
+			// Each receiver gets its own copy, since it may modify the frame
+			sent &= port.transmit(i + 1 < ifaceNames.size() ? frame.clone()
+					: frame);
+		}
+		return sent;
+	}
+
+	public void destroy()
+	{ this.device.destroy(); }
+}
@@ -0,0 +1,190 @@
+package edu.wisc.cs.sdn.vnet.sim;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.IPv4View;
+import net.floodlightcontroller.packet.MACAddress;
+import net.floodlightcontroller.packet.UDP;
+
+/**
+ * An end host inside the simulator. The host sends UDP probe frames to other
+ * hosts at a fixed rate and records the probe frames it receives.
+ */
+public class HostNode extends SimNode
+{
+	/** UDP ports used for probe frames */
+	public static final short PROBE_SRC_PORT = 5000;
+	public static final short PROBE_DST_PORT = 5001;
+
+	/** Size of the probe fields: path id, sequence number, send time */
+	public static final int PROBE_LENGTH = 4 + 8 + 8;
+
+	/** Size of a UDP header */
+	private static final int UDP_HEADER_LENGTH = 8;
+
+	/** Offset of the probe fields in a frame */
+	private static final int PROBE_OFFSET = 14 + 20 + 8;
+
+	/** Maximum number of overdue probes sent at once */
+	private static final int MAX_BURST = 32;
+
+	/**
+	 * Probe traffic sent to one destination host.
+	 */
+	private static class Flow
+	{
+		PathStats stats;
+		byte[] template;
+		long interval;
+		long next;
+		long sequence;
+	}
+
+	/** IP address, subnet mask, and default gateway of the host */
+	private int ip;
+	private int mask;
+	private int gateway;
+
+	/** MAC address of the host */
+	private long mac;
+
+	/** Probe traffic sent by the host */
+	private List<Flow> flows;
+
+	/** Statistics for all paths in the simulation; indexed by path id */
+	private List<PathStats> paths;
+
+	/** Reads received frames in place; only used by the node's thread */
+	private EthernetView view;
+
+	/**
+	 * Creates a host.
+	 * @param name name of the host
+	 * @param ip IP address of the host
+	 * @param mask subnet mask of the host
+	 * @param gateway default gateway of the host; 0 if none
+	 * @param mac MAC address of the host
+	 * @param paths statistics for all paths in the simulation, indexed by path
+	 *        id; used to account for received probe frames
+	 */
+	public HostNode(String name, int ip, int mask, int gateway, long mac,
+			List<PathStats> paths)
+	{
+		super(name);
+		this.ip = ip;
+		this.mask = mask;
+		this.gateway = gateway;
+		this.mac = mac;
+		this.flows = new ArrayList<Flow>();
+		this.paths = paths;
+		this.view = new EthernetView();
+	}
+
+	public int getIpAddress()
+	{ return this.ip; }
+
+	/**
+	 * Start sending probe frames to another host.
+	 * @param dst host to send probe frames to
+	 * @param stats statistics for the path to the destination
+	 * @param rate probe frames per second; 0 to send as fast as possible
+	 * @param ttl TTL for the probe frames
+	 * @param frameSize size of the probe frames in bytes
+	 * @param arpTable maps IP addresses to MAC addresses
+	 * @return true if the destination can be reached, otherwise false
+	 */
+	public boolean addFlow(HostNode dst, PathStats stats, int rate, int ttl,
+			int frameSize, Map<Integer,Long> arpTable)
+	{
+		// Determine the MAC address of the next hop
+		int nextHop = dst.ip;
+		if ((dst.ip & this.mask) != (this.ip & this.mask))
+		{ nextHop = this.gateway; }
+		Long nextHopMac = arpTable.get(nextHop);
+		if (0 == nextHop || null == nextHopMac)
+		{ return false; }
+
+		// Build a probe frame once; probes only differ in the probe fields
+		int payloadLength = Math.max(PROBE_LENGTH, frameSize - PROBE_OFFSET);
+		UDP udp = new UDP();
+		udp.setSourcePort(PROBE_SRC_PORT);
+		udp.setDestinationPort(PROBE_DST_PORT);
+		udp.setPayload(new Data(new byte[payloadLength]));
+		IPv4 ip = new IPv4();
+		ip.setTtl((byte)ttl);
+		ip.setProtocol(IPv4.PROTOCOL_UDP);
+		ip.setSourceAddress(this.ip);
+		ip.setDestinationAddress(dst.ip);
+		ip.setPayload(udp);
+		Ethernet etherPacket = new Ethernet();
+		etherPacket.setEtherType(Ethernet.TYPE_IPv4);
+		etherPacket.setSourceMACAddress(this.mac);
+		etherPacket.setDestinationMACAddress(nextHopMac.longValue());
+		etherPacket.setPayload(ip);
+
+		Flow flow = new Flow();
+		flow.stats = stats;
+		flow.template = etherPacket.serialize();
+		// A zero UDP checksum means no checksum, so the probe fields can be
+		// filled in without recomputing it
+		ByteBuffer.wrap(flow.template).putShort(PROBE_OFFSET - 2, (short)0);
+		flow.interval = (0 == rate ? 0 : 1000000000L / rate);
+		flow.next = 0;
+		flow.sequence = 0;
+		this.flows.add(flow);
+		return true;
+	}
+
+	public void generate(long now)
+	{
+		SimPort port = this.ports.values().iterator().next();
+		for (Flow flow : this.flows)
+		{
+			if (0 == flow.next || flow.next < now - MAX_BURST * flow.interval)
+			{ flow.next = now; }
+			for (int i = 0; i < MAX_BURST && flow.next <= now; i++)
+			{
+				byte[] frame = flow.template.clone();
+				ByteBuffer bb = ByteBuffer.wrap(frame);
+				bb.putInt(PROBE_OFFSET, flow.stats.getId());
+				bb.putLong(PROBE_OFFSET + 4, flow.sequence++);
+				bb.putLong(PROBE_OFFSET + 12, System.nanoTime());
+				port.transmit(frame);
+				flow.stats.sent++;
+				if (0 == flow.interval)
+				{ break; }
+				flow.next += flow.interval;
+			}
+		}
+	}
+
+	protected void receive(byte[] frame, SimPort port)
+	{
+		long now = System.nanoTime();
+		EthernetView etherView = this.view.wrap(frame, 0, frame.length);
+		if (!etherView.isValid())
+		{ return; }
+		IPv4View ip = etherView.getIPv4();
+		if (null == ip || ip.getDestinationAddress() != this.ip
+				|| ip.getProtocol() != IPv4.PROTOCOL_UDP
+				|| ip.getDestinationPort() != PROBE_DST_PORT
+				|| ip.getPayloadLength() < UDP_HEADER_LENGTH + PROBE_LENGTH)
+		{ return; }
+
+		ByteBuffer bb = ByteBuffer.wrap(frame);
+		int probe = ip.getPayloadOffset() + UDP_HEADER_LENGTH;
+		int pathId = bb.getInt(probe);
+		if (pathId < 0 || pathId >= this.paths.size())
+		{ return; }
+		PathStats stats = this.paths.get(pathId);
+		stats.received++;
+		stats.latency.record(now - bb.getLong(probe + 12));
+	}
+}
@@ -0,0 +1,169 @@
+package edu.wisc.cs.sdn.vnet.sim;
+
+import java.util.Arrays;
+
+/**
+ * Records a distribution of latencies. Keeps a fixed-size uniform sample of
+ * the recorded values, so memory use does not grow with the number of
+ * packets. Not thread safe; each recorder should be updated by one thread.
+ */
+public class LatencyRecorder
+{
+	/** Maximum number of latency samples kept */
+	public static final int MAX_SAMPLES = 1 << 16;
+
+	/** Sampled latencies, in nanoseconds */
+	private long[] samples;
+
+	/** Number of latencies recorded */
+	private long count;
+
+	/** Sum, minimum, and maximum of all recorded latencies */
+	private long sum;
+	private long min;
+	private long max;
+
+	/** State of the random number generator used for sampling */
+	private long seed;
+
+	/**
+	 * Creates an empty latency recorder.
+	 */
+	public LatencyRecorder()
+	{
+		this.samples = new long[MAX_SAMPLES];
+		this.count = 0;
+		this.sum = 0;
+		this.min = Long.MAX_VALUE;
+		this.max = 0;
+		this.seed = System.nanoTime() | 1;
+	}
+
+	/**
+	 * Record a latency.
+	 * @param nanos latency in nanoseconds
+	 */
+	public void record(long nanos)
+	{
+		if (nanos < 0)
+		{ nanos = 0; }
+		if (this.count < MAX_SAMPLES)
+		{ this.samples[(int)this.count] = nanos; }
+		else
+		{
+			// Reservoir sampling: keep the new value with probability
+			// MAX_SAMPLES/count
+			long slot = this.nextRandom(this.count + 1);
+			if (slot < MAX_SAMPLES)
+			{ this.samples[(int)slot] = nanos; }
+		}
+		this.count++;
+		this.sum += nanos;
+		this.min = Math.min(this.min, nanos);
+		this.max = Math.max(this.max, nanos);
+	}
+
+	/**
+	 * @return number of latencies recorded
+	 */
+	public long getCount()
+	{ return this.count; }
+
+	/**
+	 * @return mean latency in nanoseconds; 0 if nothing was recorded
+	 */
+	public long getMean()
+	{ return (0 == this.count ? 0 : this.sum / this.count); }
+
+	/**
+	 * @return minimum latency in nanoseconds; 0 if nothing was recorded
+	 */
+	public long getMin()
+	{ return (0 == this.count ? 0 : this.min); }
+
+	/**
+	 * @return maximum latency in nanoseconds
+	 */
+	public long getMax()
+	{ return this.max; }
+
+	/**
+	 * Compute several percentiles of the recorded latencies.
+	 * @param percentiles percentiles to compute, between 0 and 100
+	 * @return latency in nanoseconds at each requested percentile
+	 */
+	public long[] getPercentiles(double... percentiles)
+	{
+		long[] result = new long[percentiles.length];
+		int n = (int)Math.min(this.count, MAX_SAMPLES);
+		if (0 == n)
+		{ return result; }
+
+		long[] sorted = Arrays.copyOf(this.samples, n);
+		Arrays.sort(sorted);
+		for (int i = 0; i < percentiles.length; i++)
+		{
+			int rank = (int)Math.ceil(percentiles[i] / 100.0 * n) - 1;
+			result[i] = sorted[Math.max(0, Math.min(n - 1, rank))];
+		}
+		return result;
+	}
+
+	/**
+	 * Add the latencies recorded by another recorder to this one.
+	 * @param other the recorder to merge into this one
+	 */
+	public void merge(LatencyRecorder other)
+	{
+		// Each sample stands for count/samples values of its recorder, so
+		// draw each merged sample from one recorder or the other in
+		// proportion to the values each has left, then uniformly from that
+		// recorder's samples without replacement; every recorded value is
+		// then equally likely to be kept, whatever order paths merge in
+		long[] mine = Arrays.copyOf(this.samples,
+				(int)Math.min(this.count, MAX_SAMPLES));
+		long[] theirs = Arrays.copyOf(other.samples,
+				(int)Math.min(other.count, MAX_SAMPLES));
+		int mineLeft = mine.length;
+		int theirsLeft = theirs.length;
+		long mineWeight = this.count;
+		long theirsWeight = other.count;
+		int n = (int)Math.min(this.count + other.count, MAX_SAMPLES);
+		for (int i = 0; i < n; i++)
+		{
+			if (this.nextRandom(mineWeight + theirsWeight) < mineWeight)
+			{
+				int pick = (int)this.nextRandom(mineLeft);
+				this.samples[i] = mine[pick];
+				mine[pick] = mine[--mineLeft];
+				mineWeight--;
+			}
+			else
+			{
+				int pick = (int)this.nextRandom(theirsLeft);
+				this.samples[i] = theirs[pick];
+				theirs[pick] = theirs[--theirsLeft];
+				theirsWeight--;
+			}
+		}
+
+		this.count += other.count;
+		this.sum += other.sum;
+		if (other.count > 0)
+		{
+			this.min = Math.min(this.min, other.min);
+			this.max = Math.max(this.max, other.max);
+		}
+	}
+
+	/**
+	 * @return a pseudo-random number at least 0 and less than bound
+	 */
+	private long nextRandom(long bound)
+	{
+		this.seed ^= this.seed << 13;
+		this.seed ^= this.seed >>> 7;
+		this.seed ^= this.seed << 17;
+		return (this.seed >>> 1) % bound;
+	}
+}
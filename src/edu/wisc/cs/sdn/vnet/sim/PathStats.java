@@ -0,0 +1,60 @@
+package edu.wisc.cs.sdn.vnet.sim;
+
+/**
+ * Counters and latencies for the traffic sent from one host to another.
+ */
+public class PathStats
+{
+	/** Identifier carried in each probe frame sent on the path */
+	private int id;
+
+	/** Hosts at either end of the path */
+	private String source;
+	private String destination;
+
+	/** Number of probe frames sent by the source host; updated only by the
+	 *  thread running the source host */
+	long sent;
+
+	/** Number of probe frames received by the destination host; updated
+	 *  only by the thread running the destination host */
+	long received;
+
+	/** One-way latencies of the received probe frames */
+	LatencyRecorder latency;
+
+	public PathStats(int id, String source, String destination)
+	{
+		this.id = id;
+		this.source = source;
+		this.destination = destination;
+		this.sent = 0;
+		this.received = 0;
+		this.latency = new LatencyRecorder();
+	}
+
+	public int getId()
+	{ return this.id; }
+
+	public long getSent()
+	{ return this.sent; }
+
+	public long getReceived()
+	{ return this.received; }
+
+	public LatencyRecorder getLatency()
+	{ return this.latency; }
+
+	/**
+	 * @return percentage of sent probe frames that were not received
+	 */
+	public double getLoss()
+	{
+		if (0 == this.sent)
+		{ return 0.0; }
+		return 100.0 * Math.max(0, this.sent - this.received) / this.sent;
+	}
+
+	public String toString()
+	{ return this.source + "->" + this.destination; }
+}
@@ -0,0 +1,329 @@
+package edu.wisc.cs.sdn.vnet.sim;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.MACAddress;
+
+import edu.wisc.cs.sdn.vnet.Device;
+import edu.wisc.cs.sdn.vnet.Iface;
+import edu.wisc.cs.sdn.vnet.PacketTransport;
+import edu.wisc.cs.sdn.vnet.PcapReader;
+import edu.wisc.cs.sdn.vnet.rt.Router;
+import edu.wisc.cs.sdn.vnet.sw.Switch;
+
+/**
+ * Replays the frames in a PCAP file into a switch or router and measures how
+ * quickly the device processes them. Frames the device sends are counted and
+ * discarded.
+ */
+public class PcapReplay implements PacketTransport
+{
+	public static final String MODE_FAST = "fast";
+	public static final String MODE_ORIGINAL = "original";
+	public static final String MODE_SCALED = "scaled";
+
+	/** Waits shorter than this are spent spinning rather than sleeping */
+	private static final long SPIN_THRESHOLD_NS = 50000;
+
+	/** Device the frames are fed into */
+	private Device device;
+
+	/** Interface on which frames from each source MAC address arrive */
+	private Map<Long,Iface> ifaceBySource;
+
+	/** Interface on which other frames arrive; null to skip those frames */
+	private Iface defaultIface;
+
+	/** Number of frames the device sent */
+	private long sent;
+
+	/**
+	 * Creates a replay engine for a device.
+	 * @param device device to feed frames into
+	 */
+	public PcapReplay(Device device)
+	{
+		this.device = device;
+		this.device.setTransport(this);
+		this.ifaceBySource = new HashMap<Long,Iface>();
+		this.defaultIface = null;
+		this.sent = 0;
+	}
+
+	/**
+	 * Map frames to an interface on the device, creating the interface if it
+	 * does not exist.
+	 * @param ifaceName name of the interface
+	 * @param sourceMac frames with this source MAC address arrive on the
+	 *        interface; null if all frames not otherwise mapped arrive on it
+	 */
+	public void mapInterface(String ifaceName, MACAddress sourceMac)
+	{
+		Iface iface = this.device.getInterface(ifaceName);
+		if (null == iface)
+		{ iface = this.device.addInterface(ifaceName); }
+		if (null == sourceMac)
+		{ this.defaultIface = iface; }
+		else
+		{ this.ifaceBySource.put(sourceMac.toLong(), iface); }
+	}
+
+	public boolean sendPacket(Ethernet etherPacket, String ifaceName)
+	{
+		this.sent++;
+		return true;
+	}
+
+	/**
+	 * Feed the frames in a capture into the device.
+	 * @param reader capture to replay
+	 * @param mode fast to replay as quickly as possible, original to keep the
+	 *        original spacing between frames, or scaled to divide the
+	 *        original spacing by the speedup
+	 * @param speedup factor by which to speed up the original timing
+	 * @param loops number of times to replay the capture
+	 * @param latency recorder for the time the device spends on each frame
+	 * @return number of frames fed into the device
+	 */
+	public long replay(PcapReader reader, String mode, double speedup,
+			int loops, LatencyRecorder latency)
+	{
+		boolean timed = !mode.equals(MODE_FAST);
+		double scale = (mode.equals(MODE_SCALED) ? 1.0 / speedup : 1.0);
+		long frames = 0;
+		byte[] frame = null;
+
+		for (int loop = 0; loop < loops; loop++)
+		{
+			reader.rewind();
+			long firstTimestamp = -1;
+			long start = System.nanoTime();
+			while (reader.next())
+			{
+				Iface inIface = this.ifaceBySource.get(sourceMac(reader));
+				if (null == inIface)
+				{ inIface = this.defaultIface; }
+				if (null == inIface)
+				{ continue; }
+
+				if (timed)
+				{
+					if (firstTimestamp < 0)
+					{ firstTimestamp = reader.getTimestamp(); }
+					long due = start + (long)((reader.getTimestamp()
+							- firstTimestamp) * scale);
+					waitUntil(due);
+				}
+
+				// Packets reuse the bytes they were deserialized from when
+				// they are sent, so each frame gets its own array unless the
+				// device is done with the frame when it returns
+				long before = System.nanoTime();
+				if (null == frame || frame.length < reader.getLength()
+						|| !this.device.getRecyclePackets())
+				{ frame = new byte[reader.getLength()]; }
+				int length = reader.getFrame(frame);
+				this.device.receiveFrame(frame, 0, length, inIface);
+				latency.record(System.nanoTime() - before);
+				frames++;
+			}
+		}
+		return frames;
+	}
+
+	private static long sourceMac(PcapReader reader)
+	{
+		if (reader.getLength() < 12)
+		{ return -1; }
+		long mac = 0;
+		for (int i = 6; i < 12; i++)
+		{ mac = (mac << 8) | (reader.getByte(i) & 0xffL); }
+		return mac;
+	}
+
+	private static void waitUntil(long due)
+	{
+		long remaining;
+		while ((remaining = due - System.nanoTime()) > 0)
+		{
+			if (remaining > SPIN_THRESHOLD_NS)
+			{ LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NS); }
+			else
+			{ Thread.onSpinWait(); }
+		}
+	}
+
+	/**
+	 * Set interface addresses from a file in the format written by
+	 * run_mininet.py: one "host-iface ip mask" line per interface.
+	 * @return true if the file was loaded, otherwise false
+	 */
+	private boolean loadIpConfig(String filename)
+	{
+		String prefix = this.device.getHost() + "-";
+		try (BufferedReader reader = new BufferedReader(
+				new FileReader(filename)))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] parts = line.trim().split("\\s+");
+				if (parts.length != 3 || !parts[0].startsWith(prefix))
+				{ continue; }
+				Iface iface = this.device.getInterface(
+						parts[0].substring(prefix.length()));
+				if (null == iface)
+				{ continue; }
+				iface.setIpAddress(IPv4.toIPv4Address(parts[1]));
+				iface.setSubnetMask(IPv4.toIPv4Address(parts[2]));
+			}
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+		return true;
+	}
+
+	public static void main(String[] args)
+	{
+		String host = null;
+		String captureFile = null;
+		String ifaceMap = null;
+		String ipConfigFile = null;
+		String routeTableFile = null;
+		String arpCacheFile = null;
+		String mode = MODE_FAST;
+		double speedup = 1.0;
+		int loops = 1;
+		boolean verbose = false;
+
+		// Parse arguments
+		for (int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			if (arg.equals("-h"))
+			{
+				usage();
+				return;
+			}
+			else if (arg.equals("-v"))
+			{ host = args[++i]; }
+			else if (arg.equals("-f"))
+			{ captureFile = args[++i]; }
+			else if (arg.equals("-i"))
+			{ ifaceMap = args[++i]; }
+			else if (arg.equals("-c"))
+			{ ipConfigFile = args[++i]; }
+			else if (arg.equals("-r"))
+			{ routeTableFile = args[++i]; }
+			else if (arg.equals("-a"))
+			{ arpCacheFile = args[++i]; }
+			else if (arg.equals("-m"))
+			{ mode = args[++i]; }
+			else if (arg.equals("-x"))
+			{ speedup = Double.parseDouble(args[++i]); }
+			else if (arg.equals("-n"))
+			{ loops = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-V"))
+			{ verbose = true; }
+		}
+
+		if (null == host || null == captureFile || null == ifaceMap
+				|| speedup <= 0 || (!mode.equals(MODE_FAST)
+					&& !mode.equals(MODE_ORIGINAL) && !mode.equals(MODE_SCALED)))
+		{
+			usage();
+			return;
+		}
+
+		PcapReader reader = PcapReader.open(captureFile);
+		if (null == reader)
+		{ System.exit(1); }
+
+		Device dev;
+		if (host.startsWith("s"))
+		{ dev = new Switch(host, null); }
+		else if (host.startsWith("r"))
+		{ dev = new Router(host, null); }
+		else
+		{
+			System.err.println("Device name must start with 's' or 'r'");
+			return;
+		}
+
+		// Set up interfaces: each entry is iface or iface=source_mac
+		PcapReplay replay = new PcapReplay(dev);
+		for (String entry : ifaceMap.split(","))
+		{
+			String[] parts = entry.split("=", 2);
+			try
+			{
+				replay.mapInterface(parts[0], (1 == parts.length ? null
+						: MACAddress.valueOf(parts[1])));
+			}
+			catch (IllegalArgumentException e)
+			{
+				System.err.println("Invalid interface mapping " + entry);
+				System.exit(1);
+			}
+		}
+		if (ipConfigFile != null && !replay.loadIpConfig(ipConfigFile))
+		{ System.exit(1); }
+		if (dev instanceof Router)
+		{
+			if (routeTableFile != null)
+			{ ((Router)dev).loadRouteTable(routeTableFile); }
+			if (arpCacheFile != null)
+			{ ((Router)dev).loadArpCache(arpCacheFile); }
+		}
+
+		// Devices print what they load and, if verbose, every packet they
+		// handle; keep that out of the measurements unless asked for
+		dev.setVerbose(verbose);
+		PrintStream out = System.out;
+		if (!verbose)
+		{ System.setOut(new PrintStream(OutputStream.nullOutputStream())); }
+
+		LatencyRecorder latency = new LatencyRecorder();
+		long start = System.nanoTime();
+		long frames = replay.replay(reader, mode, speedup, loops, latency);
+		long elapsed = System.nanoTime() - start;
+		System.setOut(out);
+
+		long[] pct = latency.getPercentiles(50, 90, 99, 99.9);
+		out.println(String.format("Replayed %d frames in %.3f s: %.0f pps,"
+				+ " %d frames sent", frames, elapsed / 1e9,
+				frames / (elapsed / 1e9), replay.sent));
+		out.println(String.format("Per-frame latency (ns): min %d mean %d"
+				+ " p50 %d p90 %d p99 %d p99.9 %d max %d", latency.getMin(),
+				latency.getMean(), pct[0], pct[1], pct[2], pct[3],
+				latency.getMax()));
+		dev.destroy();
+		System.exit(0);
+	}
+
+	static void usage()
+	{
+		System.out.println("PCAP Replay");
+		System.out.println("PcapReplay -v host -f capture_file -i iface[=src_mac][,...]");
+		System.out.println("     [-m fast|original|scaled] [-x speedup] [-n loops]");
+		System.out.println("     [-c ip_config] [-r routing_table] [-a arp_cache] [-V] [-h]");
+		System.out.println("  frames from src_mac arrive on iface; frames from other"
+				+ " sources arrive on the");
+		System.out.println("  interface listed without a MAC address, or are skipped"
+				+ " if there is none");
+	}
+}
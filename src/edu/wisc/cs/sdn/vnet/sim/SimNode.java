@@ -0,0 +1,101 @@
+package edu.wisc.cs.sdn.vnet.sim;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A host, switch, or router running inside the simulator.
+ */
+public abstract class SimNode
+{
+	/** Name of the node */
+	private String name;
+
+	/** Ports on the node; maps interface names to ports */
+	protected Map<String,SimPort> ports;
+
+	/**
+	 * Creates a node with no ports.
+	 * @param name name of the node
+	 */
+	public SimNode(String name)
+	{
+		this.name = name;
+		this.ports = new LinkedHashMap<String,SimPort>();
+	}
+
+	public String getName()
+	{ return this.name; }
+
+	public Map<String,SimPort> getPorts()
+	{ return this.ports; }
+
+	/**
+	 * Add a port to the node.
+	 * @param ifaceName name of the node's interface for the port
+	 * @param queueLength maximum number of frames waiting to be received
+	 * @return the new port
+	 */
+	public SimPort addPort(String ifaceName, int queueLength)
+	{
+		SimPort port = new SimPort(this, ifaceName, queueLength);
+		this.ports.put(ifaceName, port);
+		return port;
+	}
+
+	/**
+	 * Receive frames waiting on the node's ports.
+	 * @param budget maximum number of frames to receive on each port
+	 * @return number of frames received
+	 */
+	public int poll(int budget)
+	{
+		int received = 0;
+		for (SimPort port : this.ports.values())
+		{
+			byte[] frame;
+			for (int i = 0; i < budget && (frame = port.poll()) != null; i++)
+			{
+				this.receive(frame, port);
+				received++;
+			}
+		}
+		return received;
+	}
+
+	/**
+	 * @return true if no frames are waiting on any of the node's ports
+	 */
+	public boolean isIdle()
+	{
+		for (SimPort port : this.ports.values())
+		{
+			if (!port.isIdle())
+			{ return false; }
+		}
+		return true;
+	}
+
+	/**
+	 * Generate any traffic that is due.
+	 * @param now current time, from System.nanoTime()
+	 */
+	public void generate(long now)
+	{ }
+
+	/**
+	 * Handle a frame received on a port.
+	 * @param frame the frame's bytes
+	 * @param port port on which the frame was received
+	 */
+	protected abstract void receive(byte[] frame, SimPort port);
+
+	/**
+	 * Release any resources held by the node.
+	 */
+	public void destroy()
+	{ }
+
+	public String toString()
+	{ return this.name; }
+}
@@ -0,0 +1,114 @@
+package edu.wisc.cs.sdn.vnet.sim;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One end of an in-memory link. Frames sent out a port are placed in a
+ * bounded queue at the peer port; frames that do not fit are dropped.
+ */
+public class SimPort
+{
+	/** Node the port belongs to */
+	private SimNode node;
+
+	/** Name of the node's interface for the port */
+	private String ifaceName;
+
+	/** Frames waiting to be received on the port */
+	private ArrayBlockingQueue<byte[]> inbound;
+
+	/** Port at the other end of the link; null if the link is down */
+	private volatile SimPort peer;
+
+	/** Number of frames sent out the port */
+	private LongAdder sent;
+
+	/** Number of frames sent out the port that were dropped because the
+	 *  peer's queue was full or the link was down */
+	private LongAdder dropped;
+
+	/**
+	 * Creates one end of a link.
+	 * @param node node the port belongs to
+	 * @param ifaceName name of the node's interface for the port
+	 * @param queueLength maximum number of frames waiting to be received
+	 */
+	public SimPort(SimNode node, String ifaceName, int queueLength)
+	{
+		this.node = node;
+		this.ifaceName = ifaceName;
+		this.inbound = new ArrayBlockingQueue<byte[]>(queueLength);
+		this.peer = null;
+		this.sent = new LongAdder();
+		this.dropped = new LongAdder();
+	}
+
+	/**
+	 * Connect two ports with a link.
+	 */
+	public static void connect(SimPort portA, SimPort portB)
+	{
+		portA.peer = portB;
+		portB.peer = portA;
+	}
+
+	/**
+	 * Take down the link between two ports; frames sent on either end are
+	 * dropped from then on.
+	 */
+	public static void disconnect(SimPort portA, SimPort portB)
+	{
+		portA.peer = null;
+		portB.peer = null;
+	}
+
+	public SimNode getNode()
+	{ return this.node; }
+
+	public String getIfaceName()
+	{ return this.ifaceName; }
+
+	public SimPort getPeer()
+	{ return this.peer; }
+
+	public long getSent()
+	{ return this.sent.sum(); }
+
+	public long getDropped()
+	{ return this.dropped.sum(); }
+
+	/**
+	 * Send a frame to the peer port. Besides the thread that runs this
+	 * port's node, device timer threads may send frames.
+	 * @param frame the frame's bytes
+	 * @return true if the frame was queued at the peer, false if it was
+	 *         dropped
+	 */
+	public boolean transmit(byte[] frame)
+	{
+		this.sent.increment();
+		SimPort current = this.peer;
+		if (null == current || !current.inbound.offer(frame))
+		{
+			this.dropped.increment();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the next frame waiting to be received; null if none
+	 */
+	byte[] poll()
+	{ return this.inbound.poll(); }
+
+	/**
+	 * @return true if no frames are waiting to be received
+	 */
+	boolean isIdle()
+	{ return this.inbound.isEmpty(); }
+
+	public String toString()
+	{ return this.node.getName() + "-" + this.ifaceName; }
+}
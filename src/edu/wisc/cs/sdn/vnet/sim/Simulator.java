@@ -0,0 +1,642 @@
+package edu.wisc.cs.sdn.vnet.sim;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.floodlightcontroller.packet.MACAddress;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+import edu.wisc.cs.sdn.vnet.rt.Router;
+import edu.wisc.cs.sdn.vnet.sw.Switch;
+
+/**
+ * Runs the switches, routers, and hosts of a topology inside one JVM, with
+ * links implemented as in-memory bounded queues, and measures the end-to-end
+ * throughput, latency, and loss of probe traffic sent between the hosts.
+ */
+public class Simulator
+{
+	private static final int DEFAULT_DURATION = 10;
+	private static final int DEFAULT_RATE = 1000;
+	private static final int DEFAULT_FRAME_SIZE = 64;
+	private static final int DEFAULT_QUEUE_LENGTH = 1024;
+	private static final int DEFAULT_TTL = 64;
+	private static final String PATTERN_CHAIN = "chain";
+	private static final String PATTERN_MESH = "mesh";
+
+	/** Maximum number of frames received per port each time a node runs */
+	private static final int POLL_BUDGET = 64;
+
+	/** Maximum time to wait for frames in flight once traffic stops */
+	private static final long DRAIN_TIMEOUT_MS = 2000;
+
+	/** Spanning tree timers used in the simulator, in ms; much shorter than
+	 *  the protocol defaults so short runs converge */
+	private static final long STP_HELLO_TIME = 200;
+	private static final long STP_FORWARD_DELAY = 1000;
+
+	/** Time the network runs before probe traffic starts when the spanning
+	 *  tree is enabled, in ms */
+	private static final long STP_SETTLE_TIME = 10 * STP_HELLO_TIME;
+
+	/** First MAC address assigned to a host or router interface */
+	private static final long BASE_MAC = 0x020000000001L;
+
+	/** Nodes in the simulation, in the order they appear in the topology */
+	private Map<String,SimNode> nodes;
+
+	/** Statistics for each path probe traffic is sent on; indexed by id */
+	private List<PathStats> paths;
+
+	/** Maps IP addresses of host and router interfaces to MAC addresses */
+	private Map<Integer,Long> arpTable;
+
+	/** True while nodes should keep processing frames */
+	private volatile boolean running;
+
+	/** True while hosts should keep generating probe traffic */
+	private volatile boolean generating;
+
+	/** Time the network runs before probe traffic starts, in ms */
+	private long settleTime;
+
+	/**
+	 * A link taken down while the simulation runs.
+	 */
+	private static class LinkCut
+	{
+		SimPort portA;
+		SimPort portB;
+		/** Time after probe traffic starts, in ms */
+		long at;
+	}
+
+	/** Links to take down, in no particular order */
+	private List<LinkCut> linkCuts;
+
+	/**
+	 * Creates the switches, routers, and hosts for a topology and connects
+	 * them with links.
+	 * @param topo the topology to simulate
+	 * @param queueLength maximum number of frames queued on each link
+	 */
+	public Simulator(Topology topo, int queueLength)
+	{
+		this.nodes = new LinkedHashMap<String,SimNode>();
+		this.paths = new ArrayList<PathStats>();
+		this.arpTable = new HashMap<Integer,Long>();
+		this.settleTime = 0;
+		this.linkCuts = new ArrayList<LinkCut>();
+
+		// Create nodes and their ports
+		long nextMac = BASE_MAC;
+		for (Topology.Node node : topo.getNodes().values())
+		{
+			SimNode simNode;
+			switch (node.getType())
+			{
+			case Topology.TYPE_HOST:
+				if (node.getPorts().size() != 1)
+				{
+					throw new IllegalArgumentException("Host " + node
+							+ " must have exactly one link");
+				}
+				Topology.Port port = node.getPorts().get(0);
+				simNode = new HostNode(node.getName(), port.getIpAddress(),
+						port.getSubnetMask(), node.getGateway(), nextMac,
+						this.paths);
+				simNode.addPort(port.getIfaceName(), queueLength);
+				this.arpTable.put(port.getIpAddress(), nextMac++);
+				break;
+			case Topology.TYPE_SWITCH:
+				simNode = new DeviceNode(new Switch(node.getName(), null));
+				for (Topology.Port swPort : node.getPorts())
+				{ simNode.addPort(swPort.getIfaceName(), queueLength); }
+				break;
+			default:
+				DeviceNode rtNode = new DeviceNode(
+						new Router(node.getName(), null));
+				for (Topology.Port rtPort : node.getPorts())
+				{
+					rtNode.addPort(rtPort.getIfaceName(), queueLength);
+					Iface iface = rtNode.getDevice().getInterface(
+							rtPort.getIfaceName());
+					iface.setMacAddress(MACAddress.valueOf(nextMac));
+					iface.setIpAddress(rtPort.getIpAddress());
+					iface.setSubnetMask(rtPort.getSubnetMask());
+					if (rtPort.getIpAddress() != 0)
+					{ this.arpTable.put(rtPort.getIpAddress(), nextMac); }
+					nextMac++;
+				}
+				simNode = rtNode;
+			}
+			this.nodes.put(node.getName(), simNode);
+		}
+
+		// Connect ports with links
+		for (Topology.Port port : topo.getLinks())
+		{
+			Topology.Port peer = port.getPeer();
+			SimPort simPort = this.nodes.get(port.getNode().getName())
+					.getPorts().get(port.getIfaceName());
+			SimPort simPeer = this.nodes.get(peer.getNode().getName())
+					.getPorts().get(peer.getIfaceName());
+			SimPort.connect(simPort, simPeer);
+		}
+
+		// Populate route tables and static ARP caches for routers
+		for (Topology.Node node : topo.getNodes().values())
+		{
+			if (node.getType() != Topology.TYPE_ROUTER)
+			{ continue; }
+			Router router = (Router)
+					((DeviceNode)this.nodes.get(node.getName())).getDevice();
+			this.computeRoutes(node, router);
+			for (Map.Entry<Integer,Long> entry : this.arpTable.entrySet())
+			{
+				router.getArpCache().insert(MACAddress.valueOf(entry.getValue()),
+						entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Find the routers reachable from each of a router's ports, either
+	 * directly or through switches.
+	 * @return the ports of neighboring routers, paired with the local port
+	 *         used to reach them
+	 */
+	private static List<Topology.Port[]> findNeighbors(Topology.Node router)
+	{
+		List<Topology.Port[]> neighbors = new ArrayList<Topology.Port[]>();
+		for (Topology.Port local : router.getPorts())
+		{
+			Set<Topology.Node> visited = new HashSet<Topology.Node>();
+			ArrayDeque<Topology.Port> queue = new ArrayDeque<Topology.Port>();
+			queue.add(local.getPeer());
+			while (!queue.isEmpty())
+			{
+				Topology.Port port = queue.poll();
+				Topology.Node node = port.getNode();
+				if (Topology.TYPE_ROUTER == node.getType()
+						&& node != router && port.getIpAddress() != 0)
+				{ neighbors.add(new Topology.Port[] { local, port }); }
+				else if (Topology.TYPE_SWITCH == node.getType()
+						&& visited.add(node))
+				{
+					for (Topology.Port next : node.getPorts())
+					{
+						if (next != port)
+						{ queue.add(next.getPeer()); }
+					}
+				}
+			}
+		}
+		return neighbors;
+	}
+
+	/**
+	 * Populate a router's route table with routes to directly connected
+	 * subnets and shortest paths to all other routers' subnets, in the same
+	 * manner as run_mininet.py.
+	 */
+	private void computeRoutes(Topology.Node node, Router router)
+	{
+		Set<Integer> subnets = new HashSet<Integer>();
+		for (Topology.Port port : node.getPorts())
+		{
+			int subnet = port.getIpAddress() & port.getSubnetMask();
+			if (port.getIpAddress() != 0 && subnets.add(subnet))
+			{
+				router.getRouteTable().insert(subnet, 0, port.getSubnetMask(),
+						router.getInterface(port.getIfaceName()));
+			}
+		}
+
+		// Breadth-first search over routers; remember the local port and the
+		// gateway used for the first hop towards each router
+		Map<Topology.Node,Topology.Port[]> firstHop =
+				new HashMap<Topology.Node,Topology.Port[]>();
+		Map<Topology.Node,List<Topology.Port[]>> neighbors =
+				new HashMap<Topology.Node,List<Topology.Port[]>>();
+		ArrayDeque<Topology.Node> queue = new ArrayDeque<Topology.Node>();
+		firstHop.put(node, null);
+		queue.add(node);
+		while (!queue.isEmpty())
+		{
+			Topology.Node current = queue.poll();
+			if (!neighbors.containsKey(current))
+			{ neighbors.put(current, findNeighbors(current)); }
+			for (Topology.Port[] hop : neighbors.get(current))
+			{
+				Topology.Node next = hop[1].getNode();
+				if (firstHop.containsKey(next))
+				{ continue; }
+				firstHop.put(next, (current == node ? hop : firstHop.get(current)));
+				queue.add(next);
+
+				Topology.Port[] via = firstHop.get(next);
+				for (Topology.Port port : next.getPorts())
+				{
+					int subnet = port.getIpAddress() & port.getSubnetMask();
+					if (port.getIpAddress() != 0 && subnets.add(subnet))
+					{
+						router.getRouteTable().insert(subnet,
+								via[1].getIpAddress(), port.getSubnetMask(),
+								router.getInterface(via[0].getIfaceName()));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param verbose true if every switch and router prints each packet it
+	 *        handles
+	 */
+	public void setVerbose(boolean verbose)
+	{
+		for (SimNode node : this.nodes.values())
+		{
+			if (node instanceof DeviceNode)
+			{ ((DeviceNode)node).getDevice().setVerbose(verbose); }
+		}
+	}
+
+	/**
+	 * Run the spanning tree protocol on every switch, and let it converge
+	 * before probe traffic starts.
+	 */
+	public void enableSpanningTree()
+	{
+		for (SimNode node : this.nodes.values())
+		{
+			if (!(node instanceof DeviceNode)
+					|| !(((DeviceNode)node).getDevice() instanceof Switch))
+			{ continue; }
+			Switch sw = (Switch)((DeviceNode)node).getDevice();
+			sw.getSpanningTree().setHelloTime(STP_HELLO_TIME);
+			sw.getSpanningTree().setForwardDelay(STP_FORWARD_DELAY);
+			sw.startSpanningTree();
+		}
+		this.settleTime = Math.max(this.settleTime, STP_SETTLE_TIME);
+	}
+
+	/**
+	 * Take down the link between two nodes while the simulation runs.
+	 * @param nameA name of the node at one end of the link
+	 * @param nameB name of the node at the other end of the link
+	 * @param at time after probe traffic starts, in ms
+	 * @return true if there is a link between the nodes, otherwise false
+	 */
+	public boolean cutLink(String nameA, String nameB, long at)
+	{
+		SimNode nodeA = this.nodes.get(nameA);
+		if (null == nodeA)
+		{ return false; }
+		for (SimPort port : nodeA.getPorts().values())
+		{
+			SimPort peer = port.getPeer();
+			if (peer != null && peer.getNode().getName().equals(nameB))
+			{
+				LinkCut cut = new LinkCut();
+				cut.portA = port;
+				cut.portB = peer;
+				cut.at = at;
+				this.linkCuts.add(cut);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Start sending probe traffic between hosts.
+	 * @param pattern chain to send from each host to the next host in the
+	 *        topology, or mesh to send from every host to every other host
+	 * @param rate probe frames per second on each path; 0 for as fast as
+	 *        possible
+	 * @param ttl TTL for the probe frames
+	 * @param frameSize size of the probe frames in bytes
+	 */
+	public void addTraffic(String pattern, int rate, int ttl, int frameSize)
+	{
+		List<HostNode> hosts = new ArrayList<HostNode>();
+		for (SimNode node : this.nodes.values())
+		{
+			if (node instanceof HostNode)
+			{ hosts.add((HostNode)node); }
+		}
+
+		for (int i = 0; i < hosts.size(); i++)
+		{
+			for (int j = 0; j < hosts.size(); j++)
+			{
+				if (i == j || (pattern.equals(PATTERN_CHAIN) && j != i + 1))
+				{ continue; }
+				HostNode src = hosts.get(i);
+				HostNode dst = hosts.get(j);
+				PathStats stats = new PathStats(this.paths.size(),
+						src.getName(), dst.getName());
+				if (src.addFlow(dst, stats, rate, ttl, frameSize, this.arpTable))
+				{ this.paths.add(stats); }
+				else
+				{
+					System.err.println("No next hop from " + src.getName()
+							+ " to " + dst.getName());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Processes frames for a subset of the nodes.
+	 */
+	private class Worker extends Thread
+	{
+		private List<SimNode> assigned;
+
+		public Worker(int id)
+		{
+			super("Worker-" + id);
+			this.assigned = new ArrayList<SimNode>();
+		}
+
+		public void run()
+		{
+			while (running)
+			{
+				long now = System.nanoTime();
+				int received = 0;
+				for (SimNode node : this.assigned)
+				{
+					if (generating)
+					{ node.generate(now); }
+					received += node.poll(POLL_BUDGET);
+				}
+				if (0 == received)
+				{ Thread.yield(); }
+			}
+		}
+	}
+
+	/**
+	 * Run the simulation.
+	 * @param durationSecs how long the hosts send probe traffic
+	 * @param numWorkers number of threads that process frames
+	 * @return how long the hosts sent probe traffic, in nanoseconds
+	 */
+	public long run(int durationSecs, int numWorkers)
+	{
+		// Assign each node to exactly one worker, so a device is never
+		// handling two frames at once
+		Worker[] workers = new Worker[numWorkers];
+		for (int i = 0; i < numWorkers; i++)
+		{ workers[i] = new Worker(i); }
+		int i = 0;
+		for (SimNode node : this.nodes.values())
+		{ workers[i++ % numWorkers].assigned.add(node); }
+
+		this.running = true;
+		this.generating = false;
+		for (Worker worker : workers)
+		{ worker.start(); }
+		sleepUntil(System.nanoTime() + this.settleTime * 1000000L);
+
+		this.generating = true;
+		long start = System.nanoTime();
+		this.linkCuts.sort((a, b) -> Long.compare(a.at, b.at));
+		for (LinkCut cut : this.linkCuts)
+		{
+			sleepUntil(start + cut.at * 1000000L);
+			SimPort.disconnect(cut.portA, cut.portB);
+		}
+		sleepUntil(start + durationSecs * 1000000000L);
+		this.generating = false;
+		long elapsed = System.nanoTime() - start;
+
+		// Give frames that are still in flight a chance to arrive
+		long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+		while (!this.isIdle() && System.currentTimeMillis() < deadline)
+		{
+			try { Thread.sleep(10); }
+			catch (InterruptedException e) { break; }
+		}
+
+		this.running = false;
+		for (Worker worker : workers)
+		{
+			try { worker.join(); }
+			catch (InterruptedException e) { }
+		}
+
+		for (SimNode node : this.nodes.values())
+		{ node.destroy(); }
+		return elapsed;
+	}
+
+	private static void sleepUntil(long deadline)
+	{
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0)
+		{
+			try
+			{ Thread.sleep(remaining / 1000000L, (int)(remaining % 1000000L)); }
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private boolean isIdle()
+	{
+		for (SimNode node : this.nodes.values())
+		{
+			if (!node.isIdle())
+			{ return false; }
+		}
+		return true;
+	}
+
+	/**
+	 * Print per-path and overall throughput, latency, and loss.
+	 * @param out stream to print the report to
+	 * @param elapsed how long the hosts sent probe traffic, in nanoseconds
+	 */
+	public void report(PrintStream out, long elapsed)
+	{
+		double secs = elapsed / 1e9;
+		String format = "%-16s %10s %10s %7s %10s %9s %9s %9s %9s\n";
+		out.printf(format, "Path", "Sent", "Recv", "Loss%", "pps",
+				"p50(us)", "p90(us)", "p99(us)", "max(us)");
+
+		LatencyRecorder overall = new LatencyRecorder();
+		long sent = 0;
+		long received = 0;
+		for (PathStats path : this.paths)
+		{
+			printStats(out, format, path.toString(), path.getSent(),
+					path.getReceived(), path.getLoss(), secs, path.getLatency());
+			overall.merge(path.getLatency());
+			sent += path.getSent();
+			received += path.getReceived();
+		}
+		double loss = (0 == sent ? 0.0
+				: 100.0 * Math.max(0, sent - received) / sent);
+		printStats(out, format, "TOTAL", sent, received, loss, secs, overall);
+
+		long queueDrops = 0;
+		for (SimNode node : this.nodes.values())
+		{
+			for (SimPort port : node.getPorts().values())
+			{ queueDrops += port.getDropped(); }
+		}
+		out.printf("Duration %.2f s, %d nodes, %d paths, %d frames dropped"
+				+ " at full link queues\n", secs, this.nodes.size(),
+				this.paths.size(), queueDrops);
+	}
+
+	private static void printStats(PrintStream out, String format,
+			String name, long sent, long received, double loss, double secs,
+			LatencyRecorder latency)
+	{
+		long[] pct = latency.getPercentiles(50, 90, 99);
+		out.printf(format, name, sent, received, String.format("%.2f", loss),
+				String.format("%.0f", received / secs), pct[0] / 1000,
+				pct[1] / 1000, pct[2] / 1000, latency.getMax() / 1000);
+	}
+
+	public static void main(String[] args)
+	{
+		String topoFile = null;
+		int numRouters = 0;
+		int duration = DEFAULT_DURATION;
+		int rate = DEFAULT_RATE;
+		int frameSize = DEFAULT_FRAME_SIZE;
+		int queueLength = DEFAULT_QUEUE_LENGTH;
+		int ttl = DEFAULT_TTL;
+		int numWorkers = Runtime.getRuntime().availableProcessors();
+		String pattern = PATTERN_CHAIN;
+		boolean verbose = false;
+		boolean spanningTree = false;
+		List<String> cuts = new ArrayList<String>();
+
+		// Parse arguments
+		for (int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			if (arg.equals("-h"))
+			{
+				usage();
+				return;
+			}
+			else if (arg.equals("-t"))
+			{ topoFile = args[++i]; }
+			else if (arg.equals("-L"))
+			{ numRouters = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-d"))
+			{ duration = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-r"))
+			{ rate = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-s"))
+			{ frameSize = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-q"))
+			{ queueLength = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-T"))
+			{ ttl = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-w"))
+			{ numWorkers = Integer.parseInt(args[++i]); }
+			else if (arg.equals("-p"))
+			{ pattern = args[++i]; }
+			else if (arg.equals("-b"))
+			{ spanningTree = true; }
+			else if (arg.equals("-k"))
+			{ cuts.add(args[++i]); }
+			else if (arg.equals("-V"))
+			{ verbose = true; }
+		}
+
+		if ((null == topoFile) == (0 == numRouters) || numWorkers < 1
+				|| (!pattern.equals(PATTERN_CHAIN)
+					&& !pattern.equals(PATTERN_MESH)))
+		{
+			usage();
+			return;
+		}
+
+		Topology topo;
+		if (topoFile != null)
+		{
+			topo = Topology.load(topoFile);
+			if (null == topo)
+			{
+				System.err.println("Error loading topology from file "
+						+ topoFile);
+				System.exit(1);
+			}
+		}
+		else
+		{ topo = Topology.linear(numRouters); }
+
+		// Devices print what they load and, if verbose, every packet they
+		// handle; keep that out of the measurements unless asked for
+		PrintStream out = System.out;
+		if (!verbose)
+		{ System.setOut(new PrintStream(OutputStream.nullOutputStream())); }
+
+		Simulator sim = new Simulator(topo, queueLength);
+		sim.setVerbose(verbose);
+		if (spanningTree)
+		{ sim.enableSpanningTree(); }
+		for (String cut : cuts)
+		{
+			// Each cut is nodeA,nodeB@secs
+			String[] parts = cut.split("[,@]");
+			boolean valid = (3 == parts.length);
+			try
+			{
+				valid = valid && sim.cutLink(parts[0], parts[1],
+						Math.round(Double.parseDouble(parts[2]) * 1000));
+			}
+			catch (NumberFormatException e)
+			{ valid = false; }
+			if (!valid)
+			{
+				System.err.println("Invalid link cut " + cut);
+				System.exit(1);
+			}
+		}
+		sim.addTraffic(pattern, rate, ttl, frameSize);
+		out.println(String.format("Simulating %d nodes for %d s with %d workers",
+				sim.nodes.size(), duration, numWorkers));
+		long elapsed = sim.run(duration, numWorkers);
+		sim.report(out, elapsed);
+		System.setOut(out);
+		System.exit(0);
+	}
+
+	static void usage()
+	{
+		System.out.println("Virtual Network Simulator");
+		System.out.println("Simulator (-t topo_file | -L num_routers) [-d secs]");
+		System.out.println("     [-r pps_per_path] [-p chain|mesh] [-s frame_size]");
+		System.out.println("     [-q queue_length] [-w workers] [-T ttl] [-b]");
+		System.out.println("     [-k node,node@secs]... [-V] [-h]");
+		System.out.println("  -b runs the spanning tree protocol on the switches;"
+				+ " -k takes a link down");
+		System.out.println(String.format("  defaults duration=%d rate=%d"
+				+ " pattern=%s frame_size=%d queue_length=%d ttl=%d",
+				DEFAULT_DURATION, DEFAULT_RATE, PATTERN_CHAIN,
+				DEFAULT_FRAME_SIZE, DEFAULT_QUEUE_LENGTH, DEFAULT_TTL));
+	}
+}
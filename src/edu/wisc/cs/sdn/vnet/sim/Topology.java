@@ -0,0 +1,360 @@
+package edu.wisc.cs.sdn.vnet.sim;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.packet.IPv4;
+
+/**
+ * A network topology described in the same format as the topos/*.topo files
+ * used by run_mininet.py.
+ */
+public class Topology
+{
+	public static final int TYPE_HOST = 1;
+	public static final int TYPE_SWITCH = 2;
+	public static final int TYPE_ROUTER = 3;
+
+	/**
+	 * A host, switch, or router in the topology.
+	 */
+	public static class Node
+	{
+		/** Name of the node, e.g., h1, s1, r1 */
+		private String name;
+
+		/** Type of the node: host, switch, or router */
+		private int type;
+
+		/** IP addresses and subnet masks for the node's interfaces, in the
+		 *  order in which the node's links appear in the topology */
+		private List<int[]> addresses;
+
+		/** Default gateway for a host; 0 if the host has no gateway */
+		private int gateway;
+
+		/** Ports on the node, in the order in which its links were added */
+		private List<Port> ports;
+
+		private Node(String name, int type)
+		{
+			this.name = name;
+			this.type = type;
+			this.addresses = new ArrayList<int[]>();
+			this.gateway = 0;
+			this.ports = new ArrayList<Port>();
+		}
+
+		public String getName()
+		{ return this.name; }
+
+		public int getType()
+		{ return this.type; }
+
+		public int getGateway()
+		{ return this.gateway; }
+
+		public List<Port> getPorts()
+		{ return this.ports; }
+
+		private Port addPort()
+		{
+			int index = this.ports.size();
+			String ifaceName = (TYPE_HOST == this.type ? "eth" + index
+					: "eth" + (index + 1));
+			Port port = new Port(this, ifaceName);
+			if (index < this.addresses.size())
+			{
+				port.ip = this.addresses.get(index)[0];
+				port.mask = this.addresses.get(index)[1];
+			}
+			this.ports.add(port);
+			return port;
+		}
+
+		public String toString()
+		{ return this.name; }
+	}
+
+	/**
+	 * One end of a link between two nodes.
+	 */
+	public static class Port
+	{
+		/** Node the port belongs to */
+		private Node node;
+
+		/** Name of the node's interface for the port */
+		private String ifaceName;
+
+		/** IP address and subnet mask for the interface; 0 if none */
+		private int ip;
+		private int mask;
+
+		/** Port at the other end of the link */
+		private Port peer;
+
+		private Port(Node node, String ifaceName)
+		{
+			this.node = node;
+			this.ifaceName = ifaceName;
+		}
+
+		public Node getNode()
+		{ return this.node; }
+
+		public String getIfaceName()
+		{ return this.ifaceName; }
+
+		public int getIpAddress()
+		{ return this.ip; }
+
+		public int getSubnetMask()
+		{ return this.mask; }
+
+		public Port getPeer()
+		{ return this.peer; }
+
+		public String toString()
+		{ return this.node.name + "-" + this.ifaceName; }
+	}
+
+	/** Nodes in the topology; maps node names to nodes */
+	private Map<String,Node> nodes;
+
+	/** Links in the topology; each element is one end of a link */
+	private List<Port> links;
+
+	/**
+	 * Creates an empty topology.
+	 */
+	public Topology()
+	{
+		this.nodes = new LinkedHashMap<String,Node>();
+		this.links = new ArrayList<Port>();
+	}
+
+	/**
+	 * @return nodes in the topology; maps node names to nodes
+	 */
+	public Map<String,Node> getNodes()
+	{ return this.nodes; }
+
+	/**
+	 * @return one end of every link in the topology
+	 */
+	public List<Port> getLinks()
+	{ return this.links; }
+
+	/**
+	 * Add a host to the topology.
+	 * @param name name of the host
+	 * @param ip IP address of the host's interface
+	 * @param mask subnet mask of the host's interface
+	 * @param gateway default gateway for the host; 0 if none
+	 * @return the new host
+	 */
+	public Node addHost(String name, int ip, int mask, int gateway)
+	{
+		Node host = this.addNode(name, TYPE_HOST);
+		host.addresses.add(new int[] { ip, mask });
+		host.gateway = gateway;
+		return host;
+	}
+
+	/**
+	 * Add a switch to the topology.
+	 * @param name name of the switch
+	 * @return the new switch
+	 */
+	public Node addSwitch(String name)
+	{ return this.addNode(name, TYPE_SWITCH); }
+
+	/**
+	 * Add a router to the topology.
+	 * @param name name of the router
+	 * @return the new router
+	 */
+	public Node addRouter(String name)
+	{ return this.addNode(name, TYPE_ROUTER); }
+
+	/**
+	 * Add an interface address to a router. The nth address belongs to the
+	 * interface of the nth link added for the router.
+	 * @param router router to add the address to
+	 * @param ip IP address of the interface
+	 * @param mask subnet mask of the interface
+	 */
+	public void addRouterAddress(Node router, int ip, int mask)
+	{ router.addresses.add(new int[] { ip, mask }); }
+
+	private Node addNode(String name, int type)
+	{
+		if (this.nodes.containsKey(name))
+		{ throw new IllegalArgumentException("Duplicate node " + name); }
+		Node node = new Node(name, type);
+		this.nodes.put(name, node);
+		return node;
+	}
+
+	/**
+	 * Add a link between two nodes.
+	 * @param nameA name of the node at one end of the link
+	 * @param nameB name of the node at the other end of the link
+	 */
+	public void addLink(String nameA, String nameB)
+	{
+		Node nodeA = this.nodes.get(nameA);
+		Node nodeB = this.nodes.get(nameB);
+		if (null == nodeA || null == nodeB)
+		{
+			throw new IllegalArgumentException("Unknown node in link "
+					+ nameA + " " + nameB);
+		}
+		Port portA = nodeA.addPort();
+		Port portB = nodeB.addPort();
+		portA.peer = portB;
+		portB.peer = portA;
+		this.links.add(portA);
+	}
+
+	/**
+	 * Load a topology from a file.
+	 * @param filename name of the file containing the topology
+	 * @return the topology; null if the file could not be loaded
+	 */
+	public static Topology load(String filename)
+	{
+		// Open the file
+		BufferedReader reader;
+		try
+		{
+			FileReader fileReader = new FileReader(filename);
+			reader = new BufferedReader(fileReader);
+		}
+		catch (FileNotFoundException e)
+		{
+			System.err.println(e.toString());
+			return null;
+		}
+
+		Topology topo = new Topology();
+		while (true)
+		{
+			// Read a line from the file
+			String line = null;
+			try
+			{ line = reader.readLine(); }
+			catch (IOException e)
+			{
+				System.err.println(e.toString());
+				try { reader.close(); } catch (IOException f) {};
+				return null;
+			}
+
+			// Stop if we have reached the end of the file
+			if (null == line)
+			{ break; }
+
+			String[] parts = line.trim().split("\\s+");
+			if (0 == parts[0].length())
+			{ continue; }
+
+			try
+			{
+				if (parts[0].equals("host") && 4 == parts.length)
+				{
+					int[] addr = parseAddress(parts[2]);
+					int gateway = (parts[3].equals("-") ? 0
+							: IPv4.toIPv4Address(parts[3]));
+					topo.addHost(parts[1], addr[0], addr[1], gateway);
+				}
+				else if (parts[0].equals("switch") && 2 == parts.length)
+				{ topo.addSwitch(parts[1]); }
+				else if (parts[0].equals("router") && parts.length >= 3)
+				{
+					Node router = topo.addRouter(parts[1]);
+					for (int i = 2; i < parts.length; i++)
+					{
+						int[] addr = parseAddress(parts[i]);
+						topo.addRouterAddress(router, addr[0], addr[1]);
+					}
+				}
+				else if (parts[0].equals("link") && 3 == parts.length)
+				{ topo.addLink(parts[1], parts[2]); }
+				else
+				{ throw new IllegalArgumentException("Unknown entry"); }
+			}
+			catch (IllegalArgumentException e)
+			{
+				System.err.println("Error in topology configuration line: "
+						+ line + " (" + e.getMessage() + ")");
+				try { reader.close(); } catch (IOException f) {};
+				return null;
+			}
+		}
+
+		// Close the file
+		try { reader.close(); } catch (IOException f) {};
+		return topo;
+	}
+
+	/**
+	 * Parse an address of the form a.b.c.d/prefix.
+	 * @return the IP address and subnet mask
+	 */
+	private static int[] parseAddress(String addr)
+	{
+		int slash = addr.indexOf('/');
+		if (slash < 0)
+		{ throw new IllegalArgumentException("Missing prefix in " + addr); }
+		int ip = IPv4.parseIPv4Address(addr, 0, slash);
+		int prefix = Integer.parseInt(addr.substring(slash + 1));
+		int mask = (0 == prefix ? 0 : 0xffffffff << (32 - prefix));
+		return new int[] { ip, mask };
+	}
+
+	/**
+	 * Generate a linear chain of routers with one host attached to each
+	 * router. Router ri connects to host hi on eth1, to router r(i-1) on eth2
+	 * (except r1), and to router r(i+1) on the following interface.
+	 * @param numRouters number of routers in the chain
+	 * @return the topology
+	 */
+	public static Topology linear(int numRouters)
+	{
+		if (numRouters < 1 || numRouters > 0x7fff)
+		{ throw new IllegalArgumentException("Invalid number of routers"); }
+
+		Topology topo = new Topology();
+		int mask = 0xffffff00;
+		for (int i = 1; i <= numRouters; i++)
+		{
+			// Host subnets are 10.x.y.0/24 and router-to-router subnets are
+			// 10.(128+x).y.0/24, where x.y is the router's index
+			int hostSubnet = (10 << 24) | (i << 8);
+			topo.addHost("h" + i, hostSubnet | 100, mask, hostSubnet | 1);
+			Node router = topo.addRouter("r" + i);
+			topo.addRouterAddress(router, hostSubnet | 1, mask);
+			if (i > 1)
+			{ topo.addRouterAddress(router, linkSubnet(i - 1) | 2, mask); }
+			if (i < numRouters)
+			{ topo.addRouterAddress(router, linkSubnet(i) | 1, mask); }
+		}
+
+		for (int i = 1; i <= numRouters; i++)
+		{ topo.addLink("r" + i, "h" + i); }
+		for (int i = 1; i < numRouters; i++)
+		{ topo.addLink("r" + i, "r" + (i + 1)); }
+		return topo;
+	}
+
+	private static int linkSubnet(int index)
+	{ return (10 << 24) | (1 << 23) | (index << 8); }
+}
@@ -0,0 +1,310 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IGMP;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.IPv4View;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * Learns which switch ports lead to members of each IPv4 multicast group by
+ * listening to IGMP reports and leaves, so multicast frames are sent only to
+ * those ports and to ports that lead to a multicast router. Ports that
+ * receive IGMP queries are taken to lead to a multicast router.
+ *
+ * Memberships expire if they are not refreshed by a report. A leave does
+ * not end a port's membership at once, since other hosts on the port may
+ * still be members; it only shortens it to the last member query time, in
+ * which those hosts answer the router's group-specific queries with reports
+ * that keep the membership. Ports configured for fast leave, which lead to a
+ * single host, are removed at once. Frames for
+ * groups in 224.0.0.0/24, which hosts never report, are always flooded, as
+ * are frames for groups no port has joined when no multicast router has been
+ * heard from, since without a querier hosts stop sending reports.
+ */
+public class IgmpSnooping
+{
+	/** Default time a membership is kept without a report, in ms; this is
+	 *  IGMP's default group membership interval */
+	public static final long DEFAULT_TIMEOUT = 260000;
+
+	/** Time a membership is kept after a leave, in ms; this is IGMP's
+	 *  default last member query count, 2, times its default last member
+	 *  query interval, 1 s */
+	public static final long LAST_MEMBER_TIME = 2000;
+
+	/** Entries for this group are the ports that lead to a multicast
+	 *  router; 0.0.0.0 is never a multicast group */
+	private static final int ROUTER_GROUP = 0;
+
+	/** Views for reading IPv4 headers, and sets of ports returned by
+	 *  getPorts; one per thread, so multicast frames allocate neither */
+	private static final ThreadLocal<IPv4View> IP_VIEWS =
+			ThreadLocal.withInitial(IPv4View::new);
+	private static final ThreadLocal<Set<Iface>> PORTS =
+			ThreadLocal.withInitial(HashSet::new);
+
+	/** False to flood multicast frames like any other */
+	private volatile boolean enabled;
+
+	/** Time a membership is kept without a report, in ns */
+	private volatile long timeout;
+
+	/** When memberships were last checked for expiry, from System.nanoTime() */
+	private volatile long lastCleanUp;
+
+	/** Ports that joined each group, keyed by VLAN and group address; each
+	 *  port maps to when its membership expires, from System.nanoTime() */
+	private final Map<Long,Map<Iface,Long>> groups;
+
+	/** Ports configured to lead to a multicast router; replaced, never
+	 *  modified, once published */
+	private volatile Set<Iface> staticRouters;
+
+	/** Ports whose memberships end as soon as they leave; replaced, never
+	 *  modified, once published */
+	private volatile Set<Iface> fastLeavePorts;
+
+	public IgmpSnooping()
+	{
+		this.enabled = true;
+		this.timeout = DEFAULT_TIMEOUT * 1000000L;
+		this.lastCleanUp = System.nanoTime();
+		this.groups = new ConcurrentHashMap<Long,Map<Iface,Long>>();
+		this.staticRouters = Collections.emptySet();
+		this.fastLeavePorts = Collections.emptySet();
+	}
+
+	/**
+	 * @param enabled false to flood multicast frames like any other
+	 */
+	public void setEnabled(boolean enabled)
+	{ this.enabled = enabled; }
+
+	public boolean isEnabled()
+	{ return this.enabled; }
+
+	/**
+	 * @param millis time a membership is kept without a report, in ms
+	 */
+	public void setTimeout(long millis)
+	{ this.timeout = millis * 1000000L; }
+
+	/**
+	 * Always send multicast frames and IGMP reports out a port, as if a
+	 * multicast router had been heard on it.
+	 */
+	public synchronized void addRouterPort(Iface iface)
+	{
+		Set<Iface> updated = new HashSet<Iface>(this.staticRouters);
+		updated.add(iface);
+		this.staticRouters = updated;
+	}
+
+	/**
+	 * End a port's memberships as soon as it sends a leave, rather than
+	 * after the last member query time; only for ports that lead to a
+	 * single host.
+	 */
+	public synchronized void addFastLeavePort(Iface iface)
+	{
+		Set<Iface> updated = new HashSet<Iface>(this.fastLeavePorts);
+		updated.add(iface);
+		this.fastLeavePorts = updated;
+	}
+
+	/**
+	 * Learn from a multicast frame if it is an IGMP message, and decide which
+	 * ports should receive it.
+	 * @param etherPacket frame with a multicast destination
+	 * @param vlan VLAN the frame belongs to
+	 * @param inIface port the frame arrived on
+	 * @return ports that may receive the frame, before VLAN membership and
+	 *         spanning tree state are checked; null to flood it to the VLAN.
+	 *         The set is reused by the next call on the same thread.
+	 */
+	public Set<Iface> getPorts(Ethernet etherPacket, short vlan, Iface inIface)
+	{
+		if (!this.enabled || etherPacket.getEtherType() != Ethernet.TYPE_IPv4)
+		{ return null; }
+
+		// Switches only parse the Ethernet header, so the IPv4 header is
+		// read in place, and only IGMP messages are parsed further
+		Data payload = (etherPacket.getPayload() instanceof Data)
+				? (Data)etherPacket.getPayload()
+				: new Data(etherPacket.getPayload().serialize());
+		byte[] data = payload.getArray();
+		IPv4View ipView = IP_VIEWS.get().wrap(data, payload.getOffset(),
+				payload.getLength());
+		if (!ipView.isValid())
+		{ return null; }
+		long now = System.nanoTime();
+		if (IPv4.PROTOCOL_IGMP == ipView.getProtocol())
+		{
+			IGMP igmp = new IGMP();
+			igmp.deserialize(data, ipView.getPayloadOffset(),
+					ipView.getPayloadLength());
+			return this.handleIgmp(igmp, vlan, inIface, now);
+		}
+
+		int group = ipView.getDestinationAddress();
+		if (!isMulticast(group) || isLinkLocal(group))
+		{ return null; }
+		Set<Iface> ports = this.routerPorts(vlan, now);
+		boolean registered = this.addMembers(ports, vlan, group, now);
+		if (!registered && ports.isEmpty())
+		{ return null; }
+		return ports;
+	}
+
+	private Set<Iface> handleIgmp(IGMP igmp, short vlan, Iface inIface,
+			long now)
+	{
+		switch (igmp.getIgmpType())
+		{
+		case IGMP.TYPE_MEMBERSHIP_QUERY:
+			// Every host must hear queries, so they are flooded
+			this.join(vlan, ROUTER_GROUP, inIface, now);
+			return null;
+		case IGMP.TYPE_V1_MEMBERSHIP_REPORT:
+		case IGMP.TYPE_V2_MEMBERSHIP_REPORT:
+			this.join(vlan, igmp.getGroupAddress(), inIface, now);
+			break;
+		case IGMP.TYPE_V2_LEAVE_GROUP:
+			this.leave(vlan, igmp.getGroupAddress(), inIface, now);
+			break;
+		case IGMP.TYPE_V3_MEMBERSHIP_REPORT:
+			for (IGMP.GroupRecord record : igmp.getRecords())
+			{
+				if (record.isLeave())
+				{ this.leave(vlan, record.getGroupAddress(), inIface, now); }
+				else if (record.isJoin())
+				{ this.join(vlan, record.getGroupAddress(), inIface, now); }
+			}
+			break;
+		default:
+			return null;
+		}
+
+		// Reports and leaves only need to reach multicast routers; other
+		// hosts hearing them would only suppress their own reports
+		return this.routerPorts(vlan, now);
+	}
+
+	/**
+	 * @return this thread's set of ports, holding just the ports that lead
+	 *         to a multicast router
+	 */
+	private Set<Iface> routerPorts(short vlan, long now)
+	{
+		Set<Iface> ports = PORTS.get();
+		ports.clear();
+		ports.addAll(this.staticRouters);
+		this.addMembers(ports, vlan, ROUTER_GROUP, now);
+		return ports;
+	}
+
+	private void join(short vlan, int group, Iface iface, long now)
+	{
+		if (group != ROUTER_GROUP
+				&& (!isMulticast(group) || isLinkLocal(group)))
+		{ return; }
+		long expires = now + this.timeout;
+		this.groups.compute(key(vlan, group), (key, members) -> {
+			if (null == members)
+			{ members = new ConcurrentHashMap<Iface,Long>(); }
+			members.put(iface, expires);
+			return members;
+		});
+
+		// Groups no frames are sent to are never looked up, so their
+		// memberships are only removed here
+		if (now - this.lastCleanUp > this.timeout)
+		{
+			this.lastCleanUp = now;
+			this.cleanUp(now);
+		}
+	}
+
+	private void leave(short vlan, int group, Iface iface, long now)
+	{
+		boolean fastLeave = this.fastLeavePorts.contains(iface);
+		long expires = now + LAST_MEMBER_TIME * 1000000L;
+		this.groups.computeIfPresent(key(vlan, group), (key, members) -> {
+			if (fastLeave)
+			{ members.remove(iface); }
+			else
+			{
+				// Reports from members left on the port extend it again
+				members.computeIfPresent(iface, (port, current) ->
+						(current - expires > 0) ? expires : current);
+			}
+			return members.isEmpty() ? null : members;
+		});
+	}
+
+	/**
+	 * Add the ports with unexpired memberships in a group to a set, and
+	 * remove the expired memberships.
+	 * @return true if any port is a member of the group
+	 */
+	private boolean addMembers(Set<Iface> ports, short vlan, int group,
+			long now)
+	{
+		Map<Iface,Long> members = this.groups.get(key(vlan, group));
+		if (null == members)
+		{ return false; }
+		boolean found = false;
+		for (Map.Entry<Iface,Long> entry : members.entrySet())
+		{
+			if (entry.getValue() - now < 0)
+			{ members.remove(entry.getKey(), entry.getValue()); }
+			else
+			{
+				ports.add(entry.getKey());
+				found = true;
+			}
+		}
+		if (!found)
+		{
+			this.groups.computeIfPresent(key(vlan, group),
+					(key, current) -> current.isEmpty() ? null : current);
+		}
+		return found;
+	}
+
+	/**
+	 * Remove every expired membership.
+	 */
+	private void cleanUp(long now)
+	{
+		for (Long key : this.groups.keySet())
+		{
+			this.groups.computeIfPresent(key, (k, members) -> {
+				members.values().removeIf(expires -> expires - now < 0);
+				return members.isEmpty() ? null : members;
+			});
+		}
+	}
+
+	private static long key(short vlan, int group)
+	{ return ((vlan & 0xffffL) << 32) | (group & 0xffffffffL); }
+
+	private static boolean isMulticast(int address)
+	{ return (address & 0xf0000000) == 0xe0000000; }
+
+	/**
+	 * @return true for groups in 224.0.0.0/24, which are only used on the
+	 *         local link and never reported
+	 */
+	private static boolean isLinkLocal(int address)
+	{ return (address & 0xffffff00) == 0xe0000000; }
+}
@@ -0,0 +1,755 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPacket;
+import net.floodlightcontroller.packet.MACAddress;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * Rapid Spanning Tree Protocol (802.1w) for a switch, so that topologies
+ * with redundant links between switches do not loop frames forever.
+ *
+ * The bridge with the lowest ID becomes the root. Every other bridge
+ * forwards on the port with the cheapest path to the root and on the ports
+ * it is the designated bridge for, and blocks the rest. A port that loses
+ * its root information switches to the best alternate port immediately,
+ * and new designated ports are unblocked with a proposal and agreement
+ * handshake rather than by waiting out the forward delay.
+ *
+ * This is a simplified implementation: there is one tree for all VLANs,
+ * ports that never hear a BPDU are treated as edge ports, and point-to-point
+ * links are assumed. Received information expires after three hello times,
+ * which is how link failures are detected.
+ */
+public class SpanningTree implements Runnable
+{
+	/** Destination MAC address of BPDUs */
+	public static final long BPDU_MAC = 0x0180C2000000L;
+
+	/** Port roles */
+	static final int ROLE_DISABLED = 0;
+	static final int ROLE_ROOT = 1;
+	static final int ROLE_DESIGNATED = 2;
+	static final int ROLE_ALTERNATE = 3;
+	static final int ROLE_BACKUP = 4;
+
+	/** Port states */
+	static final int STATE_DISCARDING = 0;
+	static final int STATE_LEARNING = 1;
+	static final int STATE_FORWARDING = 2;
+
+	public static final int DEFAULT_BRIDGE_PRIORITY = 32768;
+	public static final int DEFAULT_PORT_PRIORITY = 128;
+	public static final int DEFAULT_PORT_COST = 20000;
+	public static final long DEFAULT_HELLO_TIME = 2000;
+	public static final long DEFAULT_FORWARD_DELAY = 15000;
+	public static final long DEFAULT_MAX_AGE = 20000;
+
+	/** BPDU encoding: LLC header, BPDU types, and flags */
+	private static final byte[] LLC_HEADER = { 0x42, 0x42, 0x03 };
+	private static final int CONFIG_BPDU_LENGTH = 35;
+	private static final int RST_BPDU_LENGTH = 36;
+	private static final byte BPDU_TYPE_CONFIG = 0x00;
+	private static final byte BPDU_TYPE_RST = 0x02;
+	private static final byte BPDU_TYPE_TCN = (byte)0x80;
+	private static final int FLAG_TC = 0x01;
+	private static final int FLAG_PROPOSAL = 0x02;
+	private static final int FLAG_ROLE_SHIFT = 2;
+	private static final int FLAG_LEARNING = 0x10;
+	private static final int FLAG_FORWARDING = 0x20;
+	private static final int FLAG_AGREEMENT = 0x40;
+
+	/** Port roles as encoded in BPDU flags */
+	private static final int BPDU_ROLE_ALTERNATE = 1;
+	private static final int BPDU_ROLE_ROOT = 2;
+	private static final int BPDU_ROLE_DESIGNATED = 3;
+
+	/**
+	 * Spanning tree priority vector. Lower vectors are better.
+	 */
+	private static class PriorityVector
+	{
+		final long rootId;
+		final int rootCost;
+		final long bridgeId;
+		final int portId;
+
+		PriorityVector(long rootId, int rootCost, long bridgeId, int portId)
+		{
+			this.rootId = rootId;
+			this.rootCost = rootCost;
+			this.bridgeId = bridgeId;
+			this.portId = portId;
+		}
+
+		int compareTo(PriorityVector other)
+		{
+			if (this.rootId != other.rootId)
+			{ return Long.compareUnsigned(this.rootId, other.rootId); }
+			if (this.rootCost != other.rootCost)
+			{ return Integer.compareUnsigned(this.rootCost, other.rootCost); }
+			if (this.bridgeId != other.bridgeId)
+			{ return Long.compareUnsigned(this.bridgeId, other.bridgeId); }
+			return Integer.compare(this.portId, other.portId);
+		}
+
+		boolean sameSource(PriorityVector other)
+		{
+			return this.bridgeId == other.bridgeId
+					&& this.portId == other.portId;
+		}
+	}
+
+	/**
+	 * Spanning tree state of one switch port.
+	 */
+	private static class Port
+	{
+		Iface iface;
+		int priority = DEFAULT_PORT_PRIORITY;
+		int cost = DEFAULT_PORT_COST;
+		/** True if the port was configured as an edge port */
+		boolean adminEdge;
+		/** True if the port is treated as an edge port */
+		boolean operEdge;
+		int role = ROLE_DISABLED;
+		volatile int state = STATE_DISCARDING;
+		/** Best designated information heard on the port; null if none */
+		PriorityVector received;
+		/** Message age of the received information, in 1/256 s */
+		int receivedAge;
+		/** When the received information was last refreshed, in ms */
+		long receivedAt;
+		/** True if a BPDU was ever heard on the port */
+		boolean bpduSeen;
+		/** True while a designated port waits for an agreement */
+		boolean proposing;
+		/** When the port last changed state, in ms */
+		long stateChangedAt;
+		/** Time until which topology changes are signalled, in ms */
+		long tcUntil;
+
+		int portId()
+		{ return ((this.priority & 0xf0) << 8) | ((this.iface.getIndex() + 1) & 0xfff); }
+	}
+
+	/** Switch the spanning tree runs on */
+	private Switch sw;
+
+	/** Bridge priority and MAC address; together they form the bridge ID */
+	private int bridgePriority;
+	private long bridgeMac;
+
+	/** Timers, in ms */
+	private long helloTime;
+	private long forwardDelay;
+	private long maxAge;
+
+	/** Ports indexed by Iface.getIndex(); null until the tree is started */
+	private volatile Port[] ports;
+
+	/** Root priority vector and root port; null root port if this is the
+	 *  root bridge */
+	private PriorityVector rootVector;
+	private Port rootPort;
+	private int rootAge;
+
+	/** Root priority vector the designated ports were last synced for */
+	private PriorityVector syncedVector;
+
+	/** When BPDUs were last sent on designated ports, in ms */
+	private long lastHello;
+
+	/** Per-port settings, indexed by Iface.getIndex(); applied when the tree
+	 *  is started */
+	private int[] portPriorities;
+	private int[] portCosts;
+	private boolean[] edgePorts;
+
+	private Thread timerThread;
+
+	/**
+	 * Creates a stopped spanning tree for a switch.
+	 * @param sw the switch
+	 */
+	public SpanningTree(Switch sw)
+	{
+		this.sw = sw;
+		this.bridgePriority = DEFAULT_BRIDGE_PRIORITY;
+		this.bridgeMac = 0;
+		this.helloTime = DEFAULT_HELLO_TIME;
+		this.forwardDelay = DEFAULT_FORWARD_DELAY;
+		this.maxAge = DEFAULT_MAX_AGE;
+		this.ports = null;
+		this.portPriorities = new int[0];
+		this.portCosts = new int[0];
+		this.edgePorts = new boolean[0];
+	}
+
+	public void setBridgePriority(int priority)
+	{ this.bridgePriority = priority; }
+
+	/**
+	 * @param mac MAC address used in the bridge ID; 0 to derive one from the
+	 *        switch's interfaces or host name
+	 */
+	public void setBridgeMac(long mac)
+	{ this.bridgeMac = mac; }
+
+	public void setHelloTime(long millis)
+	{ this.helloTime = millis; }
+
+	public void setForwardDelay(long millis)
+	{ this.forwardDelay = millis; }
+
+	public void setMaxAge(long millis)
+	{ this.maxAge = millis; }
+
+	public long getHelloTime()
+	{ return this.helloTime; }
+
+	private void growPortSettings(int index)
+	{
+		if (index < this.portCosts.length)
+		{ return; }
+		int oldLength = this.portCosts.length;
+		this.portPriorities = Arrays.copyOf(this.portPriorities, index + 1);
+		this.portCosts = Arrays.copyOf(this.portCosts, index + 1);
+		this.edgePorts = Arrays.copyOf(this.edgePorts, index + 1);
+		for (int i = oldLength; i <= index; i++)
+		{
+			this.portPriorities[i] = DEFAULT_PORT_PRIORITY;
+			this.portCosts[i] = DEFAULT_PORT_COST;
+		}
+	}
+
+	public void setPortPriority(Iface iface, int priority)
+	{
+		this.growPortSettings(iface.getIndex());
+		this.portPriorities[iface.getIndex()] = priority;
+	}
+
+	public void setPortCost(Iface iface, int cost)
+	{
+		this.growPortSettings(iface.getIndex());
+		this.portCosts[iface.getIndex()] = cost;
+	}
+
+	public void setEdgePort(Iface iface, boolean edge)
+	{
+		this.growPortSettings(iface.getIndex());
+		this.edgePorts[iface.getIndex()] = edge;
+	}
+
+	/**
+	 * @return true if the spanning tree is running
+	 */
+	public boolean isEnabled()
+	{ return this.ports != null; }
+
+	/**
+	 * Start running the spanning tree on the switch's current interfaces.
+	 */
+	public synchronized void start()
+	{
+		if (this.isEnabled())
+		{ return; }
+		Collection<Iface> ifaces = this.sw.getInterfaces().values();
+		if (0 == this.bridgeMac)
+		{ this.bridgeMac = this.deriveBridgeMac(ifaces); }
+
+		long now = System.currentTimeMillis();
+		int size = 0;
+		for (Iface iface : ifaces)
+		{ size = Math.max(size, iface.getIndex() + 1); }
+		Port[] newPorts = new Port[size];
+		for (Iface iface : ifaces)
+		{
+			// Members of a bundle take part through the bundle
+			if (iface.getAggregate() != null)
+			{ continue; }
+			Port port = new Port();
+			port.iface = iface;
+			if (iface.getIndex() < this.portCosts.length)
+			{
+				port.priority = this.portPriorities[iface.getIndex()];
+				port.cost = this.portCosts[iface.getIndex()];
+				port.adminEdge = this.edgePorts[iface.getIndex()];
+			}
+			port.operEdge = port.adminEdge;
+			port.stateChangedAt = now;
+			newPorts[iface.getIndex()] = port;
+		}
+
+		this.rootVector = this.ownVector();
+		this.rootPort = null;
+		this.rootAge = 0;
+		this.ports = newPorts;
+		this.updateRoles(now);
+		this.sendHellos(now);
+
+		this.timerThread = new Thread(this, "SpanningTree");
+		this.timerThread.setDaemon(true);
+		this.timerThread.start();
+	}
+
+	/**
+	 * Stop the timer thread.
+	 */
+	public void destroy()
+	{
+		if (this.timerThread != null)
+		{ this.timerThread.interrupt(); }
+	}
+
+	/**
+	 * Use the lowest interface MAC address, or one derived from the host
+	 * name if the interfaces have none.
+	 */
+	private long deriveBridgeMac(Collection<Iface> ifaces)
+	{
+		long mac = 0;
+		for (Iface iface : ifaces)
+		{
+			if (iface.getMacAddress() != null)
+			{
+				long ifaceMac = iface.getMacAddress().toLong();
+				if (0 == mac || ifaceMac < mac)
+				{ mac = ifaceMac; }
+			}
+		}
+		if (0 == mac)
+		{ mac = 0x020000000000L | (this.sw.getHost().hashCode() & 0xffffffffL); }
+		return mac;
+	}
+
+	private long bridgeId()
+	{ return ((long)(this.bridgePriority & 0xffff) << 48) | this.bridgeMac; }
+
+	private PriorityVector ownVector()
+	{ return new PriorityVector(this.bridgeId(), 0, this.bridgeId(), 0); }
+
+	private Port portFor(Iface iface)
+	{
+		Port[] current = this.ports;
+		int index = iface.getIndex();
+		return (null == current || index < 0 || index >= current.length)
+				? null : current[index];
+	}
+
+	/**
+	 * @return true if frames arriving on the interface may be learned from
+	 */
+	public boolean isLearning(Iface iface)
+	{
+		Port port = this.portFor(iface);
+		return (null == port) ? (null == this.ports)
+				: port.state != STATE_DISCARDING;
+	}
+
+	/**
+	 * @return true if frames may be received and sent on the interface
+	 */
+	public boolean isForwarding(Iface iface)
+	{
+		Port port = this.portFor(iface);
+		return (null == port) ? (null == this.ports)
+				: port.state == STATE_FORWARDING;
+	}
+
+	/**
+	 * Main method for the timer thread.
+	 */
+	public void run()
+	{
+		while (true)
+		{
+			try
+			{ Thread.sleep(Math.max(1, this.helloTime / 4)); }
+			catch (InterruptedException e)
+			{ break; }
+			this.tick(System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Expire old information, advance port state timers, and send hellos.
+	 */
+	synchronized void tick(long now)
+	{
+		boolean changed = false;
+		for (Port port : this.ports)
+		{
+			if (null == port)
+			{ continue; }
+
+			// Information not refreshed for three hello times means the
+			// neighbor or the link is gone
+			if (port.received != null
+					&& now - port.receivedAt > 3 * this.helloTime)
+			{
+				port.received = null;
+				changed = true;
+			}
+
+			// A designated port that never hears a BPDU leads to a host
+			if (ROLE_DESIGNATED == port.role && !port.operEdge
+					&& !port.bpduSeen
+					&& now - port.stateChangedAt >= 3 * this.helloTime)
+			{
+				port.operEdge = true;
+				port.proposing = false;
+				this.setState(port, STATE_FORWARDING, now);
+			}
+
+			// Without an agreement, fall back to the forward delay
+			if (ROLE_DESIGNATED == port.role
+					&& port.state != STATE_FORWARDING
+					&& now - port.stateChangedAt >= this.forwardDelay)
+			{
+				this.setState(port, port.state + 1, now);
+				if (STATE_FORWARDING == port.state)
+				{ port.proposing = false; }
+			}
+		}
+		if (changed)
+		{ this.updateRoles(now); }
+		if (changed || now - this.lastHello >= this.helloTime)
+		{ this.sendHellos(now); }
+	}
+
+	/**
+	 * Process a BPDU received on an interface.
+	 * @param etherPacket frame sent to the BPDU address
+	 * @param inIface interface the frame arrived on
+	 */
+	public synchronized void handleBpdu(Ethernet etherPacket, Iface inIface)
+	{
+		Port port = this.portFor(inIface);
+		IPacket payload = etherPacket.getPayload();
+		if (null == port || !(payload instanceof Data))
+		{ return; }
+		byte[] data = ((Data)payload).getData();
+		if (data.length < LLC_HEADER.length + 4 || data[0] != LLC_HEADER[0]
+				|| data[1] != LLC_HEADER[1] || data[2] != LLC_HEADER[2])
+		{ return; }
+
+		ByteBuffer bb = ByteBuffer.wrap(data, LLC_HEADER.length,
+				data.length - LLC_HEADER.length);
+		if (bb.getShort() != 0)
+		{ return; }
+		bb.get();
+		byte type = bb.get();
+		long now = System.currentTimeMillis();
+
+		// Any BPDU means the port connects to another bridge
+		port.bpduSeen = true;
+		if (port.operEdge && !port.adminEdge)
+		{ port.operEdge = false; }
+
+		if (BPDU_TYPE_TCN == type)
+		{
+			this.topologyChange(port, now);
+			return;
+		}
+		if ((type != BPDU_TYPE_CONFIG && type != BPDU_TYPE_RST)
+				|| bb.remaining() < CONFIG_BPDU_LENGTH - 4)
+		{ return; }
+
+		int flags = bb.get() & 0xff;
+		long rootId = bb.getLong();
+		int rootCost = bb.getInt();
+		long bridgeId = bb.getLong();
+		int portId = bb.getShort() & 0xffff;
+		int messageAge = bb.getShort() & 0xffff;
+		int maxAgeField = bb.getShort() & 0xffff;
+		if (messageAge >= maxAgeField)
+		{ return; }
+
+		// Legacy configuration BPDUs always come from designated ports
+		int role = (BPDU_TYPE_CONFIG == type) ? BPDU_ROLE_DESIGNATED
+				: (flags >> FLAG_ROLE_SHIFT) & 0x3;
+		PriorityVector vector = new PriorityVector(rootId, rootCost,
+				bridgeId, portId);
+
+		if (BPDU_ROLE_DESIGNATED == role)
+		{
+			if (null == port.received || vector.compareTo(port.received) < 0
+					|| vector.sameSource(port.received))
+			{
+				port.received = vector;
+				port.receivedAge = messageAge;
+			}
+			if (vector.sameSource(port.received))
+			{ port.receivedAt = now; }
+		}
+		else if ((flags & FLAG_AGREEMENT) != 0
+				&& ROLE_DESIGNATED == port.role
+				&& rootId == this.rootVector.rootId)
+		{
+			// The neighbor has blocked its other ports, so unblocking this
+			// one cannot create a loop
+			port.proposing = false;
+			this.setState(port, STATE_FORWARDING, now);
+		}
+
+		if ((flags & FLAG_TC) != 0)
+		{ this.topologyChange(port, now); }
+
+		boolean rootChanged = this.updateRoles(now);
+
+		if (BPDU_ROLE_DESIGNATED == role && (flags & FLAG_PROPOSAL) != 0
+				&& port.role != ROLE_DESIGNATED)
+		{
+			// Block the designated ports below this one before agreeing, so
+			// the tree stays loop free while it settles; repeated proposals
+			// for a root that was already synced need no new sync
+			if (ROLE_ROOT == port.role && (rootChanged
+					|| null == this.syncedVector
+					|| this.syncedVector.compareTo(this.rootVector) != 0))
+			{
+				this.sync(port, now);
+				this.syncedVector = this.rootVector;
+			}
+			this.sendBpdu(port, FLAG_AGREEMENT, now);
+		}
+		if (rootChanged)
+		{ this.sendHellos(now); }
+	}
+
+	/**
+	 * Put every other designated port that could form a loop back into the
+	 * discarding state, and propose to unblock it again.
+	 */
+	private void sync(Port except, long now)
+	{
+		for (Port port : this.ports)
+		{
+			if (null == port || port == except || port.operEdge
+					|| port.role != ROLE_DESIGNATED)
+			{ continue; }
+			if (port.state != STATE_DISCARDING)
+			{ this.setState(port, STATE_DISCARDING, now); }
+			port.proposing = true;
+		}
+	}
+
+	/**
+	 * Choose the root port and the role of every port.
+	 * @return true if the root priority vector changed
+	 */
+	private boolean updateRoles(long now)
+	{
+		// Find the port with the best path to the root
+		PriorityVector best = this.ownVector();
+		Port bestPort = null;
+		int bestPortId = 0;
+		for (Port port : this.ports)
+		{
+			if (null == port || null == port.received
+					|| port.received.bridgeId == this.bridgeId())
+			{ continue; }
+			PriorityVector candidate = new PriorityVector(
+					port.received.rootId, port.received.rootCost + port.cost,
+					port.received.bridgeId, port.received.portId);
+			int cmp = candidate.compareTo(best);
+			if (cmp < 0 || (0 == cmp && bestPort != null
+					&& port.portId() < bestPortId))
+			{
+				best = candidate;
+				bestPort = port;
+				bestPortId = port.portId();
+			}
+		}
+
+		PriorityVector oldRoot = this.rootVector;
+		Port oldRootPort = this.rootPort;
+		this.rootVector = best;
+		this.rootPort = bestPort;
+		this.rootAge = (null == bestPort) ? 0 : bestPort.receivedAge + 256;
+
+		// Block the old root port before the new one starts forwarding
+		if (oldRootPort != null && oldRootPort != bestPort)
+		{
+			this.setRole(oldRootPort, (null == oldRootPort.received)
+					? ROLE_DESIGNATED : ROLE_ALTERNATE, now);
+		}
+		for (Port port : this.ports)
+		{
+			if (null == port || port == oldRootPort)
+			{ continue; }
+			this.setRole(port, this.selectRole(port), now);
+		}
+		if (oldRootPort != null && oldRootPort != bestPort)
+		{ this.setRole(oldRootPort, this.selectRole(oldRootPort), now); }
+
+		return oldRoot.compareTo(best) != 0 || oldRootPort != bestPort;
+	}
+
+	private int selectRole(Port port)
+	{
+		if (port == this.rootPort)
+		{ return ROLE_ROOT; }
+		PriorityVector designated = new PriorityVector(this.rootVector.rootId,
+				this.rootVector.rootCost, this.bridgeId(), port.portId());
+		if (null == port.received || designated.compareTo(port.received) <= 0)
+		{ return ROLE_DESIGNATED; }
+		return (port.received.bridgeId == this.bridgeId()) ? ROLE_BACKUP
+				: ROLE_ALTERNATE;
+	}
+
+	private void setRole(Port port, int role, long now)
+	{
+		if (port.role == role)
+		{ return; }
+		port.role = role;
+		switch (role)
+		{
+		case ROLE_ROOT:
+			// The old root port is already blocked, so the new one can
+			// forward straight away
+			port.proposing = false;
+			this.setState(port, STATE_FORWARDING, now);
+			break;
+		case ROLE_DESIGNATED:
+			if (port.operEdge)
+			{ this.setState(port, STATE_FORWARDING, now); }
+			else
+			{
+				this.setState(port, STATE_DISCARDING, now);
+				port.proposing = true;
+			}
+			break;
+		default:
+			port.proposing = false;
+			this.setState(port, STATE_DISCARDING, now);
+		}
+	}
+
+	private void setState(Port port, int state, long now)
+	{
+		if (port.state == state)
+		{ return; }
+		boolean wasForwarding = (STATE_FORWARDING == port.state);
+		port.state = state;
+		port.stateChangedAt = now;
+		if (wasForwarding)
+		{ this.sw.flushMacTable(port.iface, false); }
+		else if (STATE_FORWARDING == state && !port.operEdge)
+		{
+			// A new path may have opened; forget where addresses were
+			this.topologyChange(port, now);
+		}
+	}
+
+	/**
+	 * Flush addresses learned on ports other than the one the change came
+	 * from, and tell the rest of the tree about it.
+	 */
+	private void topologyChange(Port from, long now)
+	{
+		this.sw.flushMacTable(from.iface, true);
+		for (Port port : this.ports)
+		{
+			if (null == port || port == from || port.operEdge)
+			{ continue; }
+			if (ROLE_ROOT == port.role || ROLE_DESIGNATED == port.role)
+			{ port.tcUntil = now + 2 * this.helloTime; }
+		}
+	}
+
+	/**
+	 * Send a BPDU on every designated port, and on the root port while a
+	 * topology change is being signalled.
+	 */
+	private void sendHellos(long now)
+	{
+		this.lastHello = now;
+		for (Port port : this.ports)
+		{
+			if (null == port)
+			{ continue; }
+			if (ROLE_DESIGNATED == port.role
+					|| (ROLE_ROOT == port.role && now < port.tcUntil))
+			{ this.sendBpdu(port, 0, now); }
+		}
+	}
+
+	private void sendBpdu(Port port, int extraFlags, long now)
+	{
+		int role;
+		switch (port.role)
+		{
+		case ROLE_ROOT: role = BPDU_ROLE_ROOT; break;
+		case ROLE_DESIGNATED: role = BPDU_ROLE_DESIGNATED; break;
+		default: role = BPDU_ROLE_ALTERNATE;
+		}
+		int flags = extraFlags | (role << FLAG_ROLE_SHIFT);
+		if (port.proposing && ROLE_DESIGNATED == port.role)
+		{ flags |= FLAG_PROPOSAL; }
+		if (port.state != STATE_DISCARDING)
+		{ flags |= FLAG_LEARNING; }
+		if (STATE_FORWARDING == port.state)
+		{ flags |= FLAG_FORWARDING; }
+		if (now < port.tcUntil)
+		{ flags |= FLAG_TC; }
+
+		byte[] data = new byte[LLC_HEADER.length + RST_BPDU_LENGTH];
+		ByteBuffer bb = ByteBuffer.wrap(data);
+		bb.put(LLC_HEADER);
+		bb.putShort((short)0);
+		bb.put((byte)2);
+		bb.put(BPDU_TYPE_RST);
+		bb.put((byte)flags);
+		bb.putLong(this.rootVector.rootId);
+		bb.putInt(this.rootVector.rootCost);
+		bb.putLong(this.bridgeId());
+		bb.putShort((short)port.portId());
+		bb.putShort((short)this.rootAge);
+		bb.putShort(toBpduTime(this.maxAge));
+		bb.putShort(toBpduTime(this.helloTime));
+		bb.putShort(toBpduTime(this.forwardDelay));
+		bb.put((byte)0);
+
+		// BPDUs use 802.3 framing, where the type field holds the length
+		Ethernet etherPacket = new Ethernet();
+		etherPacket.setDestinationMACAddress(BPDU_MAC);
+		etherPacket.setSourceMACAddress(this.bridgeMac);
+		etherPacket.setEtherType((short)data.length);
+		etherPacket.setPayload(new Data(data));
+		this.sw.sendPacket(etherPacket, port.iface);
+	}
+
+	/**
+	 * @return a time in ms in the 1/256 s units used by BPDUs
+	 */
+	private static short toBpduTime(long millis)
+	{ return (short)Math.min(0xffff, millis * 256 / 1000); }
+
+	public synchronized String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Bridge %016x root %016x cost %d\n",
+				this.bridgeId(), this.rootVector.rootId,
+				this.rootVector.rootCost));
+		for (Port port : this.ports)
+		{
+			if (null == port)
+			{ continue; }
+			sb.append(String.format("  %-8s %-10s %-10s%s\n",
+					port.iface.getName(),
+					new String[] { "disabled", "root", "designated",
+						"alternate", "backup" }[port.role],
+					new String[] { "discarding", "learning",
+						"forwarding" }[port.state],
+					port.operEdge ? " edge" : ""));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,221 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * Limits the rate of flooded frames accepted on each switch port, so one
+ * host cannot saturate every port. Broadcast, multicast, and unknown unicast
+ * frames are policed separately, in frames or bits per second.
+ *
+ * Each limit is a token bucket implemented with the generic cell rate
+ * algorithm: the bucket is a single theoretical arrival time, advanced with
+ * a compare-and-set, so policing a frame takes no lock.
+ */
+public class StormControl
+{
+	/** Kinds of flooded traffic */
+	public static final int BROADCAST = 0;
+	public static final int MULTICAST = 1;
+	public static final int UNKNOWN_UNICAST = 2;
+	private static final int NUM_TYPES = 3;
+
+	private static final String[] TYPE_NAMES =
+		{ "broadcast", "multicast", "unknown-unicast" };
+
+	/** Default burst, as the fraction of a second it takes to send at the
+	 *  limit: 100 ms */
+	private static final long DEFAULT_BURSTS_PER_SECOND = 10;
+
+	/** Smallest default burst for a bit rate limit: one full-size frame */
+	private static final long MIN_BURST_BITS = 1518 * 8;
+
+	/** Times are kept in 2^-8 ns, so high bit rates keep their precision;
+	 *  they wrap after about 400 days */
+	private static final int TIME_SHIFT = 8;
+
+	/** Highest rate, in frames or bits per second, at which one frame or bit
+	 *  still takes at least one time unit */
+	public static final long MAX_RATE = 1000000000L << TIME_SHIFT;
+
+	/** Largest burst tolerance, in 2^-8 ns; times a bucket runs ahead by
+	 *  must stay far from where differences between them overflow */
+	private static final long MAX_TOLERANCE = Long.MAX_VALUE >> 1;
+
+	/**
+	 * A token bucket for one kind of traffic on one port.
+	 */
+	static class Policer
+	{
+		/** True if the limit is in bits per second, false if in frames */
+		final boolean perBit;
+
+		/** Time one frame or bit uses up at the limit, in 2^-8 ns */
+		final long emission;
+
+		/** How far the theoretical arrival time may run ahead of now, in
+		 *  2^-8 ns */
+		final long tolerance;
+
+		/** When the bucket will next be full, in 2^-8 ns */
+		final AtomicLong tat;
+
+		/** Number of frames dropped */
+		final LongAdder drops;
+
+		/**
+		 * @param rate frames or bits per second
+		 * @param perBit true if the rate is in bits per second
+		 * @param burst frames or bits that may be sent at once; 0 for the
+		 *        default
+		 */
+		Policer(long rate, boolean perBit, long burst)
+		{
+			this.perBit = perBit;
+			this.emission = emission(rate);
+			if (0 == burst)
+			{
+				burst = Math.max(perBit ? MIN_BURST_BITS : 1,
+						rate / DEFAULT_BURSTS_PER_SECOND);
+			}
+			this.tolerance = (burst > MAX_TOLERANCE / this.emission)
+					? MAX_TOLERANCE : burst * this.emission;
+			this.tat = new AtomicLong(System.nanoTime() << TIME_SHIFT);
+			this.drops = new LongAdder();
+		}
+
+		/**
+		 * @param cost frames or bits to take from the bucket
+		 * @param now current time, from System.nanoTime()
+		 * @return true if the frame conforms to the limit
+		 */
+		boolean conform(long cost, long now)
+		{
+			long nowFixed = now << TIME_SHIFT;
+			long increment = cost * this.emission;
+			while (true)
+			{
+				// A theoretical arrival time in the past means a full bucket
+				long current = this.tat.get();
+				long start = (current - nowFixed < 0) ? nowFixed : current;
+				long next = start + increment;
+				if (next - nowFixed > this.tolerance)
+				{
+					this.drops.increment();
+					return false;
+				}
+				if (this.tat.compareAndSet(current, next))
+				{ return true; }
+			}
+		}
+	}
+
+	/**
+	 * @return time one frame or bit uses up at a rate, in 2^-8 ns
+	 */
+	private static long emission(long rate)
+	{ return Math.max(1, MAX_RATE / rate); }
+
+	/**
+	 * @param rate frames or bits per second, up to MAX_RATE
+	 * @return largest burst, in frames or bits, a limit at the rate may have
+	 */
+	public static long maxBurst(long rate)
+	{ return MAX_TOLERANCE / emission(rate); }
+
+	/** Policers indexed by Iface.getIndex() and traffic type; replaced, never
+	 *  modified, once published */
+	private volatile Policer[][] policers;
+
+	public StormControl()
+	{ this.policers = new Policer[0][]; }
+
+	/**
+	 * @return the traffic type with a name, or -1 if there is none
+	 */
+	public static int parseType(String name)
+	{ return Arrays.asList(TYPE_NAMES).indexOf(name); }
+
+	/**
+	 * Limit one kind of flooded traffic arriving on a port.
+	 * @param iface the port
+	 * @param type BROADCAST, MULTICAST, or UNKNOWN_UNICAST
+	 * @param rate frames or bits per second; 0 to remove the limit
+	 * @param perBit true if the rate and burst are in bits, false if frames
+	 * @param burst frames or bits that may arrive at once; 0 for 100 ms worth
+	 */
+	public synchronized void setLimit(Iface iface, int type, long rate,
+			boolean perBit, long burst)
+	{
+		int port = iface.getIndex();
+		Policer[][] updated = Arrays.copyOf(this.policers,
+				Math.max(this.policers.length, port + 1));
+		updated[port] = (null == updated[port]) ? new Policer[NUM_TYPES]
+				: updated[port].clone();
+		updated[port][type] = (0 == rate) ? null
+				: new Policer(rate, perBit, burst);
+		this.policers = updated;
+	}
+
+	/**
+	 * Decide whether to flood a frame.
+	 * @param iface port the frame arrived on
+	 * @param type BROADCAST, MULTICAST, or UNKNOWN_UNICAST
+	 * @param etherPacket the frame; its size is only computed if the limit
+	 *        is in bits per second
+	 * @return true if the frame is within the limit, false if it should be
+	 *         dropped
+	 */
+	public boolean allow(Iface iface, int type, Ethernet etherPacket)
+	{
+		Policer policer = this.getPolicer(iface, type);
+		if (null == policer)
+		{ return true; }
+		long cost = policer.perBit ? etherPacket.getSerializedLength() * 8L : 1;
+		return policer.conform(cost, System.nanoTime());
+	}
+
+	/**
+	 * @return number of frames of a kind dropped on a port
+	 */
+	public long getDrops(Iface iface, int type)
+	{
+		Policer policer = this.getPolicer(iface, type);
+		return (null == policer) ? 0 : policer.drops.sum();
+	}
+
+	private Policer getPolicer(Iface iface, int type)
+	{
+		Policer[][] current = this.policers;
+		int port = iface.getIndex();
+		if (port < 0 || port >= current.length || null == current[port])
+		{ return null; }
+		return current[port][type];
+	}
+
+	/**
+	 * @return drop counters for the ports with limits
+	 */
+	public String toString(Iterable<Iface> ifaces)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Iface iface : ifaces)
+		{
+			for (int type = 0; type < NUM_TYPES; type++)
+			{
+				if (this.getPolicer(iface, type) != null)
+				{
+					sb.append(String.format("%s %s dropped %d\n",
+							iface.getName(), TYPE_NAMES[type],
+							this.getDrops(iface, type)));
+				}
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -2,142 +2,663 @@ package edu.wisc.cs.sdn.vnet.sw;
 
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.MACAddress;
+import net.floodlightcontroller.packet.ParserRegistry;
 import edu.wisc.cs.sdn.vnet.Device;
 import edu.wisc.cs.sdn.vnet.DumpFile;
 import edu.wisc.cs.sdn.vnet.Iface;
 
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
 
 /**
- * Creates and manages an current table of MAC addresses
+ * Creates and manages an current table of MAC addresses.
+ * 
+ * Entries live in open-addressing hash tables keyed by the VLAN and the
+ * 48-bit MAC address packed into a long, so each VLAN learns separately.
+ * The port index and last-seen time of each entry are stored inline in
+ * parallel arrays, so learning, refreshing and looking up an address is a
+ * single probe sequence that allocates nothing.
+ * 
+ * The table is split into segments, each with its own lock, so forwarding
+ * threads only contend when they touch the same segment. Lookups read
+ * optimistically and only take a lock if a writer got in the way.
+ * 
+ * Entries age out without a cleanup thread. A lookup ignores an entry that
+ * has not been seen within the timeout, and every learn also checks a few
+ * slots after a cursor that walks around its segment, removing the stale
+ * entries it finds. No lock is ever held for more than a handful of slots.
+ * 
+ * The number of entries is capped, so a host sending from many source
+ * addresses cannot use up memory. The cap is split evenly among the
+ * segments; when a segment is full, learning a new address evicts the
+ * entry seen longest ago among a few sampled ones. Each port may also be
+ * limited in how many addresses it learns; addresses over the limit are
+ * not learned, and frames to them are flooded.
  * @author jacob
  *
  */
-class MacAddressTable extends Thread {
-	private Hashtable<MACAddress, Iface> MACLookupTable;
-	private ArrayList<MACAddressTime> MACTimes;
-	Thread cleanupThread;
+class MacAddressTable {
+	/** Default time an entry stays in the table after it was last seen, in ms */
+	public static final long DEFAULT_TIMEOUT = 15000;
+	
+	/** Default most entries the table holds */
+	public static final int DEFAULT_CAPACITY = 65536;
+	
+	/** Number of segments; always a power of two */
+	private static final int SEGMENTS = 16;
+	
+	/** Initial number of slots in each segment; always a power of two */
+	private static final int INITIAL_SLOTS = 64;
+	
+	/** Number of slots checked for stale entries on each learn */
+	private static final int SWEEP_SLOTS = 4;
+	
+	/** Number of entries compared when choosing one to evict */
+	private static final int EVICTION_SAMPLES = 8;
+	
+	/** Marks a slot as occupied, so MAC address 0 can be stored too; sits
+	 *  above the 12-bit VLAN ID, which sits above the MAC address */
+	private static final long OCCUPIED = 1L << 60;
+	
+	/**
+	 * One independently locked part of the table
+	 */
+	private static class Segment {
+		final StampedLock lock = new StampedLock();
+		/** Table the segment belongs to, which counts entries per port */
+		final MacAddressTable table;
+		/** Most entries the segment holds */
+		int capacity;
+		/** Key for each slot; 0 if the slot is empty */
+		long[] keys;
+		/** Index of the interface each MAC address was learned on */
+		int[] ports;
+		/** Time each MAC address was last seen, from System.nanoTime() */
+		long[] lastSeen;
+		/** Number of occupied slots */
+		int size;
+		/** Next slot the incremental sweep checks */
+		int cursor;
+		
+		Segment(MacAddressTable table, int slots, int capacity) {
+			this.table = table;
+			this.capacity = capacity;
+			allocate(slots);
+		}
+		
+		void allocate(int slots) {
+			keys = new long[slots];
+			ports = new int[slots];
+			lastSeen = new long[slots];
+			size = 0;
+		}
+		
+		/**
+		 * @return the slot holding a key, the empty slot where it belongs,
+		 * or -1 if the arrays changed under an optimistic reader
+		 */
+		static int find(long[] keys, long key, int hash) {
+			int mask = keys.length - 1;
+			int slot = hash & mask;
+			for (int i = 0; i <= mask; i++) {
+				if (keys[slot] == 0 || keys[slot] == key) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+		
+		/**
+		 * @return true if an entry last seen at a time has aged out
+		 */
+		static boolean isStale(long seen, long expired) {
+			// Compare the difference, since nanoTime() may wrap
+			return seen - expired <= 0;
+		}
+		
+		/**
+		 * @return index of the interface for a key, or -1 if it is not
+		 * present; a stale entry is removed; caller must hold the write lock
+		 */
+		int lookup(long key, int hash, long expired) {
+			int slot = find(keys, key, hash);
+			if (keys[slot] == 0) {
+				return -1;
+			}
+			if (isStale(lastSeen[slot], expired)) {
+				remove(slot);
+				return -1;
+			}
+			return ports[slot];
+		}
+		
+		/**
+		 * @return index of the interface for a key, or -1 if it is not
+		 * present or stale; takes no lock unless a writer interferes
+		 */
+		int lookupOptimistic(long key, int hash, long expired) {
+			long stamp = lock.tryOptimisticRead();
+			if (stamp != 0) {
+				int port = read(key, hash, expired);
+				if (port != -2 && lock.validate(stamp)) {
+					return port;
+				}
+			}
+			stamp = lock.readLock();
+			try {
+				return read(key, hash, expired);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		
+		/**
+		 * @return index of the interface for a key, -1 if it is not present
+		 * or stale, or -2 if the arrays changed under an optimistic reader
+		 */
+		private int read(long key, int hash, long expired) {
+			long[] k = keys;
+			int[] p = ports;
+			long[] t = lastSeen;
+			if (p.length != k.length || t.length != k.length) {
+				return -2;
+			}
+			int slot = find(k, key, hash);
+			if (slot < 0) {
+				return -2;
+			}
+			if (k[slot] != key || isStale(t[slot], expired)) {
+				return -1;
+			}
+			return p[slot];
+		}
+		
+		/**
+		 * Sweeps a few slots for stale entries, then adds or refreshes a
+		 * key, evicting an entry if the segment is full; a key over its
+		 * port's limit is not added, and is removed if it moved from
+		 * another port; caller must hold the write lock
+		 */
+		void learn(long key, int hash, int port, long now, long expired) {
+			sweep(SWEEP_SLOTS, expired);
+			int slot = find(keys, key, hash);
+			if (keys[slot] == 0) {
+				if (!table.reserve(port)) {
+					return;
+				}
+				if (size >= capacity) {
+					evict(expired);
+					slot = find(keys, key, hash);
+				}
+				// Keep the load factor at or below 1/2 so probes stay short
+				if ((size + 1) * 2 > keys.length) {
+					resize(keys.length * 2);
+					slot = find(keys, key, hash);
+				}
+				keys[slot] = key;
+				size++;
+			} else if (ports[slot] != port) {
+				// The address moved to another port
+				if (!table.reserve(port)) {
+					remove(slot);
+					return;
+				}
+				table.release(ports[slot]);
+			}
+			ports[slot] = port;
+			lastSeen[slot] = now;
+		}
+		
+		/**
+		 * Removes the entry seen longest ago among a few after the cursor;
+		 * caller must hold the write lock
+		 */
+		void evict(long expired) {
+			int mask = keys.length - 1;
+			int victim = -1;
+			int sampled = 0;
+			for (int i = 0; i <= mask && sampled < EVICTION_SAMPLES; i++) {
+				int slot = (cursor + i) & mask;
+				if (keys[slot] != 0) {
+					sampled++;
+					if (victim < 0 || lastSeen[slot] - lastSeen[victim] < 0) {
+						victim = slot;
+					}
+				}
+			}
+			if (victim < 0) {
+				return;
+			}
+			// Stale entries would have aged out anyway
+			if (!isStale(lastSeen[victim], expired)) {
+				table.evictions.increment();
+			}
+			cursor = (victim + 1) & mask;
+			remove(victim);
+		}
+		
+		/**
+		 * Changes the most entries the segment holds, evicting entries and
+		 * shrinking the arrays if needed; caller must hold the write lock
+		 */
+		void setCapacity(int capacity, long expired) {
+			this.capacity = capacity;
+			while (size > capacity) {
+				evict(expired);
+			}
+			int slots = slotsFor(capacity);
+			if (keys.length > slots) {
+				resize(slots);
+			}
+		}
+		
+		/**
+		 * Removes the entries learned on a port, or on every port but that
+		 * one; caller must hold the write lock
+		 */
+		void flush(int port, boolean others) {
+			int slot = 0;
+			while (slot < keys.length) {
+				if (keys[slot] != 0 && (ports[slot] == port) != others) {
+					// An entry may have shifted into this slot; check it again
+					remove(slot);
+				} else {
+					slot++;
+				}
+			}
+		}
+		
+		/**
+		 * Checks a number of slots after the cursor and removes the stale
+		 * entries among them, so the cost is the slots checked plus the
+		 * entries removed; caller must hold the write lock
+		 */
+		void sweep(int slots, long expired) {
+			int mask = keys.length - 1;
+			cursor &= mask;
+			int checked = 0;
+			while (checked < slots && size > 0) {
+				if (keys[cursor] != 0 && isStale(lastSeen[cursor], expired)) {
+					// An entry may have shifted into this slot; check it again
+					remove(cursor);
+				} else {
+					cursor = (cursor + 1) & mask;
+					checked++;
+				}
+			}
+		}
+		
+		private void resize(int slots) {
+			long[] oldKeys = keys;
+			int[] oldPorts = ports;
+			long[] oldLastSeen = lastSeen;
+			allocate(slots);
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != 0) {
+					int slot = find(keys, oldKeys[i], hash(oldKeys[i]));
+					keys[slot] = oldKeys[i];
+					ports[slot] = oldPorts[i];
+					lastSeen[slot] = oldLastSeen[i];
+					size++;
+				}
+			}
+		}
+		
+		/**
+		 * Empties a slot, shifting later entries of the same probe sequence
+		 * back so that lookups never need tombstones; caller must hold the
+		 * write lock
+		 */
+		void remove(int slot) {
+			int removed = ports[slot];
+			int mask = keys.length - 1;
+			int hole = slot;
+			int next = (hole + 1) & mask;
+			while (keys[next] != 0) {
+				int want = hash(keys[next]) & mask;
+				// Move the entry into the hole unless its home slot lies
+				// cyclically in (hole, next]
+				if (((next - want) & mask) >= ((next - hole) & mask)) {
+					keys[hole] = keys[next];
+					ports[hole] = ports[next];
+					lastSeen[hole] = lastSeen[next];
+					hole = next;
+				}
+				next = (next + 1) & mask;
+			}
+			keys[hole] = 0;
+			size--;
+			table.release(removed);
+		}
+	}
+	
+	/**
+	 * An interface and the entries learned on it
+	 */
+	private static class Port {
+		final Iface iface;
+		/** Number of entries learned on the interface */
+		final AtomicInteger learned = new AtomicInteger();
+		/** Most entries the interface may have; 0 for no limit */
+		volatile int limit;
+		
+		Port(Iface iface, int limit) {
+			this.iface = iface;
+			this.limit = limit;
+		}
+	}
+	
+	private Segment[] segments;
+	/** Interfaces indexed by Iface.getIndex(); replaced, never modified, once
+	 *  published */
+	private volatile Port[] ifaces;
+	/** Time an entry stays in the table after it was last seen, in ns */
+	private volatile long timeout;
+	/** Most entries each interface may have unless set otherwise; 0 for no
+	 *  limit */
+	private volatile int defaultPortLimit;
+	/** Entries removed to make room for new ones, and addresses not learned
+	 *  because their port was at its limit */
+	final LongAdder evictions = new LongAdder();
+	final LongAdder refusals = new LongAdder();
 	
 	public MacAddressTable() {
-		MACLookupTable = new Hashtable<MACAddress, Iface>();
-		MACTimes = new ArrayList<MACAddressTime>();
-		cleanupThread = new Thread(this, "Cleanup");
-		cleanupThread.start();
+		segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(this, INITIAL_SLOTS,
+					segmentCapacity(DEFAULT_CAPACITY));
+		}
+		ifaces = new Port[8];
+		setTimeout(DEFAULT_TIMEOUT);
+	}
+	
+	/**
+	 * @return number of slots needed to hold a number of entries at a load
+	 * factor of at most 1/2
+	 */
+	private static int slotsFor(int entries) {
+		return Math.max(INITIAL_SLOTS, Integer.highestOneBit(
+				Math.max(1, entries * 2 - 1)) << 1);
+	}
+	
+	private static int segmentCapacity(int capacity) {
+		return Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
 	}
 	
 	/**
-	 * Main method for the cleanup thread
+	 * Sets the most entries the table holds, evicting entries if it
+	 * already holds more
+	 * @param capacity most entries, rounded up to a multiple of the number
+	 * of segments; must be positive
 	 */
-	public void run() {
-		while(true) {
+	public void setCapacity(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException(
+					"MAC table capacity must be positive");
+		}
+		long expired = System.nanoTime() - timeout;
+		for (Segment segment : segments) {
+			long stamp = segment.lock.writeLock();
 			try {
-				// Waits 1 second
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-				break;
+				segment.setCapacity(segmentCapacity(capacity), expired);
+			} finally {
+				segment.lock.unlockWrite(stamp);
 			}
-			//System.out.println("**MAT Running Cleanup**");
-			cleanUp();
 		}
 	}
 	
 	/**
-	 * Gets the Iface for a MAC address
-	 * @param mac 
-	 * @return Iface
+	 * Sets the most addresses an interface may learn. Addresses it already
+	 * learned are kept even if there are more.
+	 * @param iface the interface; null to set the limit for every interface,
+	 * including those added later
+	 * @param limit most addresses; 0 for no limit
 	 */
-	public synchronized Iface getIface(MACAddress mac) {
-		return MACLookupTable.get(mac);
+	public void setPortLimit(Iface iface, int limit) {
+		if (iface == null) {
+			defaultPortLimit = limit;
+			for (Port port : ifaces) {
+				if (port != null) {
+					port.limit = limit;
+				}
+			}
+		} else {
+			int port = register(iface);
+			ifaces[port].limit = limit;
+		}
 	}
 	
-	public synchronized boolean exists(MACAddress mac) {
-		if(MACLookupTable.get(mac) == null) {
-			return false;
-		} else {
+	/**
+	 * Counts an entry learned on a port, unless the port is at its limit
+	 * @return true if the entry may be added
+	 */
+	boolean reserve(int port) {
+		Port p = ifaces[port];
+		int limit = p.limit;
+		if (limit <= 0) {
+			p.learned.incrementAndGet();
 			return true;
 		}
+		int learned;
+		do {
+			learned = p.learned.get();
+			if (learned >= limit) {
+				refusals.increment();
+				return false;
+			}
+		} while (!p.learned.compareAndSet(learned, learned + 1));
+		return true;
+	}
+	
+	/**
+	 * Stops counting an entry removed from a port
+	 */
+	void release(int port) {
+		ifaces[port].learned.decrementAndGet();
+	}
+	
+	/**
+	 * Sets how long an entry stays in the table after it was last seen
+	 * @param millis timeout in ms; must be positive
+	 */
+	public void setTimeout(long millis) {
+		if (millis <= 0) {
+			throw new IllegalArgumentException("MAC timeout must be positive");
+		}
+		timeout = millis * 1000000L;
 	}
 	
 	/**
-	 * Adds a MAC address to the table
-	 * @param mac
-	 * @param iface
+	 * @return how long an entry stays in the table after it was last seen,
+	 * in ms
 	 */
-	public synchronized void addMAC(MACAddress mac, Iface iface) {
-		MACLookupTable.put(mac, iface);
-		MACAddressTime addrTime = new MACAddressTime(mac);
-		MACTimes.add(addrTime);
-		//System.out.println("MAC ADDR ADDED: " + mac.toString());
+	public long getTimeout() {
+		return timeout / 1000000L;
 	}
 	
 	/**
-	 * Updates the removal time of a MAC address to 15 seconds
-	 * from when the command is run
-	 * @param mac
+	 * @return hash of a key; the low bits pick a slot and the high bits
+	 * pick a segment
 	 */
-	public synchronized void updateMACTime(MACAddress mac) {
-		if(MACLookupTable.get(mac) == null) {
-			return;
-		} else {
-			for(MACAddressTime time: MACTimes) {
-				if(time.getMAC().equals(mac)) {
-					time.updateTimeout();
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+	
+	private Segment segmentFor(int hash) {
+		return segments[hash >>> (32 - Integer.numberOfTrailingZeros(SEGMENTS))];
+	}
+	
+	/**
+	 * @return index of an interface, registering the interface the first
+	 * time it is seen
+	 */
+	private int register(Iface iface) {
+		int port = iface.getIndex();
+		Port[] current = ifaces;
+		if (port >= current.length || current[port] == null
+				|| current[port].iface != iface) {
+			synchronized (this) {
+				current = ifaces;
+				if (port >= current.length || current[port] == null
+						|| current[port].iface != iface) {
+					current = Arrays.copyOf(current,
+							Math.max(port + 1, current.length));
+					current[port] = new Port(iface, defaultPortLimit);
+					ifaces = current;
 				}
 			}
 		}
+		return port;
+	}
+	
+	private Iface ifaceFor(int port) {
+		return (port < 0) ? null : ifaces[port].iface;
 	}
 	
 	/**
-	 * Removes all stale MAC addresses from the table
+	 * @return key for a MAC address in a VLAN
 	 */
-	public synchronized void cleanUp() {
-		long currTime = System.currentTimeMillis();
-		for(int i = 0; i<MACTimes.size(); i++) {
-			if (MACTimes.get(i).getTimeout() <= currTime) {
-				//System.out.println("MAC ADDR REMOVED: " + MACTimes.get(i).getMAC().toString());
-				MACLookupTable.remove(MACTimes.get(i).getMAC());
-				MACTimes.remove(i);
-				i--;
+	private static long key(short vlan, long mac) {
+		return OCCUPIED | ((long)(vlan & 0xfff) << 48) | mac;
+	}
+	
+	/**
+	 * Gets the Iface for a MAC address
+	 * @param vlan VLAN the address was learned in
+	 * @param mac MAC address as a long
+	 * @return Iface, or null if the address is not in the table or has aged
+	 * out
+	 */
+	public Iface lookup(short vlan, long mac) {
+		long key = key(vlan, mac);
+		int hash = hash(key);
+		long expired = System.nanoTime() - timeout;
+		return ifaceFor(segmentFor(hash).lookupOptimistic(key, hash, expired));
+	}
+	
+	/**
+	 * Adds a MAC address to the table, or updates its interface and resets
+	 * its removal time if it is already there
+	 * @param vlan VLAN the address was seen in
+	 * @param mac MAC address as a long
+	 * @param iface interface the address was seen on
+	 */
+	public void learn(short vlan, long mac, Iface iface) {
+		learnAndLookup(vlan, mac, iface, -1L);
+	}
+	
+	/**
+	 * Learns the source of a frame and finds the interface for its
+	 * destination in one pass. If both addresses fall in the same segment,
+	 * the segment is locked once; otherwise the destination is looked up
+	 * without a lock.
+	 * @param vlan VLAN of the frame
+	 * @param srcMac source MAC address as a long
+	 * @param inIface interface the frame arrived on
+	 * @param dstMac destination MAC address as a long; -1 to skip the lookup
+	 * @return Iface for the destination, or null if it is not in the table
+	 * or has aged out
+	 */
+	public Iface learnAndLookup(short vlan, long srcMac, Iface inIface,
+			long dstMac) {
+		int port = register(inIface);
+		long srcKey = key(vlan, srcMac);
+		int srcHash = hash(srcKey);
+		long dstKey = key(vlan, dstMac);
+		int dstHash = hash(dstKey);
+		Segment srcSegment = segmentFor(srcHash);
+		Segment dstSegment = (dstMac < 0) ? null : segmentFor(dstHash);
+		long now = System.nanoTime();
+		long expired = now - timeout;
+		
+		int outPort = -1;
+		long stamp = srcSegment.lock.writeLock();
+		try {
+			srcSegment.learn(srcKey, srcHash, port, now, expired);
+			if (dstSegment == srcSegment) {
+				outPort = srcSegment.lookup(dstKey, dstHash, expired);
 			}
+		} finally {
+			srcSegment.lock.unlockWrite(stamp);
 		}
+		
+		if (dstSegment != null && dstSegment != srcSegment) {
+			outPort = dstSegment.lookupOptimistic(dstKey, dstHash, expired);
+		}
+		return ifaceFor(outPort);
 	}
-}
-
-/**
- * This class stores a MAC address and its removal time
- * @author jacob
- *
- */
-class MACAddressTime {
-	private long timeout;
-	private MACAddress mac;
 	
-	public MACAddressTime(MACAddress mac) {
-		this.mac = mac;
-		updateTimeout();
+	/**
+	 * Removes the MAC addresses learned on an interface, or on every
+	 * interface but that one, one segment at a time
+	 * @param iface the interface
+	 * @param others true to keep the addresses learned on the interface and
+	 * remove all others
+	 */
+	public void flush(Iface iface, boolean others) {
+		for (Segment segment : segments) {
+			long stamp = segment.lock.writeLock();
+			try {
+				segment.flush(iface.getIndex(), others);
+			} finally {
+				segment.lock.unlockWrite(stamp);
+			}
+		}
 	}
 	
 	/**
-	 * @return timeout
+	 * @return number of entries in the table, including stale ones not yet
+	 * removed
 	 */
-	public long getTimeout() {
-		return timeout;
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			long stamp = segment.lock.readLock();
+			try {
+				size += segment.size;
+			} finally {
+				segment.lock.unlockRead(stamp);
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * @return entries removed to make room for new ones
+	 */
+	public long getEvictions() {
+		return evictions.sum();
 	}
 	
 	/**
-	 * @return MAC address
+	 * @return addresses not learned because their port was at its limit
 	 */
-	public MACAddress getMAC() {
-		return mac;
+	public long getRefusals() {
+		return refusals.sum();
 	}
 	
 	/**
-	 * Updates the removal time to 15 seconds from now
+	 * Removes all stale MAC addresses from the table, one segment at a time.
+	 * Not needed for correctness, since stale entries are never returned;
+	 * it only frees their slots sooner.
 	 */
-	public void updateTimeout() {
-		timeout = System.currentTimeMillis() + 15000;
+	public void cleanUp() {
+		long expired = System.nanoTime() - timeout;
+		for (Segment segment : segments) {
+			long stamp = segment.lock.writeLock();
+			try {
+				segment.sweep(segment.keys.length, expired);
+			} finally {
+				segment.lock.unlockWrite(stamp);
+			}
+		}
 	}
 }
 
@@ -147,6 +668,17 @@ class MACAddressTime {
 public class Switch extends Device
 {	
 	private MacAddressTable MACTable;
+	private SpanningTree spanningTree;
+	private StormControl stormControl;
+	private IgmpSnooping igmpSnooping;
+
+	/** Ports a flooded frame is sent on untagged and tagged; one pair per
+	 *  thread, so flooding allocates neither */
+	private static final ThreadLocal<List<Iface>> UNTAGGED =
+			ThreadLocal.withInitial(ArrayList::new);
+	private static final ThreadLocal<List<Iface>> TAGGED =
+			ThreadLocal.withInitial(ArrayList::new);
+
 	/**
 	 * Creates a router for a specific host.
 	 * @param host hostname for the router
@@ -157,6 +689,121 @@ public class Switch extends Device
 		//System.out.println("MAT Starting");
 		MACTable = new MacAddressTable();
 		//System.out.println("MAT Successfully Started");
+		spanningTree = new SpanningTree(this);
+		stormControl = new StormControl();
+		igmpSnooping = new IgmpSnooping();
+		// Forwarding only needs the Ethernet header; the few features that
+		// look further read the bytes in place
+		setParseDepth(ParserRegistry.LAYER_2);
+		// Frames are forwarded or dropped before handlePacket returns
+		setRecyclePackets(true);
+	}
+	
+	/**
+	 * @return the record of which ports joined each multicast group
+	 */
+	public IgmpSnooping getIgmpSnooping()
+	{ return igmpSnooping; }
+	
+	/**
+	 * @return limits on flooded traffic arriving on each port
+	 */
+	public StormControl getStormControl()
+	{ return stormControl; }
+	
+	/**
+	 * @return the switch's spanning tree, which is stopped until
+	 * startSpanningTree is called
+	 */
+	public SpanningTree getSpanningTree()
+	{ return spanningTree; }
+	
+	/**
+	 * Starts running the spanning tree protocol on the switch's interfaces.
+	 */
+	public void startSpanningTree()
+	{ spanningTree.start(); }
+	
+	/**
+	 * Removes learned MAC addresses after the spanning tree changes.
+	 * @param iface interface whose addresses are removed
+	 * @param others true to remove the addresses learned on every other
+	 * interface instead
+	 */
+	void flushMacTable(Iface iface, boolean others)
+	{ MACTable.flush(iface, others); }
+	
+	/**
+	 * Sets how long a learned MAC address is kept after it was last seen.
+	 * @param millis aging timeout in ms; must be positive
+	 */
+	public void setMacTimeout(long millis)
+	{ MACTable.setTimeout(millis); }
+	
+	/**
+	 * Sets the most MAC addresses the switch remembers.
+	 * @param capacity most addresses; must be positive
+	 */
+	public void setMacCapacity(int capacity)
+	{ MACTable.setCapacity(capacity); }
+	
+	/**
+	 * Sets the most MAC addresses learned on an interface.
+	 * @param iface the interface; null for every interface
+	 * @param limit most addresses; 0 for no limit
+	 */
+	public void setMacPortLimit(Iface iface, int limit)
+	{ MACTable.setPortLimit(iface, limit); }
+	
+	/**
+	 * Load port settings, such as VLAN membership, from a file.
+	 * @param configFile name of the file containing the settings
+	 */
+	public void loadConfig(String configFile)
+	{
+		if (!SwitchConfig.load(configFile, this))
+		{
+			System.err.println("Error setting up switch from file "
+					+ configFile);
+			System.exit(1);
+		}
+		System.out.println("Loaded switch configuration");
+	}
+	
+	/**
+	 * Determines the VLAN of a frame from its tag and the port it arrived on.
+	 * @return VLAN ID; Ethernet.VLAN_UNTAGGED for an untagged frame on a
+	 * port with no VLAN configuration; -2 if the port does not accept the
+	 * frame
+	 */
+	private static short ingressVlan(Ethernet etherPacket, Iface inIface) {
+		short vlan = etherPacket.getVlanID();
+		if(inIface.isAccessPort()) {
+			// Priority-tagged frames (VLAN 0) count as untagged
+			if(vlan == Ethernet.VLAN_UNTAGGED || vlan == 0) {
+				return inIface.getAccessVlan();
+			}
+		} else if(inIface.isTrunkPort()) {
+			if(vlan == Ethernet.VLAN_UNTAGGED || vlan == 0) {
+				vlan = inIface.getNativeVlan();
+			}
+		} else {
+			return vlan;
+		}
+		return (vlan != Ethernet.VLAN_UNTAGGED && inIface.isVlanMember(vlan))
+				? vlan : -2;
+	}
+	
+	/**
+	 * Pushes or pops the 802.1Q tag for a port and sends the frame.
+	 */
+	private void sendPacket(Ethernet etherPacket, short vlan,
+			List<Iface> outIfaces, boolean tagged) {
+		if(outIfaces.isEmpty()) {
+			return;
+		}
+		etherPacket.setVlanID(tagged ? vlan : Ethernet.VLAN_UNTAGGED);
+		sendPacket(etherPacket, outIfaces);
 	}
 
 	/**
@@ -166,8 +813,7 @@ public class Switch extends Device
 	 */
 	public void handlePacket(Ethernet etherPacket, Iface inIface)
 	{
-		System.out.println("*** -> Received packet: " +
-				etherPacket.toString().replace("\n", "\n\t"));
+		this.logPacket("*** -> Received packet: ", etherPacket);
 		
 		/********************************************************************/
 		//System.out.println("Switch Start Packet");
@@ -182,40 +828,98 @@ public class Switch extends Device
 		}
 		
 		if(destination.equals(source)) {
-			System.out.println("*** -> Packet dropped - source and destination mac address are the same: " + 
-				etherPacket.toString().replace("\n", "\n\t"));
+			this.logPacket("*** -> Packet dropped - source and destination mac address are the same: ",
+				etherPacket);
 			// Drop packet with same source and dest
 			return;
 		}
 		
 		
-		// Checks if the source is a known address
-		if(MACTable.exists(source)) {
-			// Updates the removal time
-			MACTable.updateMACTime(source);
-		} else {
-			// Adds the MAC address to the table
-			//System.out.println("New source, adding to MAT");
-			MACTable.addMAC(source, inIface);
+		// Spanning tree BPDUs are handled here and never forwarded
+		if(spanningTree.isEnabled()
+				&& destination.toLong() == SpanningTree.BPDU_MAC) {
+			spanningTree.handleBpdu(etherPacket, inIface);
+			return;
+		}
+		
+		// Drops frames from ports the spanning tree has blocked
+		if(!spanningTree.isLearning(inIface)) {
+			this.logPacket("*** -> Packet dropped - port blocked: ",
+				etherPacket);
+			return;
 		}
 		
-		// Checks if the destination is a known address
-		if(MACTable.exists(destination)){
+		// Finds the VLAN the frame belongs to
+		short vlan = ingressVlan(etherPacket, inIface);
+		if(vlan == -2) {
+			if(this.isVerbose()) {
+				this.logPacket("*** -> Packet dropped - VLAN not allowed on " +
+					inIface.getName() + ": ", etherPacket);
+			}
+			return;
+		}
+		
+		// A port that is only learning may not forward yet
+		if(!spanningTree.isForwarding(inIface)) {
+			MACTable.learn(vlan, source.toLong(), inIface);
+			this.logPacket("*** -> Packet dropped - port learning: ",
+				etherPacket);
+			return;
+		}
+		
+		// Adds the source to the table, or updates its removal time, and
+		// checks if the destination is a known address in the same VLAN
+		Iface outIface = MACTable.learnAndLookup(vlan, source.toLong(),
+				inIface, destination.toLong());
+		if(outIface != null && !spanningTree.isForwarding(outIface)) {
+			this.logPacket("*** -> Packet dropped - port blocked: ",
+				etherPacket);
+		} else if(outIface != null && outIface.equals(inIface)) {
+			// The destination is on the segment the frame came from; sending
+			// it back would hand a flooded copy to the wrong side of a loop
+			this.logPacket("*** -> Packet dropped - destination on ingress port: ",
+				etherPacket);
+		} else if(outIface != null){
 			// Sends it to the stored destination
 			//System.out.println("Destination out interface found. Sending");
-			System.out.println("*** -> Packet sent: " + 
-				etherPacket.toString().replace("\n", "\n\t"));
-			sendPacket(etherPacket, MACTable.getIface(destination));
+			this.logPacket("*** -> Packet sent: ", etherPacket);
+			etherPacket.setVlanID(outIface.isVlanTagged(vlan) ? vlan
+					: Ethernet.VLAN_UNTAGGED);
+			sendPacket(etherPacket, outIface);
+		} else if(!stormControl.allow(inIface, destination.isBroadcast()
+				? StormControl.BROADCAST : destination.isMulticast()
+				? StormControl.MULTICAST : StormControl.UNKNOWN_UNICAST,
+				etherPacket)) {
+			// Too many flooded frames are arriving on this port
+			if(this.isVerbose()) {
+				this.logPacket("*** -> Packet dropped - storm control on " +
+					inIface.getName() + ": ", etherPacket);
+			}
 		} else {
-			// Broadcasts it out to all interfaces except for the source
+			// Broadcasts it out to all interfaces in the VLAN except for the
+			// source, grouped by whether they need the frame tagged; multicast
+			// only goes to ports with group members or multicast routers, and
+			// bundles send on one member rather than their members on each
 			//System.out.println("No destination found. Broadcasting");
-			System.out.println("*** -> Packet broadcasted: " + 
-				etherPacket.toString().replace("\n", "\n\t"));
-			interfaces.forEach((name, outIface) -> {
-				if(!outIface.equals(inIface)) {
-					sendPacket(etherPacket, outIface);
+			Set<Iface> ports = (destination.isMulticast()
+					&& !destination.isBroadcast())
+					? igmpSnooping.getPorts(etherPacket, vlan, inIface) : null;
+			this.logPacket((ports == null ? "*** -> Packet broadcasted: "
+					: "*** -> Packet multicast: "), etherPacket);
+			List<Iface> untagged = UNTAGGED.get();
+			List<Iface> tagged = TAGGED.get();
+			untagged.clear();
+			tagged.clear();
+			for(Iface iface : getInterfaceArray()) {
+				if(!iface.equals(inIface) && iface.getAggregate() == null
+						&& iface.isVlanMember(vlan)
+						&& spanningTree.isForwarding(iface)
+						&& (ports == null || ports.contains(iface))) {
+					(iface.isVlanTagged(vlan) ? tagged : untagged).add(iface);
 				}
-			});
+			}
+			sendPacket(etherPacket, vlan, untagged, false);
+			sendPacket(etherPacket, vlan, tagged, true);
 		}
 		
 		//System.out.println("----Packet Sent----");
@@ -225,6 +929,10 @@ public class Switch extends Device
 	
 	public void destroy() {
 		super.destroy();
-		MACTable.interrupt();
+		spanningTree.destroy();
+		System.out.print(stormControl.toString(interfaces.values()));
+		System.out.println(String.format("MAC table: %d entries, %d evicted,"
+				+ " %d not learned over port limits", MACTable.size(),
+				MACTable.getEvictions(), MACTable.getRefusals()));
 	}
 }
@@ -0,0 +1,460 @@
+package edu.wisc.cs.sdn.vnet.sw;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.BitSet;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+import edu.wisc.cs.sdn.vnet.Iface;
+
+/**
+ * Reads switch port settings from a file. Each line holds one setting;
+ * blank lines and lines starting with # are ignored.
+ * <pre>
+ * vlan eth1 access 10
+ * vlan eth2 trunk 10,20,30-39 [native 1]
+ * stp priority 4096
+ * stp hello|forward-delay|max-age seconds
+ * stp eth1 cost 2000
+ * stp eth1 priority 64
+ * stp eth1 edge
+ * storm eth1 broadcast|multicast|unknown-unicast rate [burst size]
+ * igmp snooping on|off
+ * igmp timeout seconds
+ * igmp eth3 mrouter
+ * igmp eth4 fast-leave
+ * mactable capacity entries
+ * mactable [eth1] limit entries
+ * </pre>
+ * A MAC table limit without an interface applies to every interface, and
+ * is overridden by limits for single interfaces given after it.
+ * Spanning tree port priorities are multiples of 16 from 0 to 240.
+ * Storm control rates are given in pps, kpps, bps, kbps, mbps, or gbps;
+ * bursts are in frames for packet rates and in bytes for bit rates.
+ */
+class SwitchConfig
+{
+	/** Smallest and largest usable VLAN IDs */
+	private static final int MIN_VLAN = 1;
+	private static final int MAX_VLAN = 4094;
+
+	/** Switch the settings are applied to */
+	private Switch sw;
+
+	/** Name of the file being read, and the current line number */
+	private String filename;
+	private int lineNumber;
+
+	private SwitchConfig(Switch sw, String filename)
+	{
+		this.sw = sw;
+		this.filename = filename;
+		this.lineNumber = 0;
+	}
+
+	/**
+	 * Apply the settings in a file to a switch.
+	 * @param filename name of the file containing the settings
+	 * @param sw switch the settings are applied to
+	 * @return true if the settings were loaded successfully, otherwise false
+	 */
+	static boolean load(String filename, Switch sw)
+	{ return new SwitchConfig(sw, filename).load(); }
+
+	private boolean load()
+	{
+		try (BufferedReader reader = new BufferedReader(
+				new FileReader(this.filename)))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				this.lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+				{ continue; }
+				if (!this.parse(line.split("\\s+")))
+				{ return false; }
+			}
+		}
+		catch (FileNotFoundException e)
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+		catch (IOException e)
+		{
+			System.err.println(e.toString());
+			return false;
+		}
+		return true;
+	}
+
+	private boolean parse(String[] fields)
+	{
+		if (fields[0].equals("vlan"))
+		{ return this.parseVlan(fields); }
+		else if (fields[0].equals("stp"))
+		{ return this.parseStp(fields); }
+		else if (fields[0].equals("storm"))
+		{ return this.parseStorm(fields); }
+		else if (fields[0].equals("igmp"))
+		{ return this.parseIgmp(fields); }
+		else if (fields[0].equals("mactable"))
+		{ return this.parseMacTable(fields); }
+		return this.error("unknown setting " + fields[0]);
+	}
+
+	/**
+	 * vlan iface access vlan_id
+	 * vlan iface trunk vlan_list [native vlan_id]
+	 */
+	private boolean parseVlan(String[] fields)
+	{
+		if (fields.length < 4)
+		{ return this.error("expected vlan iface access|trunk vlans"); }
+		Iface iface = this.getInterface(fields[1]);
+		if (null == iface)
+		{ return false; }
+
+		if (fields[2].equals("access") && 4 == fields.length)
+		{
+			short vlan = this.parseVlanId(fields[3]);
+			if (vlan < 0)
+			{ return false; }
+			iface.setAccessVlan(vlan);
+			return true;
+		}
+		else if (fields[2].equals("trunk")
+				&& (4 == fields.length || 6 == fields.length))
+		{
+			BitSet vlans = this.parseVlanList(fields[3]);
+			if (null == vlans)
+			{ return false; }
+			short nativeVlan = Ethernet.VLAN_UNTAGGED;
+			if (6 == fields.length)
+			{
+				if (!fields[4].equals("native"))
+				{ return this.error("expected native vlan_id"); }
+				nativeVlan = this.parseVlanId(fields[5]);
+				if (nativeVlan < 0)
+				{ return false; }
+			}
+			iface.setTrunkVlans(vlans, nativeVlan);
+			return true;
+		}
+		return this.error("expected vlan iface access vlan_id or"
+				+ " vlan iface trunk vlan_list [native vlan_id]");
+	}
+
+	/**
+	 * stp priority bridge_priority
+	 * stp hello|forward-delay|max-age seconds
+	 * stp iface cost path_cost
+	 * stp iface priority port_priority
+	 * stp iface edge
+	 */
+	private boolean parseStp(String[] fields)
+	{
+		SpanningTree stp = this.sw.getSpanningTree();
+		if (3 == fields.length && fields[1].equals("priority"))
+		{
+			int priority = this.parseInt(fields[2], 0, 65535);
+			if (priority < 0)
+			{ return false; }
+			stp.setBridgePriority(priority);
+			return true;
+		}
+		else if (3 == fields.length && (fields[1].equals("hello")
+				|| fields[1].equals("forward-delay")
+				|| fields[1].equals("max-age")))
+		{
+			long millis;
+			try
+			{ millis = Math.round(Double.parseDouble(fields[2]) * 1000); }
+			catch (NumberFormatException e)
+			{ millis = 0; }
+			if (millis <= 0)
+			{ return this.error("invalid time " + fields[2]); }
+			if (fields[1].equals("hello"))
+			{ stp.setHelloTime(millis); }
+			else if (fields[1].equals("forward-delay"))
+			{ stp.setForwardDelay(millis); }
+			else
+			{ stp.setMaxAge(millis); }
+			return true;
+		}
+		else if (fields.length >= 3)
+		{
+			Iface iface = this.getInterface(fields[1]);
+			if (null == iface)
+			{ return false; }
+			if (3 == fields.length && fields[2].equals("edge"))
+			{
+				stp.setEdgePort(iface, true);
+				return true;
+			}
+			else if (4 == fields.length && fields[2].equals("cost"))
+			{
+				int cost = this.parseInt(fields[3], 1, 200000000);
+				if (cost < 0)
+				{ return false; }
+				stp.setPortCost(iface, cost);
+				return true;
+			}
+			else if (4 == fields.length && fields[2].equals("priority"))
+			{
+				int priority = this.parseInt(fields[3], 0, 240);
+				if (priority < 0)
+				{ return false; }
+				// Port IDs only hold the top four bits of the priority
+				if (priority % 16 != 0)
+				{
+					return this.error("port priority " + fields[3]
+							+ " not a multiple of 16");
+				}
+				stp.setPortPriority(iface, priority);
+				return true;
+			}
+		}
+		return this.error("expected stp priority|hello|forward-delay|max-age"
+				+ " value or stp iface cost|priority value or stp iface edge");
+	}
+
+	/**
+	 * storm iface broadcast|multicast|unknown-unicast rate [burst size]
+	 */
+	private boolean parseStorm(String[] fields)
+	{
+		if (fields.length != 4 && fields.length != 6)
+		{
+			return this.error("expected storm iface"
+					+ " broadcast|multicast|unknown-unicast rate [burst size]");
+		}
+		Iface iface = this.getInterface(fields[1]);
+		if (null == iface)
+		{ return false; }
+		int type = StormControl.parseType(fields[2]);
+		if (type < 0)
+		{ return this.error("unknown traffic type " + fields[2]); }
+
+		// Split the rate into a number and a unit
+		String rate = fields[3].toLowerCase();
+		int split = 0;
+		while (split < rate.length() && Character.isDigit(rate.charAt(split)))
+		{ split++; }
+		String unit = rate.substring(split);
+		long multiplier;
+		boolean perBit = unit.endsWith("bps");
+		switch (unit)
+		{
+		case "pps": case "bps": multiplier = 1; break;
+		case "kpps": case "kbps": multiplier = 1000; break;
+		case "mbps": multiplier = 1000000; break;
+		case "gbps": multiplier = 1000000000; break;
+		default: return this.error("invalid rate " + fields[3]);
+		}
+		long value;
+		try
+		{
+			value = Math.multiplyExact(
+					Long.parseLong(rate.substring(0, split)), multiplier);
+		}
+		catch (NumberFormatException | ArithmeticException e)
+		{ return this.error("invalid rate " + fields[3]); }
+		if (value > StormControl.MAX_RATE)
+		{
+			return this.error(String.format("rate %s above the largest,"
+					+ " %d%s", fields[3], StormControl.MAX_RATE,
+					perBit ? "bps" : "pps"));
+		}
+
+		long burst = 0;
+		if (6 == fields.length)
+		{
+			if (!fields[4].equals("burst"))
+			{ return this.error("expected burst size"); }
+			burst = this.parseInt(fields[5], 1, Integer.MAX_VALUE);
+			if (burst < 0)
+			{ return false; }
+			if (perBit)
+			{ burst *= 8; }
+			if (value > 0 && burst > StormControl.maxBurst(value))
+			{
+				return this.error("burst " + fields[5] + " too large for rate "
+						+ fields[3]);
+			}
+		}
+		this.sw.getStormControl().setLimit(iface, type, value, perBit, burst);
+		return true;
+	}
+
+	/**
+	 * igmp snooping on|off
+	 * igmp timeout seconds
+	 * igmp iface mrouter
+	 * igmp iface fast-leave
+	 */
+	private boolean parseIgmp(String[] fields)
+	{
+		IgmpSnooping snooping = this.sw.getIgmpSnooping();
+		if (3 == fields.length && fields[1].equals("snooping")
+				&& (fields[2].equals("on") || fields[2].equals("off")))
+		{
+			snooping.setEnabled(fields[2].equals("on"));
+			return true;
+		}
+		else if (3 == fields.length && fields[1].equals("timeout"))
+		{
+			int seconds = this.parseInt(fields[2], 1, Integer.MAX_VALUE);
+			if (seconds < 0)
+			{ return false; }
+			snooping.setTimeout(seconds * 1000L);
+			return true;
+		}
+		else if (3 == fields.length && fields[2].equals("mrouter"))
+		{
+			Iface iface = this.getInterface(fields[1]);
+			if (null == iface)
+			{ return false; }
+			snooping.addRouterPort(iface);
+			return true;
+		}
+		else if (3 == fields.length && fields[2].equals("fast-leave"))
+		{
+			Iface iface = this.getInterface(fields[1]);
+			if (null == iface)
+			{ return false; }
+			snooping.addFastLeavePort(iface);
+			return true;
+		}
+		return this.error("expected igmp snooping on|off, igmp timeout seconds,"
+				+ " igmp iface mrouter, or igmp iface fast-leave");
+	}
+
+	/**
+	 * mactable capacity entries
+	 * mactable [iface] limit entries
+	 */
+	private boolean parseMacTable(String[] fields)
+	{
+		if (3 == fields.length && fields[1].equals("capacity"))
+		{
+			int capacity = this.parseInt(fields[2], 1, Integer.MAX_VALUE / 2);
+			if (capacity < 0)
+			{ return false; }
+			this.sw.setMacCapacity(capacity);
+			return true;
+		}
+		else if (3 == fields.length && fields[1].equals("limit"))
+		{
+			int limit = this.parseInt(fields[2], 0, Integer.MAX_VALUE);
+			if (limit < 0)
+			{ return false; }
+			this.sw.setMacPortLimit(null, limit);
+			return true;
+		}
+		else if (4 == fields.length && fields[2].equals("limit"))
+		{
+			Iface iface = this.getInterface(fields[1]);
+			if (null == iface)
+			{ return false; }
+			int limit = this.parseInt(fields[3], 0, Integer.MAX_VALUE);
+			if (limit < 0)
+			{ return false; }
+			this.sw.setMacPortLimit(iface, limit);
+			return true;
+		}
+		return this.error("expected mactable capacity entries or"
+				+ " mactable [iface] limit entries");
+	}
+
+	/**
+	 * @return the value; -1 if it is not a number between min and max
+	 */
+	private int parseInt(String value, int min, int max)
+	{
+		int result;
+		try
+		{ result = Integer.parseInt(value); }
+		catch (NumberFormatException e)
+		{ result = -1; }
+		if (result < min || result > max)
+		{
+			this.error("invalid value " + value);
+			return -1;
+		}
+		return result;
+	}
+
+	/**
+	 * Parse a comma-separated list of VLAN IDs and ranges such as 10-19, or
+	 * all for every VLAN.
+	 * @return the VLANs in the list; null if the list is invalid
+	 */
+	private BitSet parseVlanList(String list)
+	{
+		BitSet vlans = new BitSet(MAX_VLAN + 1);
+		if (list.equals("all"))
+		{
+			vlans.set(MIN_VLAN, MAX_VLAN + 1);
+			return vlans;
+		}
+		for (String item : list.split(","))
+		{
+			String[] range = item.split("-", 2);
+			short first = this.parseVlanId(range[0]);
+			short last = (1 == range.length ? first
+					: this.parseVlanId(range[1]));
+			if (first < 0 || last < 0)
+			{ return null; }
+			if (last < first)
+			{
+				this.error("invalid VLAN range " + item);
+				return null;
+			}
+			vlans.set(first, last + 1);
+		}
+		return vlans;
+	}
+
+	/**
+	 * @return the VLAN ID; -1 if it is invalid
+	 */
+	private short parseVlanId(String value)
+	{
+		int vlan;
+		try
+		{ vlan = Integer.parseInt(value); }
+		catch (NumberFormatException e)
+		{ vlan = -1; }
+		if (vlan < MIN_VLAN || vlan > MAX_VLAN)
+		{
+			this.error("invalid VLAN ID " + value);
+			return -1;
+		}
+		return (short)vlan;
+	}
+
+	private Iface getInterface(String ifaceName)
+	{
+		Iface iface = this.sw.getInterface(ifaceName);
+		if (null == iface)
+		{ this.error("no interface " + ifaceName); }
+		return iface;
+	}
+
+	/**
+	 * Report a problem with the current line.
+	 * @return false, so callers can return the result directly
+	 */
+	private boolean error(String message)
+	{
+		System.err.println(String.format("%s:%d: %s", this.filename,
+				this.lineNumber, message));
+		return false;
+	}
+}
@@ -1,28 +1,70 @@
 package edu.wisc.cs.sdn.vnet.vns;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.ParserRegistry;
 
 public class CommandPacket extends Command
 {
+	/** Length of a packet command before the frame, in bytes */
+	protected static final int HEADER_SIZE = 4 + 4 + 16;
+	
+	/** Interface names as written in commands, zero padded; a device only
+	 *  has a few interfaces, so their names are only encoded once */
+	private static final Map<String,byte[]> NAME_FIELDS = 
+			new ConcurrentHashMap<String,byte[]>();
+	
 	protected String mInterfaceName;
 	protected Ethernet etherPacket;
 	
+	/** Interface name as last read, so the same name read again is not
+	 *  decoded into a new string */
+	private byte[] nameBytes;
+	
 	public CommandPacket()
 	{ super(Command.VNS_PACKET); }
 	
 	protected CommandPacket deserialize(ByteBuffer buf)
+	{ return this.deserialize(buf, ParserRegistry.ALL_LAYERS); }
+	
+	/**
+	 * @param maxLayer highest layer of the frame to parse
+	 */
+	protected CommandPacket deserialize(ByteBuffer buf, int maxLayer)
 	{
-		super.deserialize(buf);
-				
-		byte[] tmpBytes = new byte[16];
-		buf.get(tmpBytes);
-		this.mInterfaceName = new String(tmpBytes).trim();
+		this.deserializeHeader(buf);
 		
 		this.etherPacket = new Ethernet();
 		this.etherPacket.deserialize(buf.array(), buf.position(),
-				buf.capacity() - buf.position());
+				buf.limit() - buf.position(), maxLayer);
+		
+		return this;
+	}
+	
+	/**
+	 * Read the command up to the frame, leaving the buffer positioned at the
+	 * start of the frame, which ends at the buffer's limit.
+	 */
+	protected CommandPacket deserializeHeader(ByteBuffer buf)
+	{
+		super.deserialize(buf);
+		
+		// Commands keep arriving on the same few interfaces
+		int start = buf.arrayOffset() + buf.position();
+		if (null == this.mInterfaceName || !Arrays.equals(this.nameBytes, 0, 
+				16, buf.array(), start, start + 16))
+		{
+			this.nameBytes = new byte[16];
+			buf.get(this.nameBytes);
+			this.mInterfaceName = new String(this.nameBytes).trim();
+		}
+		else
+		{ buf.position(buf.position() + 16); }
 		
 		return this;
 	}
@@ -30,24 +72,93 @@ public class CommandPacket extends Command
 	protected int getSize()
 	{ return super.getSize() + 16; }
 	
+	/**
+	 * Serialize one packet command per interface into a single buffer. The
+	 * frame is serialized into the first command and copied into the others;
+	 * only the interface name differs.
+	 * @param etherPacket frame to send
+	 * @param ifaceNames names of the interfaces to send the frame on
+	 * @return the commands, back to back
+	 */
+	protected static byte[] serialize(Ethernet etherPacket, 
+			List<String> ifaceNames)
+	{
+		int size = HEADER_SIZE + etherPacket.getSerializedLength();
+		byte[] data = new byte[size * ifaceNames.size()];
+		serializeInto(ByteBuffer.wrap(data), etherPacket, ifaceNames);
+		return data;
+	}
+	
+	/**
+	 * Serialize a packet command into a heap buffer, at its position, and
+	 * advance the position past it.
+	 * @param etherPacket frame to send
+	 * @param ifaceName name of the interface to send the frame on
+	 * @return length of the command
+	 */
+	protected static int serializeInto(ByteBuffer bb, Ethernet etherPacket,
+			String ifaceName)
+	{
+		int size = HEADER_SIZE + etherPacket.getSerializedLength();
+		bb.putInt(size);
+		bb.putInt(Command.VNS_PACKET);
+		bb.put(nameField(ifaceName));
+		etherPacket.serializeInto(bb);
+		return size;
+	}
+	
+	/**
+	 * Serialize one packet command per interface into a heap buffer, at its
+	 * position, and advance the position past them. The frame is serialized
+	 * into the first command and copied into the others; only the interface
+	 * name differs.
+	 * @param etherPacket frame to send
+	 * @param ifaceNames names of the interfaces to send the frame on
+	 * @return length of each command
+	 */
+	protected static int serializeInto(ByteBuffer bb, Ethernet etherPacket,
+			List<String> ifaceNames)
+	{
+		int start = bb.arrayOffset() + bb.position();
+		int size = serializeInto(bb, etherPacket, ifaceNames.get(0));
+		byte[] data = bb.array();
+		for (int i = 1; i < ifaceNames.size(); i++)
+		{
+			int offset = start + i * size;
+			System.arraycopy(data, start, data, offset, size);
+			System.arraycopy(nameField(ifaceNames.get(i)), 0, data, 
+					offset + 8, 16);
+		}
+		bb.position(bb.position() + (ifaceNames.size() - 1) * size);
+		return size;
+	}
+	
+	/**
+	 * @return interface name as written in a command: at most 16 bytes,
+	 *         padded with zeros
+	 */
+	private static byte[] nameField(String ifaceName)
+	{
+		byte[] field = NAME_FIELDS.get(ifaceName);
+		if (null == field)
+		{
+			field = new byte[16];
+			byte[] name = ifaceName.getBytes();
+			System.arraycopy(name, 0, field, 0, Math.min(name.length, 16));
+			NAME_FIELDS.put(ifaceName, field);
+		}
+		return field;
+	}
+	
 	protected byte[] serialize()
 	{
-		byte[] packet = this.etherPacket.serialize();
-		int size = this.getSize() + packet.length;
+		// The frame is written straight into the command, not copied
+		int size = this.getSize() + this.etherPacket.getSerializedLength();
 		this.mLen = size;
 		
 		byte[] data = new byte[size];
-		ByteBuffer bb = ByteBuffer.wrap(data);
-		
-		byte[] parentData = super.serialize();
-		
-		bb.put(parentData);
-		byte[] tmp = new byte[16];
-		System.arraycopy(this.mInterfaceName.getBytes(), 0, tmp, 0, 
-				this.mInterfaceName.length());
-		bb.put(tmp);
-		bb.put(packet);
-		
+		serializeInto(ByteBuffer.wrap(data), this.etherPacket, 
+				this.mInterfaceName);
 		return data;
 	}
 }
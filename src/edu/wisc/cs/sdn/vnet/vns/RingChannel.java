@@ -0,0 +1,207 @@
+package edu.wisc.cs.sdn.vnet.vns;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Byte stream to and from the VNS server through a pair of
+ * single-producer, single-consumer rings in a memory-mapped file, for a
+ * device running on the same host as the server. Commands are framed the
+ * same as over a socket. The server, or a peer relaying for it, creates the
+ * file; vns_ring_peer.py is such a peer.
+ *
+ * The file is little-endian:
+ *   0   int magic, "VNSR"
+ *   4   int size of each ring's data, a power of two
+ *   64  ring carrying commands to the server
+ *   64 + RING_HEADER_SIZE + size: ring carrying commands to the device
+ * Each ring is:
+ *   0   long total bytes written; only written by the producer
+ *   8   int nonzero once the producer has closed the ring
+ *   64  long total bytes read; only written by the consumer
+ *   128 data
+ *
+ * Readers and writers poll, spinning briefly and then sleeping for up to
+ * MAX_PARK_NS, since a file has no way to signal that data arrived. Closing
+ * the channel from another thread makes a waiting read or write throw
+ * AsynchronousCloseException.
+ */
+public class RingChannel implements ByteChannel
+{
+	public static final int MAGIC = 0x52534e56;
+
+	private static final int FILE_HEADER_SIZE = 64;
+	private static final int RING_HEADER_SIZE = 128;
+	private static final int WRITE_INDEX = 0;
+	private static final int CLOSED = 8;
+	private static final int READ_INDEX = 64;
+
+	/** Times to spin waiting for the other side before sleeping */
+	private static final int SPIN_TRIES = 100;
+
+	/** Longest sleep while waiting for the other side, in ns */
+	private static final long MAX_PARK_NS = 50 * 1000;
+
+	private static final VarHandle LONGS =
+			MethodHandles.byteBufferViewVarHandle(long[].class,
+					ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INTS =
+			MethodHandles.byteBufferViewVarHandle(int[].class,
+					ByteOrder.LITTLE_ENDIAN);
+
+	private MappedByteBuffer buffer;
+
+	/** Size of each ring's data */
+	private int size;
+
+	/** Offsets of the rings to the server and to the device */
+	private int out;
+	private int in;
+
+	/** Bytes written to the ring to the server and read from the ring to
+	 *  the device; only this side changes them */
+	private long written;
+	private long read;
+
+	/** Cleared by close, which may be called by a thread other than the
+	 *  one waiting to read or write */
+	private volatile boolean open;
+
+	/**
+	 * Map the rings in a file created by the server.
+	 * @param path file holding the rings
+	 */
+	public RingChannel(Path path) throws IOException
+	{
+		try (FileChannel file = FileChannel.open(path,
+				StandardOpenOption.READ, StandardOpenOption.WRITE))
+		{
+			this.buffer = file.map(FileChannel.MapMode.READ_WRITE, 0,
+					file.size());
+		}
+		this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (this.buffer.capacity() < FILE_HEADER_SIZE
+				|| this.buffer.getInt(0) != MAGIC)
+		{ throw new IOException("Not a VNS ring file: " + path); }
+		this.size = this.buffer.getInt(4);
+		if (this.size <= 0 || Integer.bitCount(this.size) != 1
+				|| this.buffer.capacity() < FILE_HEADER_SIZE
+					+ 2 * (RING_HEADER_SIZE + this.size))
+		{ throw new IOException("Invalid VNS ring file: " + path); }
+
+		this.out = FILE_HEADER_SIZE;
+		this.in = FILE_HEADER_SIZE + RING_HEADER_SIZE + this.size;
+		this.written = (long)LONGS.getAcquire(this.buffer,
+				this.out + WRITE_INDEX);
+		this.read = (long)LONGS.getAcquire(this.buffer, this.in + READ_INDEX);
+		this.open = true;
+	}
+
+	public int read(ByteBuffer dst) throws IOException
+	{
+		if (!this.open)
+		{ throw new ClosedChannelException(); }
+		if (!dst.hasRemaining())
+		{ return 0; }
+
+		long available;
+		for (int idle = 0;
+				(available = (long)LONGS.getAcquire(this.buffer,
+						this.in + WRITE_INDEX) - this.read) == 0; idle++)
+		{
+			if (0 != (int)INTS.getAcquire(this.buffer, this.in + CLOSED))
+			{
+				// Whatever was written before closing has been read
+				if ((long)LONGS.getAcquire(this.buffer,
+						this.in + WRITE_INDEX) == this.read)
+				{ return -1; }
+				continue;
+			}
+			if (!this.open)
+			{ throw new AsynchronousCloseException(); }
+			waitFor(idle);
+		}
+
+		int count = (int)Math.min(available, dst.remaining());
+		int data = this.in + RING_HEADER_SIZE;
+		int offset = (int)(this.read & (this.size - 1));
+		int first = Math.min(count, this.size - offset);
+		dst.put(dst.position(), this.buffer, data + offset, first);
+		dst.put(dst.position() + first, this.buffer, data, count - first);
+		dst.position(dst.position() + count);
+
+		this.read += count;
+		LONGS.setRelease(this.buffer, this.in + READ_INDEX, this.read);
+		return count;
+	}
+
+	public int write(ByteBuffer src) throws IOException
+	{
+		if (!this.open)
+		{ throw new ClosedChannelException(); }
+		if (!src.hasRemaining())
+		{ return 0; }
+
+		long space;
+		for (int idle = 0;
+				(space = this.size - (this.written - (long)LONGS.getAcquire(
+						this.buffer, this.out + READ_INDEX))) == 0; idle++)
+		{
+			// The server closes its ring when it stops reading from ours
+			if (0 != (int)INTS.getAcquire(this.buffer, this.in + CLOSED))
+			{ throw new IOException("VNS ring closed by server"); }
+			if (!this.open)
+			{ throw new AsynchronousCloseException(); }
+			waitFor(idle);
+		}
+
+		int count = (int)Math.min(space, src.remaining());
+		int data = this.out + RING_HEADER_SIZE;
+		int offset = (int)(this.written & (this.size - 1));
+		int first = Math.min(count, this.size - offset);
+		this.buffer.put(data + offset, src, src.position(), first);
+		this.buffer.put(data, src, src.position() + first, count - first);
+		src.position(src.position() + count);
+
+		this.written += count;
+		LONGS.setRelease(this.buffer, this.out + WRITE_INDEX, this.written);
+		return count;
+	}
+
+	private static void waitFor(int idle)
+	{
+		if (idle < SPIN_TRIES)
+		{ Thread.onSpinWait(); }
+		else
+		{
+			LockSupport.parkNanos(Math.min(MAX_PARK_NS,
+					1000L << Math.min(idle - SPIN_TRIES, 20)));
+		}
+	}
+
+	public boolean isOpen()
+	{ return this.open; }
+
+	/**
+	 * Mark the ring to the server closed, so the server sees the end of the
+	 * stream once it has read everything written before.
+	 */
+	public void close()
+	{
+		if (!this.open)
+		{ return; }
+		this.open = false;
+		INTS.setRelease(this.buffer, this.out + CLOSED, 1);
+	}
+}
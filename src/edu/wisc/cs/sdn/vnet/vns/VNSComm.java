@@ -1,28 +1,87 @@
 package edu.wisc.cs.sdn.vnet.vns;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.List;
 
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.MACAddress;
 
 import edu.wisc.cs.sdn.vnet.Device;
 import edu.wisc.cs.sdn.vnet.Iface;
+import edu.wisc.cs.sdn.vnet.PacketTransport;
 
-public class VNSComm 
+public class VNSComm implements PacketTransport
 {
-	private Socket socket;
+	/** Longest command the server sends, in bytes */
+	private static final int MAX_COMMAND_LENGTH = 10000;
+	
+	/** Size of the buffer commands are read into; a burst of commands is
+	 *  taken in with one read */
+	private static final int RECV_BUFFER_SIZE = 64 * 1024;
+	
+	/** Size of the buffer commands are collected in before they are
+	 *  written to the server */
+	private static final int SEND_BUFFER_SIZE = 64 * 1024;
+	
+	/** Longest time, in ns, a command sent while handling received commands
+	 *  waits to be written with the commands sent after it */
+	private static final long SEND_DELAY_NS = 50 * 1000;
+	
+	/** Connection to the server; blocking */
+	private ByteChannel channel;
 	private Device device;
 	
+	/** Buffer commands are read into, reused from read to read; bytes from
+	 *  recvStart up to its position have been read but not handled */
+	private ByteBuffer recvBuffer;
+	private int recvStart;
+	
+	/** View of the receive buffer limited to the command being handled */
+	private ByteBuffer recvView;
+	
+	/** True if frames parsed from the receive buffer may still be referred
+	 *  to, since the device does not recycle packets; the bytes already read
+	 *  into the buffer are then never overwritten */
+	private boolean recvBufferShared;
+	
+	/** Packet command parsed from each command the server sends */
+	private CommandPacket recvCommand;
+	
+	/** Commands waiting to be written to the server, from the start of the
+	 *  buffer up to its position */
+	private ByteBuffer sendBuffer;
+	
+	/** When the first command waiting in the send buffer was sent */
+	private long sendBufferedAt;
+	
+	/** Thread handling received commands, while it does; commands it sends
+	 *  are written together once it is done, rather than one at a time */
+	private Thread batchThread;
+	
+	/** True once writing to the server has failed */
+	private boolean sendFailed;
+	
 	public VNSComm(Device device)
 	{ 
 		this.device = device;
 		this.device.setVNSComm(this);
+		this.recvBuffer = ByteBuffer.allocate(RECV_BUFFER_SIZE);
+		this.recvView = ByteBuffer.wrap(this.recvBuffer.array());
+		this.recvStart = 0;
+		this.recvBufferShared = false;
+		this.recvCommand = new CommandPacket();
+		this.sendBuffer = ByteBuffer.allocate(SEND_BUFFER_SIZE);
+		this.batchThread = null;
+		this.sendFailed = false;
 	}
 	
 	public boolean connectToServer(short port, String server)
@@ -39,24 +98,69 @@ public class VNSComm
 		
 		// Create socket and attempt to connect to the server
 		try 
-		{ socket = new Socket(addr, port); }
+		{ this.channel = SocketChannel.open(new InetSocketAddress(addr, port)); }
 		catch (IOException e) 
 		{
 			e.printStackTrace();
 			return false;
 		}
 		
-		// Send VNS_OPEN message to server
+		return this.open();
+	}
+	
+	/**
+	 * Connect to a server running on the same host through a Unix domain
+	 * socket, which skips the TCP/IP stack.
+	 * @param path path of the server's socket
+	 */
+	public boolean connectToUnixServer(String path)
+	{
+		try 
+		{
+			SocketChannel channel = SocketChannel.open(
+					StandardProtocolFamily.UNIX);
+			channel.connect(UnixDomainSocketAddress.of(path));
+			this.channel = channel;
+		}
+		catch (IOException | RuntimeException e) 
+		{
+			e.printStackTrace();
+			return false;
+		}
+		
+		return this.open();
+	}
+	
+	/**
+	 * Connect to a server running on the same host through rings in a
+	 * shared memory-mapped file, which skips the kernel while exchanging
+	 * commands; see {@link RingChannel}.
+	 * @param path file holding the rings, created by the server
+	 */
+	public boolean connectToRing(String path)
+	{
+		try 
+		{ this.channel = new RingChannel(Paths.get(path)); }
+		catch (IOException | RuntimeException e) 
+		{
+			e.printStackTrace();
+			return false;
+		}
+		
+		return this.open();
+	}
+	
+	/**
+	 * Send VNS_OPEN message to server, over the channel just connected.
+	 */
+	private boolean open()
+	{
 		CommandOpen cmdOpen = new CommandOpen();
 		cmdOpen.mVirtualHostId = this.device.getHost();
 		byte[] buf = cmdOpen.serialize();
 		
 		try
-		{
-			OutputStream outStream = socket.getOutputStream();
-			outStream.write(buf);
-			outStream.flush();
-		}
+		{ this.write(buf); }
 		catch(IOException e)
 		{
 			e.printStackTrace();
@@ -66,6 +170,21 @@ public class VNSComm
 		return true; 
 	}
 	
+	/**
+	 * Write all of a buffer to the server.
+	 */
+	private void write(byte[] buf) throws IOException
+	{
+		ByteBuffer bb = ByteBuffer.wrap(buf);
+		while (bb.hasRemaining())
+		{ this.channel.write(bb); }
+	}
+	
+	private void close()
+	{
+		try { this.channel.close(); } catch (IOException e) { }
+	}
+	
 	private boolean handleHwInfo(CommandHwInfo cmdHwInfo)
 	{
 		Iface lastIface = null;
@@ -106,120 +225,172 @@ public class VNSComm
 	public boolean readFromServer()
 	{ return this.readFromServerExpect(0); }
 	
+	/**
+	 * Read commands from the server, waiting for at least one, and handle
+	 * every complete command that has arrived; one read takes in as many
+	 * commands as the receive buffer holds.
+	 * @param expectedCmd command that must come next; 0 for any. If not 0,
+	 *        only that command is handled, and any after it are left for the
+	 *        next call.
+	 * @return false if the connection failed or an unexpected command came
+	 */
 	public boolean readFromServerExpect(int expectedCmd)
 	{
-		int bytesRead = 0;
-		InputStream inStream = null;
-		
-		// Get input stream
-		try 
-		{ inStream = this.socket.getInputStream(); } 
-		catch (IOException e) 
+		// Read until a complete command has arrived
+		int len;
+		while ((len = this.nextCommandLength()) <= 0)
 		{
-			e.printStackTrace();
-			return false;
+			if (len < 0 || !this.fill())
+			{
+				this.close();
+				return false;
+			}
 		}
 		
-		// Attempt to read the size of the incoming packet
-		byte[] lenBytes = new byte[4];
-		while (bytesRead < 4)
+		ByteBuffer buf = this.recvView;
+		this.batchThread = Thread.currentThread();
+		try
+		{
+			return this.handleCommands(buf, len, expectedCmd);
+		}
+		finally
 		{
-			try 
+			this.batchThread = null;
+			this.flush();
+		}
+	}
+	
+	/**
+	 * Handle the complete commands in the receive buffer.
+	 * @param len length of the first command
+	 */
+	private boolean handleCommands(ByteBuffer buf, int len, int expectedCmd)
+	{
+		do
+		{
+			buf.limit(this.recvStart + len);
+			buf.position(this.recvStart);
+			this.recvStart += len;
+			
+			// Make sure the command is what we expected if we were expecting something
+			int command = buf.getInt(buf.position() + 4);
+			if (expectedCmd != 0 && command != expectedCmd)
 			{
-				int ret = inStream.read(lenBytes, bytesRead, 4 - bytesRead);
-				if (ret < 0)
-				{ throw new Exception(); }
-				bytesRead += ret;
-			} 
-			catch (Exception e) 
+				if (command != Command.VNS_CLOSE) // VNS_CLOSE is always ok
+				{
+					System.err.println(String.format(
+							"Error: expected command %d but got %d", expectedCmd,
+							command));
+					return false;
+				}
+			}
+			
+			switch(command)
 			{
-				e.printStackTrace();
-				return false;
+			case Command.VNS_PACKET:
+				CommandPacket cmdPkt = this.recvCommand;
+				cmdPkt.deserializeHeader(buf);
+				int frameOffset = buf.position();
+				int frameLength = buf.limit() - frameOffset;
+				
+				// Log packet
+				if (this.device.getLogFile() != null)
+				{ 
+					this.device.getLogFile().dump(buf.array(), frameOffset, 
+							frameLength); 
+				}
+				
+				// Pass to device, student's code should take over here
+				if (!this.device.getRecyclePackets())
+				{ this.recvBufferShared = true; }
+				this.device.receiveFrame(buf.array(), frameOffset, 
+						frameLength, 
+						this.device.getInterface(cmdPkt.mInterfaceName));
+				this.flushIfDue();
+				break;
+				
+			case Command.VNS_CLOSE:
+				System.err.println("VNS server closed session.");
+				CommandClose cmdClose = new CommandClose();
+				cmdClose.deserialize(buf);
+				System.err.println("Reason: " + new String(cmdClose.mErrorMessage));
+				return true;
+				
+			case Command.VNS_HW_INFO:
+				CommandHwInfo cmdHwInfo = new CommandHwInfo();
+				cmdHwInfo.deserialize(buf);
+				this.handleHwInfo(cmdHwInfo);
+				break;
+			
+			default:
+				System.err.println(String.format("unknown command: %d", command));
+				break;
 			}
 		}
-		
-		int len = ByteBuffer.wrap(lenBytes).getInt();
-		
-		if (len > 10000 || len < 0)
+		while (0 == expectedCmd && (len = this.nextCommandLength()) > 0);
+
+		return true;
+	}
+	
+	/**
+	 * @return length of the next command if all of it has been read; 0 if
+	 *         more must be read; -1 if the length is invalid
+	 */
+	private int nextCommandLength()
+	{
+		if (this.recvBuffer.position() - this.recvStart < 4)
+		{ return 0; }
+		int len = this.recvBuffer.getInt(this.recvStart);
+		if (len > MAX_COMMAND_LENGTH || len < 8)
 		{
 			System.err.println(String.format(
-					"Error: comamnd length too large %d", len));
-			try { socket.close(); } catch (IOException e) { }
-			return false;
+					"Error: invalid command length %d", len));
+			return -1;
 		}
-		
-		// Allocate buffer
-		ByteBuffer buf = ByteBuffer.allocate(len);
-		
-		// Set first field of command since we've already read it
-		buf.putInt(len);
-		
-		// Read the rest of the command
-		while (bytesRead < len)
+		return (this.recvBuffer.position() - this.recvStart >= len) ? len : 0;
+	}
+	
+	/**
+	 * Read more from the server, blocking until something arrives. Bytes not
+	 * yet handled are moved to the start of the buffer first if a whole
+	 * command might not fit after them, or into a new buffer if frames may
+	 * still refer to the current one.
+	 * @return false if the connection failed or was closed
+	 */
+	private boolean fill()
+	{
+		ByteBuffer buf = this.recvBuffer;
+		int pending = buf.position() - this.recvStart;
+		if (this.recvStart + MAX_COMMAND_LENGTH > buf.capacity()
+				|| (0 == pending && !this.recvBufferShared))
 		{
-			try 
+			if (this.recvBufferShared)
 			{
-				int ret = inStream.read(buf.array(), bytesRead, len - bytesRead);
-				if (ret < 0)
-				{ throw new Exception(); }
-				bytesRead += ret;
-			} 
-			catch (Exception e) 
-			{
-				e.printStackTrace();
-				System.err.println("Error: failed reading command body");
-				try { socket.close(); } catch (IOException e2) { }
-				return false;
+				this.recvBuffer = ByteBuffer.allocate(RECV_BUFFER_SIZE);
+				this.recvView = ByteBuffer.wrap(this.recvBuffer.array());
+				this.recvBufferShared = false;
 			}
+			System.arraycopy(buf.array(), this.recvStart, 
+					this.recvBuffer.array(), 0, pending);
+			this.recvBuffer.position(pending);
+			this.recvStart = 0;
+			buf = this.recvBuffer;
 		}
 		
-		// Make sure the command is what we expected if we were expecting something
-		int command = buf.getInt();
-		if (expectedCmd != 0 && command != expectedCmd)
+		try
 		{
-			if (command != Command.VNS_CLOSE) // VNS_CLOSE is always ok
+			if (this.channel.read(buf) < 0)
 			{
-				System.err.println(String.format(
-						"Error: expected command %d but got %d", expectedCmd,
-						command));
+				System.err.println("Error: connection to server closed");
 				return false;
 			}
 		}
-		
-		buf.position(0);
-		switch(command)
+		catch (IOException e)
 		{
-		case Command.VNS_PACKET:
-			CommandPacket cmdPkt = new CommandPacket();
-			cmdPkt.deserialize(buf);
-			
-			// Log packet
-			if (this.device.getLogFile() != null)
-			{ this.device.getLogFile().dump(cmdPkt.etherPacket); }
-			
-			// Pass to device, student's code should take over here
-			this.device.handlePacket(cmdPkt.etherPacket, 
-					this.device.getInterface(cmdPkt.mInterfaceName));
-			break;
-			
-		case Command.VNS_CLOSE:
-			System.err.println("VNS server closed session.");
-			CommandClose cmdClose = new CommandClose();
-			cmdClose.deserialize(buf);
-			System.err.println("Reason: " + new String(cmdClose.mErrorMessage));
-			return true;
-			
-		case Command.VNS_HW_INFO:
-			CommandHwInfo cmdHwInfo = new CommandHwInfo();
-			cmdHwInfo.deserialize(buf);
-			this.handleHwInfo(cmdHwInfo);
-			break;
-		
-		default:
-			System.err.println(String.format("unknown command: %d", command));
-			break;
+			e.printStackTrace();
+			System.err.println("Error: failed reading command");
+			return false;
 		}
-
 		return true;
 	}
 	
@@ -241,14 +412,44 @@ public class VNSComm
 		return true;
 	}
 	
-	// sr_send_packet
-	public boolean sendPacket(Ethernet etherPacket, String ifaceName)
+	// sr_send_packet; synchronized since switches also send from their
+	// spanning tree timer thread
+	public synchronized boolean sendPacket(Ethernet etherPacket, String ifaceName)
+	{ return this.send(etherPacket, ifaceName, null); }
+	
+	public synchronized boolean sendPacket(Ethernet etherPacket,
+			List<String> ifaceNames)
+	{ return this.send(etherPacket, null, ifaceNames); }
+	
+	/**
+	 * Add packet commands to the send buffer. Commands sent while handling
+	 * received commands are written once those are handled, once the buffer
+	 * is full, or once they have waited SEND_DELAY_NS; other commands are
+	 * written right away, along with any waiting before them.
+	 * @param ifaceName interface to send the frame on, if ifaceNames is null
+	 * @param ifaceNames interfaces to send the frame on; the frame is
+	 *        serialized once, since each command only differs in the
+	 *        interface name
+	 * @return false if writing to the server failed
+	 */
+	private boolean send(Ethernet etherPacket, String ifaceName,
+			List<String> ifaceNames)
 	{
-		CommandPacket cmdPacket = new CommandPacket();
-		cmdPacket.mInterfaceName = ifaceName;
-		cmdPacket.etherPacket = etherPacket;
+		int count = (null == ifaceNames) ? 1 : ifaceNames.size();
+		int size = CommandPacket.HEADER_SIZE 
+				+ etherPacket.getSerializedLength();
+		if (size * count > this.sendBuffer.remaining() && !this.flush())
+		{ return false; }
 		
-		byte[] buf = cmdPacket.serialize();
+		// Commands too long for the buffer are written on their own
+		ByteBuffer bb = this.sendBuffer;
+		if (size * count > bb.remaining())
+		{ bb = ByteBuffer.allocate(size * count); }
+		int start = bb.position();
+		if (null == ifaceNames)
+		{ CommandPacket.serializeInto(bb, etherPacket, ifaceName); }
+		else
+		{ CommandPacket.serializeInto(bb, etherPacket, ifaceNames); }
 		
 		/*if (!etherAddrsMatchInterface(etherPacket, ifaceName))
 		{
@@ -256,21 +457,72 @@ public class VNSComm
 			return false;
 		}*/
 		
-		// Log packet
+		// Log packet once per interface, from the copies of the frame in
+		// the commands, as separate sends would
 		if (this.device.getLogFile() != null)
-		{ this.device.getLogFile().dump(etherPacket); }
+		{
+			for (int i = 0; i < count; i++)
+			{
+				this.device.getLogFile().dump(bb.array(), 
+						start + i * size + CommandPacket.HEADER_SIZE, 
+						size - CommandPacket.HEADER_SIZE);
+			}
+		}
 		
+		if (bb != this.sendBuffer)
+		{
+			try
+			{ this.write(bb.array()); }
+			catch(IOException e)
+			{
+				System.err.println("Error writing packet");
+				this.sendFailed = true;
+			}
+			return !this.sendFailed;
+		}
+		if (0 == start)
+		{ this.sendBufferedAt = System.nanoTime(); }
+		if (Thread.currentThread() != this.batchThread)
+		{ return this.flush(); }
+		return !this.sendFailed;
+	}
+	
+	/**
+	 * Write the commands in the send buffer if the first of them has waited
+	 * long enough.
+	 */
+	private synchronized void flushIfDue()
+	{
+		if (this.sendBuffer.position() > 0 
+				&& System.nanoTime() - this.sendBufferedAt >= SEND_DELAY_NS)
+		{ this.flush(); }
+	}
+	
+	/**
+	 * Write the commands in the send buffer to the server, with one write if
+	 * the server keeps up.
+	 * @return false if writing to the server failed, now or before
+	 */
+	private synchronized boolean flush()
+	{
+		ByteBuffer bb = this.sendBuffer;
+		if (0 == bb.position() || this.sendFailed)
+		{
+			bb.clear();
+			return !this.sendFailed;
+		}
+		bb.flip();
 		try
 		{
-			OutputStream outStream = socket.getOutputStream();
-			outStream.write(buf);
-			outStream.flush();
+			while (bb.hasRemaining())
+			{ this.channel.write(bb); }
 		}
 		catch(IOException e)
 		{
 			System.err.println("Error writing packet");
-			return false;
+			this.sendFailed = true;
 		}
-		return true;
+		bb.clear();
+		return !this.sendFailed;
 	}
 }
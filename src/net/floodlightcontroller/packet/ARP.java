@@ -56,6 +56,7 @@ public class ARP extends BasePacket {
      */
     public ARP setHardwareType(short hardwareType) {
         this.hardwareType = hardwareType;
+        markModified();
         return this;
     }
 
@@ -71,6 +72,7 @@ public class ARP extends BasePacket {
      */
     public ARP setProtocolType(short protocolType) {
         this.protocolType = protocolType;
+        markModified();
         return this;
     }
 
@@ -86,6 +88,7 @@ public class ARP extends BasePacket {
      */
     public ARP setHardwareAddressLength(byte hardwareAddressLength) {
         this.hardwareAddressLength = hardwareAddressLength;
+        markModified();
         return this;
     }
 
@@ -101,6 +104,7 @@ public class ARP extends BasePacket {
      */
     public ARP setProtocolAddressLength(byte protocolAddressLength) {
         this.protocolAddressLength = protocolAddressLength;
+        markModified();
         return this;
     }
 
@@ -116,6 +120,7 @@ public class ARP extends BasePacket {
      */
     public ARP setOpCode(short opCode) {
         this.opCode = opCode;
+        markModified();
         return this;
     }
 
@@ -131,6 +136,7 @@ public class ARP extends BasePacket {
      */
     public ARP setSenderHardwareAddress(byte[] senderHardwareAddress) {
         this.senderHardwareAddress = senderHardwareAddress;
+        markModified();
         return this;
     }
 
@@ -146,11 +152,13 @@ public class ARP extends BasePacket {
      */
     public ARP setSenderProtocolAddress(byte[] senderProtocolAddress) {
         this.senderProtocolAddress = senderProtocolAddress;
+        markModified();
         return this;
     }
     
     public ARP setSenderProtocolAddress(int address) {
         this.senderProtocolAddress = ByteBuffer.allocate(4).putInt(address).array();
+        markModified();
         return this;
     }
 
@@ -166,6 +174,7 @@ public class ARP extends BasePacket {
      */
     public ARP setTargetHardwareAddress(byte[] targetHardwareAddress) {
         this.targetHardwareAddress = targetHardwareAddress;
+        markModified();
         return this;
     }
 
@@ -198,20 +207,28 @@ public class ARP extends BasePacket {
      */
     public ARP setTargetProtocolAddress(byte[] targetProtocolAddress) {
         this.targetProtocolAddress = targetProtocolAddress;
+        markModified();
         return this;
     }
     
     public ARP setTargetProtocolAddress(int address) {
         this.targetProtocolAddress = ByteBuffer.allocate(4).putInt(address).array();
+        markModified();
         return this;
     }
 
     @Override
-    public byte[] serialize() {
-        int length = 8 + (2 * (0xff & this.hardwareAddressLength))
+    public int getSerializedLength() {
+        if (!isModified())
+            return this.wireLength;
+        return 8 + (2 * (0xff & this.hardwareAddressLength))
                 + (2 * (0xff & this.protocolAddressLength));
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+    }
+
+    @Override
+    public void serializeInto(ByteBuffer bb) {
+        if (putWireBytes(bb))
+            return;
         bb.putShort(this.hardwareType);
         bb.putShort(this.protocolType);
         bb.put(this.hardwareAddressLength);
@@ -221,7 +238,6 @@ public class ARP extends BasePacket {
         bb.put(this.senderProtocolAddress, 0, 0xff & this.protocolAddressLength);
         bb.put(this.targetHardwareAddress, 0, 0xff & this.hardwareAddressLength);
         bb.put(this.targetProtocolAddress, 0, 0xff & this.protocolAddressLength);
-        return data;
     }
 
     @Override
@@ -240,9 +256,39 @@ public class ARP extends BasePacket {
         bb.get(this.targetHardwareAddress, 0, this.targetHardwareAddress.length);
         this.targetProtocolAddress = new byte[0xff & this.protocolAddressLength];
         bb.get(this.targetProtocolAddress, 0, this.targetProtocolAddress.length);
+        setWireBytes(data, offset, length);
         return this;
     }
 
+    @Override
+    public Object clone() {
+        ARP copy = (ARP) super.clone();
+        if (this.senderHardwareAddress != null)
+            copy.senderHardwareAddress = this.senderHardwareAddress.clone();
+        if (this.senderProtocolAddress != null)
+            copy.senderProtocolAddress = this.senderProtocolAddress.clone();
+        if (this.targetHardwareAddress != null)
+            copy.targetHardwareAddress = this.targetHardwareAddress.clone();
+        if (this.targetProtocolAddress != null)
+            copy.targetProtocolAddress = this.targetProtocolAddress.clone();
+        return copy;
+    }
+
+    @Override
+    protected boolean reset() {
+        super.reset();
+        this.hardwareType = 0;
+        this.protocolType = 0;
+        this.hardwareAddressLength = 0;
+        this.protocolAddressLength = 0;
+        this.opCode = 0;
+        this.senderHardwareAddress = null;
+        this.senderProtocolAddress = null;
+        this.targetHardwareAddress = null;
+        this.targetProtocolAddress = null;
+        return true;
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#hashCode()
      */
@@ -17,15 +17,27 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
+
 
 /**
 *
 * @author David Erickson (daviderickson@cs.stanford.edu)
 */
-public abstract class BasePacket implements IPacket {
+public abstract class BasePacket implements IPacket, Cloneable {
     protected IPacket parent;
     protected IPacket payload;
 
+    /** Bytes the packet was deserialized from, which are copied rather than
+     *  rebuilt to serialize it; null if the packet was built rather than
+     *  deserialized, or has been modified since */
+    protected byte[] wireData;
+    protected int wireOffset;
+    protected int wireLength;
+
+    /** True while the packet is free in a {@link PacketPool} */
+    boolean pooled;
+
     /**
      * @return the parent
      */
@@ -57,9 +69,82 @@ public abstract class BasePacket implements IPacket {
     @Override
     public IPacket setPayload(IPacket payload) {
         this.payload = payload;
+        markModified();
         return this;
     }
+
+    /**
+     * Remember the bytes this packet was deserialized from, so it can be
+     * serialized by copying them until it is modified. The bytes are not
+     * copied, so they must not change while the packet is in use.
+     */
+    protected void setWireBytes(byte[] data, int offset, int length) {
+        this.wireData = data;
+        this.wireOffset = offset;
+        this.wireLength = length;
+    }
+
+    /**
+     * Forget the bytes this packet was deserialized from, since its fields
+     * no longer match them; called by every setter of a serialized field
+     */
+    protected void markModified() {
+        this.wireData = null;
+    }
+
+    /**
+     * Changes made through arrays returned by getters are not tracked.
+     * @return true if this packet or any payload was built or modified
+     *         rather than deserialized, so it must be serialized field by
+     *         field; parents of a modified packet rewrite their headers, since
+     *         lengths and checksums may change
+     */
+    public boolean isModified() {
+        if (this.wireData == null)
+            return true;
+        if (this.payload == null)
+            return false;
+        return !(this.payload instanceof BasePacket)
+                || ((BasePacket) this.payload).isModified();
+    }
+
+    /**
+     * Serialize an unmodified packet by copying the bytes it was
+     * deserialized from.
+     * @return true if the bytes were copied; false if the packet must be
+     *         serialized field by field
+     */
+    protected boolean putWireBytes(ByteBuffer bb) {
+        if (isModified())
+            return false;
+        bb.put(this.wireData, this.wireOffset, this.wireLength);
+        return true;
+    }
     
+    /**
+     * Return this packet to the state of a newly constructed one, so a
+     * {@link PacketPool} can reuse it. Subclasses reset their own fields as
+     * well and return true; packets of classes that do not are not reused.
+     * @return true if the packet was reset and may be reused
+     */
+    protected boolean reset() {
+        this.parent = null;
+        this.payload = null;
+        this.wireData = null;
+        return false;
+    }
+
+    /**
+     * Serializes this packet and all payloads into a new array of exactly
+     * the serialized length, in a single pass
+     */
+    @Override
+    public byte[] serialize() {
+        byte[] data = new byte[getSerializedLength()];
+        serializeInto(ByteBuffer.wrap(data));
+        return data;
+    }
+
     @Override
     public void resetChecksum() {
         if (this.parent != null)
@@ -97,20 +182,27 @@ public abstract class BasePacket implements IPacket {
         return true;
     }
     
+    /**
+     * Copies this packet field by field and clones its payload, without
+     * serializing either. The bytes the packet was deserialized from are
+     * shared rather than copied: they are never changed in place, and a copy
+     * that is modified stops using them. Data payloads share their bytes too,
+     * until either copy hands them out to be changed, which copies them
+     * first. Sharing makes copies cheap. Subclasses copy any other arrays
+     * and lists they hold.
+     */
     @Override
     public Object clone() {
-        IPacket pkt;
+        BasePacket pkt;
         try {
-            pkt = this.getClass().newInstance();
-        } catch (Exception e) {
+            pkt = (BasePacket) super.clone();
+        } catch (CloneNotSupportedException e) {
             throw new RuntimeException("Could not clone packet");
         }
-        // TODO: we are using serialize()/deserialize() to perform the 
-        // cloning. Not the most efficient way but simple. We can revisit
-        // if we hit performance problems.
-        byte[] data = this.serialize();
-        pkt.deserialize(this.serialize(), 0, data.length);
-        pkt.setParent(this.parent);
+        if (this.payload != null) {
+            pkt.payload = (IPacket) this.payload.clone();
+            pkt.payload.setParent(pkt);
+        }
         return pkt;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,151 @@
+package net.floodlightcontroller.packet;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The Internet checksum of RFC 1071: the ones' complement of the ones'
+ * complement sum of 16-bit words.
+ *
+ * Sums are kept unfolded in a long, so partial sums, such as those of a
+ * pseudo-header and a segment, are combined by adding them, and carries are
+ * folded only once, when the checksum is taken. Data is summed 8 bytes at a
+ * time as two 32-bit words; since 2^16 is 1 modulo 0xffff, that folds to the
+ * same sum as adding 16-bit words.
+ */
+public class Checksum {
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(
+            long[].class, ByteOrder.BIG_ENDIAN);
+
+    private Checksum() {
+    }
+
+    /**
+     * Adds bytes to a sum, as big-endian 16-bit words; an odd last byte is
+     * padded with a zero byte.
+     * @param sum sum so far; 0 to start a new one
+     * @return the new sum, unfolded
+     */
+    public static long add(long sum, byte[] data, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        for (; i + 16 <= end; i += 16) {
+            long first = (long) LONGS.get(data, i);
+            long second = (long) LONGS.get(data, i + 8);
+            sum += (first >>> 32) + (first & 0xffffffffL)
+                    + (second >>> 32) + (second & 0xffffffffL);
+        }
+        if (i + 8 <= end) {
+            long word = (long) LONGS.get(data, i);
+            sum += (word >>> 32) + (word & 0xffffffffL);
+            i += 8;
+        }
+        for (; i + 2 <= end; i += 2)
+            sum += ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff);
+        if (i < end)
+            sum += (data[i] & 0xff) << 8;
+        return sum;
+    }
+
+    /**
+     * Adds bytes of a buffer to a sum, without changing its position.
+     * @param index absolute index of the first byte
+     * @see #add(long, byte[], int, int)
+     */
+    public static long add(long sum, ByteBuffer bb, int index, int length) {
+        if (bb.hasArray())
+            return add(sum, bb.array(), bb.arrayOffset() + index, length);
+        boolean swap = (bb.order() != ByteOrder.BIG_ENDIAN);
+        int i = index;
+        int end = index + length;
+        for (; i + 8 <= end; i += 8) {
+            long word = bb.getLong(i);
+            if (swap)
+                word = Long.reverseBytes(word);
+            sum += (word >>> 32) + (word & 0xffffffffL);
+        }
+        for (; i + 2 <= end; i += 2)
+            sum += ((bb.get(i) & 0xff) << 8) | (bb.get(i + 1) & 0xff);
+        if (i < end)
+            sum += (bb.get(i) & 0xff) << 8;
+        return sum;
+    }
+
+    /**
+     * Adds a 32-bit value, such as an IPv4 address, as two 16-bit words.
+     */
+    public static long addInt(long sum, int value) {
+        return sum + (value >>> 16) + (value & 0xffff);
+    }
+
+    /**
+     * Adds a 16-bit word; higher bits are ignored.
+     */
+    public static long addShort(long sum, int value) {
+        return sum + (value & 0xffff);
+    }
+
+    /**
+     * Adds the IPv4 pseudo-header that TCP and UDP checksums cover.
+     * @param length length of the TCP or UDP header and payload
+     */
+    public static long addPseudoHeader(long sum, int sourceAddress,
+            int destinationAddress, byte protocol, int length) {
+        sum = addInt(sum, sourceAddress);
+        sum = addInt(sum, destinationAddress);
+        return sum + (protocol & 0xff) + (length & 0xffff);
+    }
+
+    /**
+     * Adds a sum of bytes that were summed separately from the ones before
+     * them.
+     * @param partial sum of the later bytes
+     * @param offset offset of the later bytes from the start of the data
+     *        being checksummed; if it is odd, their words straddle the words
+     *        of the data, so the partial sum is byte-swapped
+     */
+    public static long combine(long sum, long partial, int offset) {
+        if ((offset & 1) == 0)
+            return sum + partial;
+        int folded = fold(partial);
+        return sum + (((folded & 0xff) << 8) | (folded >>> 8));
+    }
+
+    /**
+     * Folds the carries of a sum into its low 16 bits.
+     * @return the ones' complement sum
+     */
+    public static int fold(long sum) {
+        while ((sum >>> 16) != 0)
+            sum = (sum & 0xffff) + (sum >>> 16);
+        return (int) sum;
+    }
+
+    /**
+     * @return the checksum of a sum: its folded ones' complement
+     */
+    public static short finish(long sum) {
+        return (short) ~fold(sum);
+    }
+
+    /**
+     * @return true if data that includes its checksum sums to the ones'
+     *         complement of zero, as correct data does
+     */
+    public static boolean isValid(long sum) {
+        return fold(sum) == 0xffff;
+    }
+
+    /**
+     * Updates a checksum after one 16-bit word of the data it covers
+     * changed, without summing the data again (RFC 1624, equation 3).
+     * @return the new checksum
+     */
+    public static short update(short checksum, int oldWord, int newWord) {
+        long sum = (~checksum & 0xffff) + (~oldWord & 0xffff)
+                + (newWord & 0xffff);
+        return finish(sum);
+    }
+}
@@ -17,6 +17,7 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -24,7 +25,16 @@ import java.util.Arrays;
  * @author David Erickson (daviderickson@cs.stanford.edu)
  */
 public class Data extends BasePacket {
+    /** Array holding the data, which may hold other bytes around it, such as
+     *  the headers of the frame it was deserialized from; it is not changed
+     *  in place */
     protected byte[] data;
+    protected int offset;
+    protected int length;
+
+    /** True if another packet, such as a clone, may hold the same array,
+     *  so it is copied before being handed out to be changed */
+    private boolean shared;
 
     /**
      * 
@@ -36,34 +46,134 @@ public class Data extends BasePacket {
      * @param data
      */
     public Data(byte[] data) {
-        this.data = data;
+        setSlice(data, 0, (data == null) ? 0 : data.length);
+    }
+
+    /**
+     * @param data array holding the data; not copied
+     * @param offset index of the first byte of the data
+     * @param length number of bytes of data
+     */
+    public Data(byte[] data, int offset, int length) {
+        setSlice(data, offset, length);
     }
 
     /**
+     * Copies the data into an array of its own the first time it is called
+     * if the data is part of a larger array, such as the frame it was
+     * deserialized from; use {@link #getArray()} to read it without copying.
+     * The data may be changed through the returned array, so the packet no
+     * longer serializes by copying the bytes it was deserialized from.
      * @return the data
      */
     public byte[] getData() {
+        ownData();
+        markModified();
         return data;
     }
 
+    /**
+     * Copy the data into an array of its own if it is part of a larger array
+     * or another packet may hold the array too.
+     */
+    private void ownData() {
+        if (this.data != null && (this.shared || this.offset != 0
+                || this.length != this.data.length))
+            setSlice(Arrays.copyOfRange(this.data, this.offset,
+                    this.offset + this.length), 0, this.length);
+        this.shared = false;
+    }
+
+    /**
+     * @return array holding the data, starting at {@link #getOffset()}; may
+     *         hold other bytes, and must not be changed
+     */
+    public byte[] getArray() {
+        return data;
+    }
+
+    /**
+     * @return index of the first byte of the data in {@link #getArray()}
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return number of bytes of data
+     */
+    public int getLength() {
+        return length;
+    }
+
     /**
      * @param data the data to set
      */
     public Data setData(byte[] data) {
-        this.data = data;
+        setSlice(data, 0, (data == null) ? 0 : data.length);
+        markModified();
         return this;
     }
 
+    private void setSlice(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @return the data itself, not a copy, unless it is part of a larger
+     *         array
+     */
+    @Override
     public byte[] serialize() {
-        return this.data;
+        ownData();
+        return data;
+    }
+
+    public int getSerializedLength() {
+        return this.length;
+    }
+
+    public void serializeInto(ByteBuffer bb) {
+        if (this.data != null)
+            bb.put(this.data, this.offset, this.length);
     }
 
+    /**
+     * References the bytes rather than copying them, so they must not change
+     * while the packet is in use.
+     */
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
-        this.data = Arrays.copyOfRange(data, offset, data.length);
+        setSlice(data, offset, length);
+        setWireBytes(data, offset, length);
         return this;
     }
 
+    @Override
+    protected boolean reset() {
+        super.reset();
+        this.data = null;
+        this.offset = 0;
+        this.length = 0;
+        this.shared = false;
+        return true;
+    }
+
+    /**
+     * Shares the array with the copy; whichever of the two hands it out to
+     * be changed, through {@link #getData()} or {@link #serialize()}, first
+     * copies it.
+     */
+    @Override
+    public Object clone() {
+        Data pkt = (Data) super.clone();
+        this.shared = true;
+        pkt.shared = true;
+        return pkt;
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#hashCode()
      */
@@ -71,7 +181,14 @@ public class Data extends BasePacket {
     public int hashCode() {
         final int prime = 1571;
         int result = super.hashCode();
-        result = prime * result + Arrays.hashCode(data);
+        // Arrays.hashCode of the slice
+        int dataHash = 0;
+        if (data != null) {
+            dataHash = 1;
+            for (int i = offset; i < offset + length; i++)
+                dataHash = 31 * dataHash + data[i];
+        }
+        result = prime * result + dataHash;
         return result;
     }
 
@@ -87,7 +204,10 @@ public class Data extends BasePacket {
         if (!(obj instanceof Data))
             return false;
         Data other = (Data) obj;
-        if (!Arrays.equals(data, other.data))
+        if (data == null || other.data == null)
+            return data == other.data;
+        if (!Arrays.equals(data, offset, offset + length,
+                other.data, other.offset, other.offset + other.length))
             return false;
         return true;
     }
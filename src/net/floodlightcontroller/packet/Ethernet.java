@@ -18,9 +18,6 @@
 package net.floodlightcontroller.packet;
 
 import java.nio.ByteBuffer;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.openflow.util.HexString;
 
@@ -37,14 +34,6 @@ public class Ethernet extends BasePacket {
     public static final short TYPE_BSN = (short) 0x8942;
     public static final short VLAN_UNTAGGED = (short)0xffff;
     public static final short DATALAYER_ADDRESS_LENGTH = 6; // bytes
-    public static Map<Short, Class<? extends IPacket>> etherTypeClassMap;
-
-    static {
-        etherTypeClassMap = new HashMap<Short, Class<? extends IPacket>>();
-        etherTypeClassMap.put(TYPE_ARP, ARP.class);
-        etherTypeClassMap.put(TYPE_RARP, ARP.class);
-        etherTypeClassMap.put(TYPE_IPv4, IPv4.class);
-    }
 
     protected MACAddress destinationMACAddress;
     protected MACAddress sourceMACAddress;
@@ -80,6 +69,7 @@ public class Ethernet extends BasePacket {
      */
     public Ethernet setDestinationMACAddress(byte[] destinationMACAddress) {
         this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress);
+        markModified();
         return this;
     }
 
@@ -88,9 +78,36 @@ public class Ethernet extends BasePacket {
      */
     public Ethernet setDestinationMACAddress(String destinationMACAddress) {
         this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress);
+        markModified();
+        return this;
+    }
+
+    /**
+     * @param destinationMACAddress the destination MAC to set
+     */
+    public Ethernet setDestinationMACAddress(MACAddress destinationMACAddress) {
+        this.destinationMACAddress = destinationMACAddress;
+        markModified();
         return this;
     }
 
+    /**
+     * @param destinationMACAddress the destination MAC to set, in the lower
+     *        48 bits
+     */
+    public Ethernet setDestinationMACAddress(long destinationMACAddress) {
+        this.destinationMACAddress = MACAddress.intern(destinationMACAddress);
+        markModified();
+        return this;
+    }
+
+    /**
+     * @return the destination MAC in the lower 48 bits
+     */
+    public long getDestinationMACLong() {
+        return destinationMACAddress.toLong();
+    }
+
     /**
      * @return the source MACAddress as a byte array
      */
@@ -110,6 +127,7 @@ public class Ethernet extends BasePacket {
      */
     public Ethernet setSourceMACAddress(byte[] sourceMACAddress) {
         this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress);
+        markModified();
         return this;
     }
 
@@ -118,9 +136,35 @@ public class Ethernet extends BasePacket {
      */
     public Ethernet setSourceMACAddress(String sourceMACAddress) {
         this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress);
+        markModified();
+        return this;
+    }
+
+    /**
+     * @param sourceMACAddress the source MAC to set
+     */
+    public Ethernet setSourceMACAddress(MACAddress sourceMACAddress) {
+        this.sourceMACAddress = sourceMACAddress;
+        markModified();
         return this;
     }
 
+    /**
+     * @param sourceMACAddress the source MAC to set, in the lower 48 bits
+     */
+    public Ethernet setSourceMACAddress(long sourceMACAddress) {
+        this.sourceMACAddress = MACAddress.intern(sourceMACAddress);
+        markModified();
+        return this;
+    }
+
+    /**
+     * @return the source MAC in the lower 48 bits
+     */
+    public long getSourceMACLong() {
+        return sourceMACAddress.toLong();
+    }
+
     /**
      * @return the priorityCode
      */
@@ -133,6 +177,7 @@ public class Ethernet extends BasePacket {
      */
     public Ethernet setPriorityCode(byte priorityCode) {
         this.priorityCode = priorityCode;
+        markModified();
         return this;
     }
 
@@ -147,6 +192,10 @@ public class Ethernet extends BasePacket {
      * @param vlanID the vlanID to set
      */
     public Ethernet setVlanID(short vlanID) {
+        // Switches set the VLAN ID of every frame they send, usually to the
+        // one it already has, which must not cost the frame its wire bytes
+        if (this.vlanID != vlanID)
+            markModified();
         this.vlanID = vlanID;
         return this;
     }
@@ -163,6 +212,7 @@ public class Ethernet extends BasePacket {
      */
     public Ethernet setEtherType(short etherType) {
         this.etherType = etherType;
+        markModified();
         return this;
     }
     
@@ -194,53 +244,63 @@ public class Ethernet extends BasePacket {
      */
     public Ethernet setPad(boolean pad) {
         this.pad = pad;
+        markModified();
         return this;
     }
 
-    public byte[] serialize() {
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-        }
+    public int getSerializedLength() {
+        if (!isModified())
+            return this.wireLength;
         int length = 14 + ((vlanID == VLAN_UNTAGGED) ? 0 : 4) +
-                          ((payloadData == null) ? 0 : payloadData.length);
+                          ((payload == null) ? 0 : payload.getSerializedLength());
         if (pad && length < 60) {
             length = 60;
         }
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
-        bb.put(destinationMACAddress.toBytes());
-        bb.put(sourceMACAddress.toBytes());
+        return length;
+    }
+
+    public void serializeInto(ByteBuffer bb) {
+        if (putWireBytes(bb))
+            return;
+        int start = bb.position();
+        putMAC(bb, destinationMACAddress.toLong());
+        putMAC(bb, sourceMACAddress.toLong());
         if (vlanID != VLAN_UNTAGGED) {
             bb.putShort((short) 0x8100);
             bb.putShort((short) ((priorityCode << 13) | (vlanID & 0x0fff)));
         }
         bb.putShort(etherType);
-        if (payloadData != null)
-            bb.put(payloadData);
+        if (payload != null) {
+            payload.setParent(this);
+            payload.serializeInto(bb);
+        }
         if (pad) {
-            Arrays.fill(data, bb.position(), data.length, (byte)0x0);
+            // The buffer may be reused, so the padding is written explicitly
+            while (bb.position() - start < 60)
+                bb.put((byte) 0x0);
         }
-        return data;
     }
 
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
+        return deserialize(data, offset, length, ParserRegistry.ALL_LAYERS);
+    }
+
+    /**
+     * Deserializes the frame and its payloads up to a layer; higher layers
+     * are kept as Data.
+     * @param maxLayer highest layer to parse, such as
+     *        ParserRegistry.LAYER_3
+     */
+    public Ethernet deserialize(byte[] data, int offset, int length,
+            int maxLayer) {
         if (length <= 0)
             return null;
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
-        if (this.destinationMACAddress == null)
-            this.destinationMACAddress = MACAddress.valueOf(new byte[6]);
-        byte[] dstAddr = new byte[MACAddress.MAC_ADDRESS_LENGTH];
-        bb.get(dstAddr);
-        this.destinationMACAddress = MACAddress.valueOf(dstAddr);
-
-        if (this.sourceMACAddress == null)
-            this.sourceMACAddress = MACAddress.valueOf(new byte[6]);
-        byte[] srcAddr = new byte[MACAddress.MAC_ADDRESS_LENGTH];
-        bb.get(srcAddr);
-        this.sourceMACAddress = MACAddress.valueOf(srcAddr);
+        // Frames keep coming from the same few stations, so their addresses
+        // are interned rather than allocated for every frame
+        this.destinationMACAddress = MACAddress.intern(getMAC(bb));
+        this.sourceMACAddress = MACAddress.intern(getMAC(bb));
 
         short etherType = bb.getShort();
         if (etherType == (short) 0x8100) {
@@ -253,22 +313,32 @@ public class Ethernet extends BasePacket {
         }
         this.etherType = etherType;
         
-        IPacket payload;
-        if (Ethernet.etherTypeClassMap.containsKey(this.etherType)) {
-            Class<? extends IPacket> clazz = Ethernet.etherTypeClassMap.get(this.etherType);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for Ethernet packet", e);
-            }
-        } else {
-            payload = new Data();
-        }
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
+        IPacket payload = null;
+        if (maxLayer >= ParserRegistry.LAYER_3)
+            payload = ParserRegistry.ETHER_TYPES.create(this.etherType);
+        if (payload instanceof IPv4)
+            this.payload = ((IPv4) payload).deserialize(data, bb.position(),
+                    bb.limit()-bb.position(), maxLayer);
+        else if (payload != null)
+            this.payload = payload.deserialize(data, bb.position(),
+                    bb.limit()-bb.position());
+        else
+            this.payload = PacketPool.acquire(Data.class, Data::new)
+                    .deserialize(data, bb.position(), bb.limit()-bb.position());
         this.payload.setParent(this);
+        setWireBytes(data, offset, length);
         return this;
     }
 
+    private static long getMAC(ByteBuffer bb) {
+        return ((bb.getShort() & 0xffffL) << 32) | (bb.getInt() & 0xffffffffL);
+    }
+
+    private static void putMAC(ByteBuffer bb, long mac) {
+        bb.putShort((short) (mac >> 32));
+        bb.putInt((int) mac);
+    }
+
     /**
      * Checks to see if a string is a valid MAC address.
      * @param macAddress
@@ -317,6 +387,18 @@ public class Ethernet extends BasePacket {
         return MACAddress.valueOf(macAddress).toBytes();
     }
     
+    @Override
+    protected boolean reset() {
+        super.reset();
+        this.destinationMACAddress = null;
+        this.sourceMACAddress = null;
+        this.priorityCode = 0;
+        this.vlanID = VLAN_UNTAGGED;
+        this.etherType = 0;
+        this.pad = false;
+        return true;
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#hashCode()
      */
@@ -366,7 +448,7 @@ public class Ethernet extends BasePacket {
     @Override
     public String toString() {
 
-        StringBuffer sb = new StringBuffer("\n");
+        StringBuilder sb = new StringBuilder("\n");
 
         IPacket pkt = (IPacket) this.getPayload();
 
@@ -394,9 +476,9 @@ public class Ethernet extends BasePacket {
         if (pkt instanceof ARP) {
             ARP p = (ARP) pkt;
             sb.append("\nnw_src: ");
-            sb.append(IPv4.fromIPv4Address(IPv4.toIPv4Address(p.getSenderProtocolAddress())));
+            IPv4.appendIPv4Address(sb, IPv4.toIPv4Address(p.getSenderProtocolAddress()));
             sb.append("\nnw_dst: ");
-            sb.append(IPv4.fromIPv4Address(IPv4.toIPv4Address(p.getTargetProtocolAddress())));
+            IPv4.appendIPv4Address(sb, IPv4.toIPv4Address(p.getTargetProtocolAddress()));
         }
         else if (pkt instanceof ICMP) {
             ICMP icmp = (ICMP) pkt;
@@ -408,9 +490,9 @@ public class Ethernet extends BasePacket {
         else if (pkt instanceof IPv4) {
             IPv4 p = (IPv4) pkt;
             sb.append("\nnw_src: ");
-            sb.append(IPv4.fromIPv4Address(p.getSourceAddress()));
+            IPv4.appendIPv4Address(sb, p.getSourceAddress());
             sb.append("\nnw_dst: ");
-            sb.append(IPv4.fromIPv4Address(p.getDestinationAddress()));
+            IPv4.appendIPv4Address(sb, p.getDestinationAddress());
             sb.append("\nnw_tos: ");
             sb.append(p.getDiffServ());
             sb.append("\nnw_proto: ");
@@ -438,6 +520,14 @@ public class Ethernet extends BasePacket {
                 sb.append(icmp.getIcmpCode());
             }
 
+            if (pkt instanceof IGMP) {
+                IGMP igmp = (IGMP) pkt;
+                sb.append("\nigmp_type: ");
+                sb.append(igmp.getIgmpType());
+                sb.append("\nigmp_group: ");
+                IPv4.appendIPv4Address(sb, igmp.getGroupAddress());
+            }
+
         }
         else if (pkt instanceof Data) {
             sb.append("\ndata packet");
@@ -0,0 +1,170 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads Ethernet header fields directly from a frame's bytes, without
+ * deserializing the frame into packet objects. A view is wrapped around a
+ * frame and can be rewrapped around the next one, so reading frames with a
+ * view allocates nothing. The encapsulated IPv4 header is only located when
+ * it is first asked for.
+ *
+ * A view does not copy the frame; the bytes must not change while the view
+ * is in use.
+ */
+public class EthernetView {
+    private static final int HEADER_LENGTH = 14;
+    private static final int VLAN_TAG_LENGTH = 4;
+    private static final short TYPE_VLAN = (short) 0x8100;
+
+    protected byte[] data;
+    protected int offset;
+    protected int length;
+
+    /** Offset of the payload within data; -1 until it is first needed */
+    protected int payloadOffset;
+
+    /** View of the encapsulated IPv4 header, reused across frames */
+    protected IPv4View ipv4;
+    protected boolean ipv4Wrapped;
+
+    public EthernetView() {
+        this.data = new byte[0];
+    }
+
+    /**
+     * Point the view at a frame.
+     * @param data bytes containing the frame
+     * @param offset offset of the frame within data
+     * @param length length of the frame
+     * @return this view
+     */
+    public EthernetView wrap(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        this.payloadOffset = -1;
+        this.ipv4Wrapped = false;
+        return this;
+    }
+
+    /**
+     * Point the view at the remaining bytes of a buffer, which must be
+     * backed by an accessible array.
+     * @return this view
+     */
+    public EthernetView wrap(ByteBuffer bb) {
+        if (!bb.hasArray())
+            throw new IllegalArgumentException("Buffer has no backing array");
+        return wrap(bb.array(), bb.arrayOffset() + bb.position(),
+                bb.remaining());
+    }
+
+    /**
+     * @return true if the frame is long enough to hold its Ethernet header
+     */
+    public boolean isValid() {
+        return length >= HEADER_LENGTH
+                && (getShort(12) != TYPE_VLAN
+                    || length >= HEADER_LENGTH + VLAN_TAG_LENGTH);
+    }
+
+    public long getDestinationMAC() {
+        return getMAC(0);
+    }
+
+    public long getSourceMAC() {
+        return getMAC(6);
+    }
+
+    public boolean isBroadcast() {
+        return getDestinationMAC() == 0xffffffffffffL;
+    }
+
+    /**
+     * @return true if the destination is a group address other than
+     *         broadcast, as for {@link MACAddress#isMulticast()}
+     */
+    public boolean isMulticast() {
+        return !isBroadcast() && (data[offset] & 0x01) != 0;
+    }
+
+    /**
+     * @return VLAN ID of the frame; Ethernet.VLAN_UNTAGGED if it has no
+     *         802.1Q tag
+     */
+    public short getVlanID() {
+        if (getShort(12) != TYPE_VLAN)
+            return Ethernet.VLAN_UNTAGGED;
+        return (short) (getShort(14) & 0x0fff);
+    }
+
+    /**
+     * @return EtherType of the payload, after any 802.1Q tag
+     */
+    public short getEtherType() {
+        return getShort(getPayloadOffset() - 2 - offset);
+    }
+
+    /**
+     * @return offset of the payload within the underlying bytes
+     */
+    public int getPayloadOffset() {
+        if (payloadOffset < 0) {
+            payloadOffset = offset + HEADER_LENGTH;
+            if (getShort(12) == TYPE_VLAN)
+                payloadOffset += VLAN_TAG_LENGTH;
+        }
+        return payloadOffset;
+    }
+
+    public int getPayloadLength() {
+        return offset + length - getPayloadOffset();
+    }
+
+    /**
+     * @return view of the encapsulated IPv4 header; null if the frame does
+     *         not carry a complete IPv4 header
+     */
+    public IPv4View getIPv4() {
+        if (!ipv4Wrapped) {
+            ipv4Wrapped = true;
+            if (getEtherType() != Ethernet.TYPE_IPv4) {
+                if (ipv4 != null)
+                    ipv4.wrap(data, 0, 0);
+            } else {
+                if (ipv4 == null)
+                    ipv4 = new IPv4View();
+                ipv4.wrap(data, getPayloadOffset(), getPayloadLength());
+            }
+        }
+        return (ipv4 != null && ipv4.isValid()) ? ipv4 : null;
+    }
+
+    /**
+     * @return the underlying bytes
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    private short getShort(int index) {
+        return (short) (((data[offset + index] & 0xff) << 8)
+                | (data[offset + index + 1] & 0xff));
+    }
+
+    private long getMAC(int index) {
+        long mac = 0;
+        for (int i = offset + index; i < offset + index + 6; i++)
+            mac = (mac << 8) | (data[i] & 0xffL);
+        return mac;
+    }
+}
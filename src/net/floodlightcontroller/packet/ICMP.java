@@ -42,6 +42,7 @@ public class ICMP extends BasePacket {
      */
     public ICMP setIcmpType(byte icmpType) {
         this.icmpType = icmpType;
+        markModified();
         return this;
     }
 
@@ -57,6 +58,7 @@ public class ICMP extends BasePacket {
      */
     public ICMP setIcmpCode(byte icmpCode) {
         this.icmpCode = icmpCode;
+        markModified();
         return this;
     }
 
@@ -72,55 +74,52 @@ public class ICMP extends BasePacket {
      */
     public ICMP setChecksum(short checksum) {
         this.checksum = checksum;
+        markModified();
         return this;
     }
 
+    public int getSerializedLength() {
+        if (!isModified())
+            return this.wireLength;
+        return 4 + ((payload == null) ? 0 : payload.getSerializedLength());
+    }
+
     /**
      * Serializes the packet. Will compute and set the following fields if they
      * are set to specific values at the time serialize is called:
      *      -checksum : 0
      *      -length : 0
      */
-    public byte[] serialize() {
-        int length = 4;
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-            length += payloadData.length;
-        }
-
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
-
+    public void serializeInto(ByteBuffer bb) {
+        if (putWireBytes(bb))
+            return;
+        int start = bb.position();
         bb.put(this.icmpType);
         bb.put(this.icmpCode);
         bb.putShort(this.checksum);
-        if (payloadData != null)
-            bb.put(payloadData);
+        if (payload != null) {
+            payload.setParent(this);
+            payload.serializeInto(bb);
+        }
+        int length = bb.position() - start;
 
         if (this.parent != null && this.parent instanceof IPv4)
             ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_ICMP);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
-
-            for (int i = 0; i < length / 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            // pad to an even number of shorts
-            if (length % 2 > 0) {
-                accumulation += (bb.get() & 0xff) << 8;
-            }
-
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(2, this.checksum);
+            this.checksum = Checksum.finish(Checksum.add(0, bb, start, length));
+            bb.putShort(start + 2, this.checksum);
         }
-        return data;
+    }
+
+    @Override
+    protected boolean reset() {
+        super.reset();
+        this.icmpType = 0;
+        this.icmpCode = 0;
+        this.checksum = 0;
+        return true;
     }
 
     /* (non-Javadoc)
@@ -164,9 +163,10 @@ public class ICMP extends BasePacket {
         this.icmpCode = bb.get();
         this.checksum = bb.getShort();
         
-        this.payload = new Data();
+        this.payload = PacketPool.acquire(Data.class, Data::new);
         this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
         this.payload.setParent(this);
+        setWireBytes(data, offset, length);
         return this;
     }
 }
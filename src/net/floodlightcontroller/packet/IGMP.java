@@ -0,0 +1,427 @@
+package net.floodlightcontroller.packet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Implements the IGMP packet format for versions 1, 2, and 3. Version 3
+ * membership reports carry a list of group records; version 3 queries carry
+ * a list of sources.
+ */
+public class IGMP extends BasePacket {
+    public static final byte TYPE_MEMBERSHIP_QUERY = 0x11;
+    public static final byte TYPE_V1_MEMBERSHIP_REPORT = 0x12;
+    public static final byte TYPE_V2_MEMBERSHIP_REPORT = 0x16;
+    public static final byte TYPE_V2_LEAVE_GROUP = 0x17;
+    public static final byte TYPE_V3_MEMBERSHIP_REPORT = 0x22;
+
+    /** Group record types in version 3 membership reports */
+    public static final byte RECORD_MODE_IS_INCLUDE = 1;
+    public static final byte RECORD_MODE_IS_EXCLUDE = 2;
+    public static final byte RECORD_CHANGE_TO_INCLUDE = 3;
+    public static final byte RECORD_CHANGE_TO_EXCLUDE = 4;
+    public static final byte RECORD_ALLOW_NEW_SOURCES = 5;
+    public static final byte RECORD_BLOCK_OLD_SOURCES = 6;
+
+    /** Length of a version 1 or 2 message, and of a version 3 query without
+     *  sources */
+    private static final int V2_LENGTH = 8;
+    private static final int V3_QUERY_LENGTH = 12;
+
+    /**
+     * A group record in a version 3 membership report.
+     */
+    public static class GroupRecord {
+        protected byte recordType;
+        protected int groupAddress;
+        protected int[] sources;
+        protected byte[] auxData;
+
+        public GroupRecord() {
+            this.sources = new int[0];
+            this.auxData = new byte[0];
+        }
+
+        public GroupRecord(byte recordType, int groupAddress, int... sources) {
+            this.recordType = recordType;
+            this.groupAddress = groupAddress;
+            this.sources = sources;
+            this.auxData = new byte[0];
+        }
+
+        public byte getRecordType() {
+            return recordType;
+        }
+
+        public GroupRecord setRecordType(byte recordType) {
+            this.recordType = recordType;
+            return this;
+        }
+
+        public int getGroupAddress() {
+            return groupAddress;
+        }
+
+        public GroupRecord setGroupAddress(int groupAddress) {
+            this.groupAddress = groupAddress;
+            return this;
+        }
+
+        public int[] getSources() {
+            return sources;
+        }
+
+        public GroupRecord setSources(int[] sources) {
+            this.sources = sources;
+            return this;
+        }
+
+        /**
+         * @return true if the record means the host no longer wants any
+         *         traffic for the group
+         */
+        public boolean isLeave() {
+            return (recordType == RECORD_MODE_IS_INCLUDE
+                    || recordType == RECORD_CHANGE_TO_INCLUDE)
+                    && sources.length == 0;
+        }
+
+        /**
+         * @return true if the record means the host wants traffic for the
+         *         group from at least some sources
+         */
+        public boolean isJoin() {
+            return !isLeave() && recordType != RECORD_BLOCK_OLD_SOURCES;
+        }
+
+        protected int getLength() {
+            return 8 + sources.length * 4 + auxData.length;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 2797;
+            int result = recordType;
+            result = prime * result + groupAddress;
+            result = prime * result + Arrays.hashCode(sources);
+            result = prime * result + Arrays.hashCode(auxData);
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof GroupRecord))
+                return false;
+            GroupRecord other = (GroupRecord) obj;
+            return recordType == other.recordType
+                    && groupAddress == other.groupAddress
+                    && Arrays.equals(sources, other.sources)
+                    && Arrays.equals(auxData, other.auxData);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("GroupRecord : {type=%d, group=%s, sources=%d}",
+                    recordType, IPv4.fromIPv4Address(groupAddress),
+                    sources.length);
+        }
+    }
+
+    protected byte igmpType;
+    protected byte maxRespCode;
+    protected short checksum;
+    protected int groupAddress;
+
+    /** Version 3 query fields; a query is version 3 if it has them */
+    protected boolean v3Query;
+    protected byte queryFlags;
+    protected byte queryInterval;
+    protected int[] querySources;
+
+    /** Version 3 report group records */
+    protected List<GroupRecord> records;
+
+    public IGMP() {
+        super();
+        this.querySources = new int[0];
+        this.records = new ArrayList<GroupRecord>();
+    }
+
+    /**
+     * @return the igmpType
+     */
+    public byte getIgmpType() {
+        return igmpType;
+    }
+
+    /**
+     * @param igmpType to set
+     */
+    public IGMP setIgmpType(byte igmpType) {
+        this.igmpType = igmpType;
+        return this;
+    }
+
+    /**
+     * @return the maximum response code of a query
+     */
+    public byte getMaxRespCode() {
+        return maxRespCode;
+    }
+
+    /**
+     * @param maxRespCode the maximum response code to set
+     */
+    public IGMP setMaxRespCode(byte maxRespCode) {
+        this.maxRespCode = maxRespCode;
+        return this;
+    }
+
+    /**
+     * @return the checksum
+     */
+    public short getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @param checksum the checksum to set
+     */
+    public IGMP setChecksum(short checksum) {
+        this.checksum = checksum;
+        return this;
+    }
+
+    /**
+     * @return the group address of a version 1 or 2 message or a query; 0 for
+     *         a general query
+     */
+    public int getGroupAddress() {
+        return groupAddress;
+    }
+
+    /**
+     * @param groupAddress the group address to set
+     */
+    public IGMP setGroupAddress(int groupAddress) {
+        this.groupAddress = groupAddress;
+        return this;
+    }
+
+    /**
+     * @return true if this is a version 3 query
+     */
+    public boolean isV3Query() {
+        return v3Query;
+    }
+
+    /**
+     * @param sources the sources of a version 3 query; null for a version 1
+     *        or 2 query
+     */
+    public IGMP setQuerySources(int[] sources) {
+        this.v3Query = (sources != null);
+        this.querySources = (sources != null) ? sources : new int[0];
+        return this;
+    }
+
+    public int[] getQuerySources() {
+        return querySources;
+    }
+
+    /**
+     * @return the group records of a version 3 membership report
+     */
+    public List<GroupRecord> getRecords() {
+        return records;
+    }
+
+    public IGMP addRecord(GroupRecord record) {
+        this.records.add(record);
+        return this;
+    }
+
+    /**
+     * @return true if this is a query
+     */
+    public boolean isQuery() {
+        return igmpType == TYPE_MEMBERSHIP_QUERY;
+    }
+
+    /**
+     * @return true if this is a membership report of any version
+     */
+    public boolean isReport() {
+        return igmpType == TYPE_V1_MEMBERSHIP_REPORT
+                || igmpType == TYPE_V2_MEMBERSHIP_REPORT
+                || igmpType == TYPE_V3_MEMBERSHIP_REPORT;
+    }
+
+    public int getSerializedLength() {
+        if (igmpType == TYPE_V3_MEMBERSHIP_REPORT) {
+            int length = 8;
+            for (GroupRecord record : records)
+                length += record.getLength();
+            return length;
+        } else if (igmpType == TYPE_MEMBERSHIP_QUERY && v3Query) {
+            return V3_QUERY_LENGTH + querySources.length * 4;
+        } else {
+            return V2_LENGTH;
+        }
+    }
+
+    /**
+     * Serializes the packet. Will compute and set the checksum if it is 0 at
+     * the time serialize is called.
+     */
+    public void serializeInto(ByteBuffer bb) {
+        int start = bb.position();
+        bb.put(this.igmpType);
+        bb.put(this.maxRespCode);
+        bb.putShort(this.checksum);
+        if (igmpType == TYPE_V3_MEMBERSHIP_REPORT) {
+            bb.putShort((short) 0);
+            bb.putShort((short) records.size());
+            for (GroupRecord record : records) {
+                bb.put(record.recordType);
+                bb.put((byte) (record.auxData.length / 4));
+                bb.putShort((short) record.sources.length);
+                bb.putInt(record.groupAddress);
+                for (int source : record.sources)
+                    bb.putInt(source);
+                bb.put(record.auxData);
+            }
+        } else {
+            bb.putInt(this.groupAddress);
+            if (igmpType == TYPE_MEMBERSHIP_QUERY && v3Query) {
+                bb.put(this.queryFlags);
+                bb.put(this.queryInterval);
+                bb.putShort((short) querySources.length);
+                for (int source : querySources)
+                    bb.putInt(source);
+            }
+        }
+        int length = bb.position() - start;
+
+        if (this.parent != null && this.parent instanceof IPv4)
+            ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_IGMP);
+
+        // compute checksum if needed
+        if (this.checksum == 0) {
+            this.checksum = Checksum.finish(Checksum.add(0, bb, start, length));
+            bb.putShort(start + 2, this.checksum);
+        }
+    }
+
+    @Override
+    public IPacket deserialize(byte[] data, int offset, int length) {
+        ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
+        this.igmpType = bb.get();
+        this.maxRespCode = bb.get();
+        this.checksum = bb.getShort();
+        this.records = new ArrayList<GroupRecord>();
+        this.v3Query = false;
+        this.querySources = new int[0];
+
+        if (igmpType == TYPE_V3_MEMBERSHIP_REPORT) {
+            bb.getShort(); // Consume reserved field
+            int numRecords = bb.getShort() & 0xffff;
+            for (int i = 0; i < numRecords && bb.remaining() >= 8; i++) {
+                GroupRecord record = new GroupRecord();
+                record.recordType = bb.get();
+                int auxLength = (bb.get() & 0xff) * 4;
+                int numSources = bb.getShort() & 0xffff;
+                record.groupAddress = bb.getInt();
+                if (bb.remaining() < numSources * 4 + auxLength)
+                    break;
+                record.sources = new int[numSources];
+                for (int j = 0; j < numSources; j++)
+                    record.sources[j] = bb.getInt();
+                record.auxData = new byte[auxLength];
+                bb.get(record.auxData);
+                this.records.add(record);
+            }
+        } else {
+            this.groupAddress = bb.getInt();
+            if (igmpType == TYPE_MEMBERSHIP_QUERY
+                    && length >= V3_QUERY_LENGTH) {
+                this.v3Query = true;
+                this.queryFlags = bb.get();
+                this.queryInterval = bb.get();
+                int numSources = bb.getShort() & 0xffff;
+                numSources = Math.min(numSources, bb.remaining() / 4);
+                this.querySources = new int[numSources];
+                for (int i = 0; i < numSources; i++)
+                    this.querySources[i] = bb.getInt();
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public Object clone() {
+        IGMP copy = (IGMP) super.clone();
+        copy.querySources = this.querySources.clone();
+        copy.records = new ArrayList<GroupRecord>(this.records.size());
+        for (GroupRecord record : this.records) {
+            GroupRecord recordCopy = new GroupRecord(record.recordType,
+                    record.groupAddress, record.sources.clone());
+            recordCopy.auxData = record.auxData.clone();
+            copy.records.add(recordCopy);
+        }
+        return copy;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        final int prime = 2801;
+        int result = super.hashCode();
+        result = prime * result + igmpType;
+        result = prime * result + maxRespCode;
+        result = prime * result + checksum;
+        result = prime * result + groupAddress;
+        result = prime * result + Arrays.hashCode(querySources);
+        result = prime * result + records.hashCode();
+        return result;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!super.equals(obj))
+            return false;
+        if (!(obj instanceof IGMP))
+            return false;
+        IGMP other = (IGMP) obj;
+        if (igmpType != other.igmpType)
+            return false;
+        if (maxRespCode != other.maxRespCode)
+            return false;
+        if (checksum != other.checksum)
+            return false;
+        if (groupAddress != other.groupAddress)
+            return false;
+        if (v3Query != other.v3Query)
+            return false;
+        if (!Arrays.equals(querySources, other.querySources))
+            return false;
+        return records.equals(other.records);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IGMP : {type=0x%02x, group=%s, records=%s}",
+                igmpType, IPv4.fromIPv4Address(groupAddress), records);
+    }
+}
@@ -17,6 +17,8 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
+
 /**
 *
 * @author David Erickson (daviderickson@cs.stanford.edu)
@@ -60,6 +62,23 @@ public interface IPacket {
      */
     public byte[] serialize();
 
+    /**
+     * Computes the number of bytes this packet and all payloads serialize to,
+     * without serializing them
+     * @return the serialized length
+     */
+    public int getSerializedLength();
+
+    /**
+     * Sets all payloads parent packet if applicable, then serializes this
+     * packet and all payloads directly into a buffer, starting at its
+     * position, and advances the position past them. The buffer must use
+     * big-endian byte order and have at least getSerializedLength() bytes
+     * remaining.
+     * @param bb the buffer to write to
+     */
+    public void serializeInto(ByteBuffer bb);
+
     /**
      * Deserializes this packet layer and all possible payloads
      * @param data
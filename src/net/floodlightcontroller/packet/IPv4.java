@@ -21,10 +21,9 @@
 package net.floodlightcontroller.packet;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * @author David Erickson (daviderickson@cs.stanford.edu)
@@ -32,15 +31,21 @@ import java.util.Map;
  */
 public class IPv4 extends BasePacket {
     public static final byte PROTOCOL_ICMP = 0x1;
+    public static final byte PROTOCOL_IGMP = 0x2;
     public static final byte PROTOCOL_TCP = 0x6;
     public static final byte PROTOCOL_UDP = 0x11;
-    public static Map<Byte, Class<? extends IPacket>> protocolClassMap;
 
+    /** Longest form of an address, 255.255.255.255, in characters */
+    public static final int MAX_ADDRESS_STRING_LENGTH = 15;
+
+    /** Decimal form of every octet value, for formatting addresses */
+    private static final String[] OCTET_STRINGS = new String[256];
+    private static final byte[][] OCTET_ASCII = new byte[256][];
     static {
-        protocolClassMap = new HashMap<Byte, Class<? extends IPacket>>();
-        protocolClassMap.put(PROTOCOL_ICMP, ICMP.class);
-        protocolClassMap.put(PROTOCOL_TCP, TCP.class);
-        protocolClassMap.put(PROTOCOL_UDP, UDP.class);
+        for (int i = 0; i < 256; i++) {
+            OCTET_STRINGS[i] = Integer.toString(i);
+            OCTET_ASCII[i] = OCTET_STRINGS[i].getBytes(StandardCharsets.US_ASCII);
+        }
     }
 
     protected byte version;
@@ -80,6 +85,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setVersion(byte version) {
         this.version = version;
+        markModified();
         return this;
     }
 
@@ -102,6 +108,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setDiffServ(byte diffServ) {
         this.diffServ = diffServ;
+        markModified();
         return this;
     }
 
@@ -132,6 +139,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setIdentification(short identification) {
         this.identification = identification;
+        markModified();
         return this;
     }
 
@@ -147,6 +155,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setFlags(byte flags) {
         this.flags = flags;
+        markModified();
         return this;
     }
 
@@ -162,6 +171,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setFragmentOffset(short fragmentOffset) {
         this.fragmentOffset = fragmentOffset;
+        markModified();
         return this;
     }
 
@@ -177,6 +187,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setTtl(byte ttl) {
         this.ttl = ttl;
+        markModified();
         return this;
     }
 
@@ -192,6 +203,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setProtocol(byte protocol) {
         this.protocol = protocol;
+        markModified();
         return this;
     }
 
@@ -207,12 +219,41 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setChecksum(short checksum) {
         this.checksum = checksum;
+        markModified();
         return this;
     }
+
+    /**
+     * Checks the checksum against the header, using the bytes the packet was
+     * deserialized from when no header field has changed since, without
+     * serializing the packet.
+     * @return true if the header sums to the ones' complement of zero
+     */
+    public boolean isChecksumValid() {
+        if (this.wireData != null)
+            return Checksum.isValid(Checksum.add(0, this.wireData,
+                    this.wireOffset, this.headerLength * 4));
+        long sum = Checksum.addShort(0, (((this.version & 0xf) << 4)
+                | (this.headerLength & 0xf)) << 8 | (this.diffServ & 0xff));
+        sum = Checksum.addShort(sum, this.totalLength);
+        sum = Checksum.addShort(sum, this.identification);
+        sum = Checksum.addShort(sum, ((this.flags & 0x7) << 13)
+                | (this.fragmentOffset & 0x1fff));
+        sum = Checksum.addShort(sum, (this.ttl & 0xff) << 8
+                | (this.protocol & 0xff));
+        sum = Checksum.addShort(sum, this.checksum);
+        sum = Checksum.addInt(sum, this.sourceAddress);
+        sum = Checksum.addInt(sum, this.destinationAddress);
+        if (this.options != null)
+            sum = Checksum.add(sum, this.options, 0, this.options.length);
+        return Checksum.isValid(sum);
+    }
+
     @Override
     public void resetChecksum() {
         this.checksum = 0;
         super.resetChecksum();
+        markModified();
     }
 
     /**
@@ -227,6 +268,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setSourceAddress(int sourceAddress) {
         this.sourceAddress = sourceAddress;
+        markModified();
         return this;
     }
 
@@ -235,6 +277,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setSourceAddress(String sourceAddress) {
         this.sourceAddress = IPv4.toIPv4Address(sourceAddress);
+        markModified();
         return this;
     }
 
@@ -250,6 +293,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setDestinationAddress(int destinationAddress) {
         this.destinationAddress = destinationAddress;
+        markModified();
         return this;
     }
 
@@ -258,6 +302,7 @@ public class IPv4 extends BasePacket {
      */
     public IPv4 setDestinationAddress(String destinationAddress) {
         this.destinationAddress = IPv4.toIPv4Address(destinationAddress);
+        markModified();
         return this;
     }
 
@@ -276,9 +321,18 @@ public class IPv4 extends BasePacket {
             throw new IllegalArgumentException(
                     "Options length must be a multiple of 4");
         this.options = options;
+        markModified();
         return this;
     }
 
+    public int getSerializedLength() {
+        if (!isModified())
+            return this.wireLength;
+        int optionsLength = (this.options == null) ? 0 : this.options.length;
+        return 20 + optionsLength
+                + ((payload == null) ? 0 : payload.getSerializedLength());
+    }
+
     /**
      * Serializes the packet. Will compute and set the following fields if they
      * are set to specific values at the time serialize is called:
@@ -286,24 +340,26 @@ public class IPv4 extends BasePacket {
      *      -headerLength : 0
      *      -totalLength : 0
      */
-    public byte[] serialize() {
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-        }
-
+    public void serializeInto(ByteBuffer bb) {
+        if (putWireBytes(bb))
+            return;
         int optionsLength = 0;
         if (this.options != null)
             optionsLength = this.options.length / 4;
         this.headerLength = (byte) (5 + optionsLength);
 
-        this.totalLength = (short) (this.headerLength * 4 + ((payloadData == null) ? 0
-                : payloadData.length));
-
-        byte[] data = new byte[this.totalLength];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+        // The payload is written first, behind room for the header, since
+        // it sets the protocol and its length sets the total length
+        int start = bb.position();
+        bb.position(start + this.headerLength * 4);
+        if (payload != null) {
+            payload.setParent(this);
+            payload.serializeInto(bb);
+        }
+        int end = bb.position();
+        this.totalLength = (short) (end - start);
 
+        bb.position(start);
         bb.put((byte) (((this.version & 0xf) << 4) | (this.headerLength & 0xf)));
         bb.put(this.diffServ);
         bb.putShort(this.totalLength);
@@ -316,26 +372,29 @@ public class IPv4 extends BasePacket {
         bb.putInt(this.destinationAddress);
         if (this.options != null)
             bb.put(this.options);
-        if (payloadData != null)
-            bb.put(payloadData);
+        bb.position(end);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
-            for (int i = 0; i < this.headerLength * 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(10, this.checksum);
+            this.checksum = Checksum.finish(
+                    Checksum.add(0, bb, start, this.headerLength * 4));
+            bb.putShort(start + 10, this.checksum);
         }
-        return data;
     }
 
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
+        return deserialize(data, offset, length, ParserRegistry.ALL_LAYERS);
+    }
+
+    /**
+     * Deserializes the packet and its payloads up to a layer; higher layers
+     * are kept as Data.
+     * @param maxLayer highest layer to parse, such as
+     *        ParserRegistry.LAYER_4
+     */
+    public IPv4 deserialize(byte[] data, int offset, int length,
+            int maxLayer) {
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
         short sscratch;
 
@@ -360,18 +419,18 @@ public class IPv4 extends BasePacket {
             bb.get(this.options);
         }
 
-        IPacket payload;
-        if (IPv4.protocolClassMap.containsKey(this.protocol)) {
-            Class<? extends IPacket> clazz = IPv4.protocolClassMap.get(this.protocol);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for IPv4 packet", e);
-            }
-        } else {
-            payload = new Data();
-        }
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
+        IPacket payload = null;
+        if (maxLayer >= ParserRegistry.LAYER_4)
+            payload = ParserRegistry.IP_PROTOCOLS.create(this.protocol);
+        if (payload instanceof UDP)
+            this.payload = ((UDP) payload).deserialize(data, bb.position(),
+                    bb.limit()-bb.position(), maxLayer);
+        else if (payload != null)
+            this.payload = payload.deserialize(data, bb.position(),
+                    bb.limit()-bb.position());
+        else
+            this.payload = PacketPool.acquire(Data.class, Data::new)
+                    .deserialize(data, bb.position(), bb.limit()-bb.position());
         this.payload.setParent(this);
 
         if (this.totalLength != length)
@@ -379,6 +438,7 @@ public class IPv4 extends BasePacket {
         else
             this.isTruncated = false;
 
+        setWireBytes(data, offset, length);
         return this;
     }
 
@@ -390,20 +450,84 @@ public class IPv4 extends BasePacket {
      */
     public static int toIPv4Address(String ipAddress) {
         if (ipAddress == null)
-            throw new IllegalArgumentException("Specified IPv4 address must" +
-                "contain 4 sets of numerical digits separated by periods");
-        String[] octets = ipAddress.split("\\.");
-        if (octets.length != 4) 
-            throw new IllegalArgumentException("Specified IPv4 address must" +
-                "contain 4 sets of numerical digits separated by periods");
+            throw invalidAddress();
+        return parseIPv4Address(ipAddress, 0, ipAddress.length());
+    }
 
+    /**
+     * Parses an IPv4 address of the form xxx.xxx.xxx.xxx from part of a
+     * character sequence, without allocating.
+     * @param start index of the first character
+     * @param end index after the last character
+     * @return the address as a 32 bit integer
+     * @throws IllegalArgumentException if the characters are not an address
+     */
+    public static int parseIPv4Address(CharSequence ipAddress, int start,
+            int end) {
         int result = 0;
-        for (int i = 0; i < 4; ++i) {
-            result |= Integer.valueOf(octets[i]) << ((3-i)*8);
+        int octets = 0;
+        int octet = 0;
+        int digits = 0;
+        for (int i = start; i <= end; i++) {
+            char c = (i == end) ? '.' : ipAddress.charAt(i);
+            if (c == '.') {
+                if (digits == 0 || ++octets > 4)
+                    throw invalidAddress();
+                result = (result << 8) | octet;
+                octet = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && ++digits <= 3) {
+                octet = octet * 10 + (c - '0');
+                if (octet > 255)
+                    throw invalidAddress();
+            } else {
+                throw invalidAddress();
+            }
+        }
+        if (octets != 4)
+            throw invalidAddress();
+        return result;
+    }
+
+    /**
+     * Parses an IPv4 address of the form xxx.xxx.xxx.xxx from ASCII text in
+     * a byte array, without allocating.
+     * @param offset index of the first character
+     * @param length number of characters
+     * @return the address as a 32 bit integer
+     * @throws IllegalArgumentException if the characters are not an address
+     */
+    public static int parseIPv4Address(byte[] ascii, int offset, int length) {
+        int result = 0;
+        int octets = 0;
+        int octet = 0;
+        int digits = 0;
+        for (int i = offset; i <= offset + length; i++) {
+            int c = (i == offset + length) ? '.' : ascii[i];
+            if (c == '.') {
+                if (digits == 0 || ++octets > 4)
+                    throw invalidAddress();
+                result = (result << 8) | octet;
+                octet = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && ++digits <= 3) {
+                octet = octet * 10 + (c - '0');
+                if (octet > 255)
+                    throw invalidAddress();
+            } else {
+                throw invalidAddress();
+            }
         }
+        if (octets != 4)
+            throw invalidAddress();
         return result;
     }
 
+    private static IllegalArgumentException invalidAddress() {
+        return new IllegalArgumentException("Specified IPv4 address must" +
+                "contain 4 sets of numerical digits separated by periods");
+    }
+
     /**
      * Accepts an IPv4 address in a byte array and returns the corresponding
      * 32-bit integer value.
@@ -427,15 +551,42 @@ public class IPv4 extends BasePacket {
      * @return
      */
     public static String fromIPv4Address(int ipAddress) {
-        StringBuffer sb = new StringBuffer();
-        int result = 0;
+        return appendIPv4Address(
+                new StringBuilder(MAX_ADDRESS_STRING_LENGTH), ipAddress)
+                .toString();
+    }
+
+    /**
+     * Appends an IPv4 address of the form xxx.xxx.xxx.xxx to a builder,
+     * without allocating anything but room in the builder.
+     * @return the builder
+     */
+    public static StringBuilder appendIPv4Address(StringBuilder sb,
+            int ipAddress) {
         for (int i = 0; i < 4; ++i) {
-            result = (ipAddress >> ((3-i)*8)) & 0xff;
-            sb.append(Integer.valueOf(result).toString());
-            if (i != 3)
-                sb.append(".");
+            if (i != 0)
+                sb.append('.');
+            sb.append(OCTET_STRINGS[(ipAddress >> ((3-i)*8)) & 0xff]);
         }
-        return sb.toString();
+        return sb;
+    }
+
+    /**
+     * Writes an IPv4 address of the form xxx.xxx.xxx.xxx as ASCII into a
+     * byte array, which must have room for MAX_ADDRESS_STRING_LENGTH bytes.
+     * @param offset index to write the first character at
+     * @return number of characters written
+     */
+    public static int putIPv4Address(byte[] dst, int offset, int ipAddress) {
+        int position = offset;
+        for (int i = 0; i < 4; ++i) {
+            if (i != 0)
+                dst[position++] = '.';
+            byte[] octet = OCTET_ASCII[(ipAddress >> ((3-i)*8)) & 0xff];
+            for (byte b : octet)
+                dst[position++] = b;
+        }
+        return position - offset;
     }
 
     /**
@@ -449,10 +600,10 @@ public class IPv4 extends BasePacket {
     public static String fromIPv4AddressCollection(Collection<Integer> ipAddresses) {
         if (ipAddresses == null)
             return "null";
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder();
         sb.append("[");
         for (Integer ip : ipAddresses) {
-            sb.append(fromIPv4Address(ip));
+            appendIPv4Address(sb, ip);
             sb.append(",");
         }
         sb.replace(sb.length()-1, sb.length(), "]");
@@ -466,16 +617,7 @@ public class IPv4 extends BasePacket {
      * @return The IP address separated into bytes
      */
     public static byte[] toIPv4AddressBytes(String ipAddress) {
-        String[] octets = ipAddress.split("\\.");
-        if (octets.length != 4) 
-            throw new IllegalArgumentException("Specified IPv4 address must" +
-                "contain 4 sets of numerical digits separated by periods");
-
-        byte[] result = new byte[4];
-        for (int i = 0; i < 4; ++i) {
-            result[i] = Integer.valueOf(octets[i]).byteValue();
-        }
-        return result;
+        return toIPv4AddressBytes(toIPv4Address(ipAddress));
     }
     
     /**
@@ -492,6 +634,34 @@ public class IPv4 extends BasePacket {
                 (byte)ipAddress};
     }
 
+    @Override
+    public Object clone() {
+        IPv4 copy = (IPv4) super.clone();
+        if (this.options != null)
+            copy.options = this.options.clone();
+        return copy;
+    }
+
+    @Override
+    protected boolean reset() {
+        super.reset();
+        this.version = 4;
+        this.headerLength = 0;
+        this.diffServ = 0;
+        this.totalLength = 0;
+        this.identification = 0;
+        this.flags = 0;
+        this.fragmentOffset = 0;
+        this.ttl = 0;
+        this.protocol = 0;
+        this.checksum = 0;
+        this.sourceAddress = 0;
+        this.destinationAddress = 0;
+        this.options = null;
+        this.isTruncated = false;
+        return true;
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#hashCode()
      */
@@ -0,0 +1,166 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * Reads IPv4 header fields, and the ports of an encapsulated TCP or UDP
+ * header, directly from a packet's bytes. Like {@link EthernetView}, a view
+ * is rewrapped for each packet and allocates nothing.
+ */
+public class IPv4View {
+    private static final int MIN_HEADER_LENGTH = 20;
+
+    protected byte[] data;
+    protected int offset;
+    protected int length;
+
+    public IPv4View() {
+        this.data = new byte[0];
+    }
+
+    /**
+     * Point the view at a packet.
+     * @param data bytes containing the packet
+     * @param offset offset of the IPv4 header within data
+     * @param length length of the packet
+     * @return this view
+     */
+    public IPv4View wrap(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * @return true if the packet is IPv4 and long enough to hold its header,
+     *         including options
+     */
+    public boolean isValid() {
+        return length >= MIN_HEADER_LENGTH && getVersion() == 4
+                && getHeaderLength() * 4 >= MIN_HEADER_LENGTH
+                && getHeaderLength() * 4 <= length;
+    }
+
+    public byte getVersion() {
+        return (byte) ((data[offset] >> 4) & 0xf);
+    }
+
+    /**
+     * @return header length in 32-bit words
+     */
+    public byte getHeaderLength() {
+        return (byte) (data[offset] & 0xf);
+    }
+
+    public byte getDiffServ() {
+        return data[offset + 1];
+    }
+
+    public short getTotalLength() {
+        return getShort(2);
+    }
+
+    public short getIdentification() {
+        return getShort(4);
+    }
+
+    public byte getFlags() {
+        return (byte) ((getShort(6) >> 13) & 0x7);
+    }
+
+    public short getFragmentOffset() {
+        return (short) (getShort(6) & 0x1fff);
+    }
+
+    public byte getTtl() {
+        return data[offset + 8];
+    }
+
+    public byte getProtocol() {
+        return data[offset + 9];
+    }
+
+    public short getChecksum() {
+        return getShort(10);
+    }
+
+    public int getSourceAddress() {
+        return getInt(12);
+    }
+
+    public int getDestinationAddress() {
+        return getInt(16);
+    }
+
+    /**
+     * @return true if the header checksum is correct
+     */
+    public boolean isChecksumValid() {
+        return Checksum.isValid(
+                Checksum.add(0, data, offset, getHeaderLength() * 4));
+    }
+
+    /**
+     * @return offset of the payload within the underlying bytes
+     */
+    public int getPayloadOffset() {
+        return offset + getHeaderLength() * 4;
+    }
+
+    /**
+     * @return length of the payload, as far as it was captured
+     */
+    public int getPayloadLength() {
+        int end = Math.min(length, getTotalLength() & 0xffff);
+        return Math.max(0, end - getHeaderLength() * 4);
+    }
+
+    /**
+     * @return source port of an encapsulated TCP or UDP header; -1 if the
+     *         packet does not start with one
+     */
+    public int getSourcePort() {
+        return hasPorts() ? getShort(getHeaderLength() * 4) & 0xffff : -1;
+    }
+
+    /**
+     * @return destination port of an encapsulated TCP or UDP header; -1 if
+     *         the packet does not start with one
+     */
+    public int getDestinationPort() {
+        return hasPorts() ? getShort(getHeaderLength() * 4 + 2) & 0xffff : -1;
+    }
+
+    /**
+     * @return true if the payload starts with TCP or UDP ports: the protocol
+     *         is TCP or UDP, this is the first fragment, and the ports were
+     *         captured
+     */
+    private boolean hasPorts() {
+        byte protocol = getProtocol();
+        return (protocol == IPv4.PROTOCOL_TCP || protocol == IPv4.PROTOCOL_UDP)
+                && getFragmentOffset() == 0 && getPayloadLength() >= 4;
+    }
+
+    /**
+     * @return the underlying bytes
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    private short getShort(int index) {
+        return (short) (((data[offset + index] & 0xff) << 8)
+                | (data[offset + index + 1] & 0xff));
+    }
+
+    private int getInt(int index) {
+        return ((data[offset + index] & 0xff) << 24)
+                | ((data[offset + index + 1] & 0xff) << 16)
+                | ((data[offset + index + 2] & 0xff) << 8)
+                | (data[offset + index + 3] & 0xff);
+    }
+}
@@ -1,18 +1,38 @@
 package net.floodlightcontroller.packet;
 
-import java.util.Arrays;
-
 /**
  * The class representing MAC address.
  *
+ * An address is an immutable 48-bit value held in a {@code long}, so
+ * comparing, hashing, and converting addresses allocates nothing.
+ * {@link #intern(long)} returns a shared instance for addresses that are
+ * seen over and over, such as those of the stations on a network.
+ *
  * @author Sho Shimizu (sho.shimizu@gmail.com)
  */
 public class MACAddress {
     public static final int MAC_ADDRESS_LENGTH = 6;
-    private byte[] address = new byte[MAC_ADDRESS_LENGTH];
+    private static final long MASK = 0xffffffffffffL;
+    private static final long BROADCAST = MASK;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /** Interned addresses, one per slot; slots are overwritten when another
+     *  address hashes to them */
+    private static final int INTERN_SLOTS = 4096;
+    private static final MACAddress[] internCache = new MACAddress[INTERN_SLOTS];
+
+    private final long address;
 
     public MACAddress(byte[] address) {
-        this.address = Arrays.copyOf(address, MAC_ADDRESS_LENGTH);
+        // Like copying the first six bytes; a shorter array is zero-filled
+        long mac = 0;
+        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++)
+            mac = (mac << 8) | ((i < address.length) ? address[i] & 0xffL : 0);
+        this.address = mac;
+    }
+
+    private MACAddress(long address) {
+        this.address = address & MASK;
     }
 
     /**
@@ -22,20 +42,7 @@ public class MACAddress {
      * @throws IllegalArgumentException if the string cannot be parsed as a MAC address.
      */
     public static MACAddress valueOf(String address) {
-        String[] elements = address.split(":");
-        if (elements.length != MAC_ADDRESS_LENGTH) {
-            throw new IllegalArgumentException(
-                    "Specified MAC Address must contain 12 hex digits" +
-                    " separated pairwise by :'s.");
-        }
-
-        byte[] addressInBytes = new byte[MAC_ADDRESS_LENGTH];
-        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
-            String element = elements[i];
-            addressInBytes[i] = (byte)Integer.parseInt(element, 16);
-        }
-
-        return new MACAddress(addressInBytes);
+        return new MACAddress(parse(address));
     }
 
     /**
@@ -57,19 +64,95 @@ public class MACAddress {
      * The lower 48 bits of the long value are used to parse as a MAC address.
      * @param address the long value to be parsed. The lower 48 bits are used for a MAC address.
      * @return a MAC address instance representing the specified {@code long} value.
-     * @throws IllegalArgumentException if the long value cannot be parsed as a MAC address.
      */
     public static MACAddress valueOf(long address) {
-        byte[] addressInBytes = new byte[] {
-                (byte)((address >> 40) & 0xff),
-                (byte)((address >> 32) & 0xff),
-                (byte)((address >> 24) & 0xff),
-                (byte)((address >> 16) & 0xff),
-                (byte)((address >> 8 ) & 0xff),
-                (byte)((address >> 0) & 0xff)
-        };
+        return new MACAddress(address);
+    }
 
-        return new MACAddress(addressInBytes);
+    /**
+     * Returns a shared MAC address instance for the specified {@code long}
+     * value, creating it only if the address is not in the intern cache.
+     * Instances are immutable, so sharing them is safe; the cache is small
+     * and direct-mapped, and exists to save allocating an instance for every
+     * frame from a station that sends many.
+     * @param address the long value. The lower 48 bits are used for a MAC address.
+     * @return a MAC address instance representing the specified {@code long} value.
+     */
+    public static MACAddress intern(long address) {
+        address &= MASK;
+        long mixed = address * 0x9E3779B97F4A7C15L;
+        int slot = (int) (mixed >>> 32) & (INTERN_SLOTS - 1);
+        MACAddress cached = internCache[slot];
+        if (cached != null && cached.address == address)
+            return cached;
+        // A racing thread may overwrite the slot; either instance is correct
+        cached = new MACAddress(address);
+        internCache[slot] = cached;
+        return cached;
+    }
+
+    /**
+     * Parses a MAC address of six hex octets separated by colons, such as
+     * {@code 00:1a:2B:3c:4D:5e}, without allocating.
+     * @param address the String representation of the MAC Address to be parsed.
+     * @return the address in the lower 48 bits.
+     * @throws IllegalArgumentException if the string cannot be parsed as a MAC address.
+     */
+    public static long parse(CharSequence address) {
+        long value = 0;
+        int octets = 0;
+        int octet = 0;
+        int digits = 0;
+        for (int i = 0; i <= address.length(); i++) {
+            if (i == address.length() || address.charAt(i) == ':') {
+                if (digits == 0 || ++octets > MAC_ADDRESS_LENGTH)
+                    throw invalid();
+                value = (value << 8) | octet;
+                octet = 0;
+                digits = 0;
+                continue;
+            }
+            int digit = Character.digit(address.charAt(i), 16);
+            if (digit < 0 || ++digits > 2)
+                throw invalid();
+            octet = (octet << 4) | digit;
+        }
+        if (octets != MAC_ADDRESS_LENGTH)
+            throw invalid();
+        return value;
+    }
+
+    private static IllegalArgumentException invalid() {
+        return new IllegalArgumentException(
+                "Specified MAC Address must contain 12 hex digits" +
+                " separated pairwise by :'s.");
+    }
+
+    /**
+     * Reads a MAC address from six bytes.
+     * @return the address in the lower 48 bits.
+     */
+    public static long toLong(byte[] address, int offset) {
+        long mac = 0;
+        for (int i = offset; i < offset + MAC_ADDRESS_LENGTH; i++)
+            mac = (mac << 8) | (address[i] & 0xffL);
+        return mac;
+    }
+
+    /**
+     * Appends a MAC address in the same form as {@link #toString()},
+     * without allocating anything but room in the builder.
+     * @param address the address in the lower 48 bits.
+     * @return the builder.
+     */
+    public static StringBuilder appendTo(StringBuilder builder, long address) {
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            int b = (int) (address >> shift) & 0xff;
+            builder.append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 0xf]);
+            if (shift > 0)
+                builder.append(':');
+        }
+        return builder;
     }
 
     /**
@@ -77,7 +160,7 @@ public class MACAddress {
      * @return the length of the {@code MACAddress}.
      */
     public int length() {
-        return address.length;
+        return MAC_ADDRESS_LENGTH;
     }
 
     /**
@@ -85,7 +168,10 @@ public class MACAddress {
      * @return the numeric value represented by this object after conversion to type {@code byte} array.
      */
     public byte[] toBytes() {
-        return Arrays.copyOf(address, address.length);
+        byte[] bytes = new byte[MAC_ADDRESS_LENGTH];
+        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++)
+            bytes[i] = (byte) (address >> ((5 - i) * 8));
+        return bytes;
     }
 
     /**
@@ -93,12 +179,7 @@ public class MACAddress {
      * @return the numeric value represented by this object after conversion to type {@code long}.
      */
     public long toLong() {
-        long mac = 0;
-        for (int i = 0; i < 6; i++) {
-            long t = (address[i] & 0xffL) << ((5 - i) * 8);
-            mac |= t;
-        }
-        return mac;
+        return address;
     }
 
     /**
@@ -106,11 +187,7 @@ public class MACAddress {
      * @return {@code true} if the MAC address is the broadcast address.
      */
     public boolean isBroadcast() {
-        for (byte b : address) {
-            if (b != -1) // checks if equal to 0xff
-                return false;
-        }
-        return true;
+        return address == BROADCAST;
     }
 
     /**
@@ -121,7 +198,7 @@ public class MACAddress {
         if (isBroadcast()) {
             return false;
         }
-        return (address[0] & 0x01) != 0;
+        return (address & 0x010000000000L) != 0;
     }
 
     @Override
@@ -135,23 +212,16 @@ public class MACAddress {
         }
 
         MACAddress other = (MACAddress)o;
-        return Arrays.equals(this.address, other.address);
+        return this.address == other.address;
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(this.address);
+        return Long.hashCode(this.address);
     }
 
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder();
-        for (byte b: address) {
-            if (builder.length() > 0) {
-                builder.append(":");
-            }
-            builder.append(String.format("%02X", b & 0xFF));
-        }
-        return builder.toString();
+        return appendTo(new StringBuilder(17), address).toString();
     }
 }
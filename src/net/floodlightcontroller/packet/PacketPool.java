@@ -0,0 +1,104 @@
+package net.floodlightcontroller.packet;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Per-thread free lists of packets, so frames received one after another
+ * are deserialized into the same packet objects rather than new ones.
+ * Payloads created while deserializing, through {@link ParserRegistry} or as
+ * {@link Data}, are taken from the pool of the deserializing thread.
+ *
+ * A frame is returned to the pool by {@link #release(IPacket)} once nothing
+ * refers to it or its payloads any more. Each packet is reset to the state
+ * of a newly constructed one, which also drops its references to the bytes
+ * it was deserialized from, so those bytes can then be reused too. Packets
+ * that were never taken from a pool can be released as well.
+ */
+public class PacketPool {
+    /** Most free packets of one class kept per thread */
+    private static final int MAX_FREE = 64;
+
+    private static final ThreadLocal<PacketPool> POOLS =
+            ThreadLocal.withInitial(PacketPool::new);
+
+    private static class FreeList {
+        final Class<?> type;
+        final IPacket[] packets = new IPacket[MAX_FREE];
+        int count;
+
+        FreeList(Class<?> type) {
+            this.type = type;
+        }
+    }
+
+    /** Free packets, by exact class; a thread only ever uses a handful of
+     *  classes, so they are searched in order rather than hashed */
+    private FreeList[] free = new FreeList[0];
+
+    private PacketPool() {
+    }
+
+    private FreeList find(Class<?> type) {
+        FreeList[] lists = this.free;
+        for (int i = 0; i < lists.length; i++) {
+            if (lists[i].type == type)
+                return lists[i];
+        }
+        return null;
+    }
+
+    private FreeList add(Class<?> type) {
+        FreeList list = new FreeList(type);
+        this.free = Arrays.copyOf(this.free, this.free.length + 1);
+        this.free[this.free.length - 1] = list;
+        return list;
+    }
+
+    /**
+     * @param type class of the packet
+     * @param factory creates a packet if the pool has none of the class
+     * @return an empty packet of the class
+     */
+    public static <T extends IPacket> T acquire(Class<T> type,
+            Supplier<? extends T> factory) {
+        return type.cast(acquireAny(type, factory));
+    }
+
+    static IPacket acquireAny(Class<?> type, Supplier<?> factory) {
+        FreeList list = POOLS.get().find(type);
+        if (list == null || list.count == 0)
+            return (IPacket) factory.get();
+        IPacket packet = list.packets[--list.count];
+        list.packets[list.count] = null;
+        ((BasePacket) packet).pooled = false;
+        return packet;
+    }
+
+    /**
+     * Return a packet and its payloads to the pool of this thread. Packets of
+     * classes that cannot be reset, and packets beyond the pool's capacity,
+     * are left to the garbage collector.
+     * @param packet packet that nothing refers to any more, nor to any of
+     *        its payloads
+     */
+    public static void release(IPacket packet) {
+        PacketPool pool = null;
+        while (packet instanceof BasePacket) {
+            BasePacket current = (BasePacket) packet;
+            packet = current.getPayload();
+            // A packet released twice would be handed out twice
+            if (current.pooled || !current.reset())
+                continue;
+            if (pool == null)
+                pool = POOLS.get();
+            FreeList list = pool.find(current.getClass());
+            if (list == null)
+                list = pool.add(current.getClass());
+            if (list.count < MAX_FREE) {
+                current.pooled = true;
+                list.packets[list.count++] = current;
+            }
+        }
+    }
+}
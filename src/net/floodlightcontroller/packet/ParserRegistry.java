@@ -0,0 +1,139 @@
+package net.floodlightcontroller.packet;
+
+import java.util.function.Supplier;
+
+/**
+ * Maps a protocol number, such as an EtherType, IP protocol, or UDP port, to
+ * a factory for the packet class that parses payloads of that protocol.
+ * Lookups are on primitive keys and allocate nothing; payloads are taken
+ * from the {@link PacketPool} of the calling thread, or created through
+ * constructor references rather than reflection.
+ *
+ * The registry also defines the layers used to limit how deeply a frame is
+ * parsed. Payloads above the limit are kept as {@link Data}, so the frame
+ * still serializes to the same bytes.
+ */
+public class ParserRegistry {
+    /** Parse only the Ethernet header */
+    public static final int LAYER_2 = 2;
+    /** Parse the Ethernet header and an IPv4 or ARP header */
+    public static final int LAYER_3 = 3;
+    /** Also parse a TCP, UDP, ICMP, or IGMP header */
+    public static final int LAYER_4 = 4;
+    /** Parse every layer there is a parser for */
+    public static final int ALL_LAYERS = Integer.MAX_VALUE;
+
+    /** Parsers for Ethernet payloads, keyed by EtherType */
+    public static final ParserRegistry ETHER_TYPES = new ParserRegistry();
+    /** Parsers for IPv4 payloads, keyed by protocol */
+    public static final ParserRegistry IP_PROTOCOLS = new ParserRegistry();
+    /** Parsers for UDP payloads, keyed by port */
+    public static final ParserRegistry UDP_PORTS = new ParserRegistry();
+
+    static {
+        ETHER_TYPES.register(Ethernet.TYPE_ARP, ARP::new);
+        ETHER_TYPES.register(Ethernet.TYPE_RARP, ARP::new);
+        ETHER_TYPES.register(Ethernet.TYPE_IPv4, IPv4::new);
+        IP_PROTOCOLS.register(IPv4.PROTOCOL_ICMP, ICMP::new);
+        IP_PROTOCOLS.register(IPv4.PROTOCOL_IGMP, IGMP::new);
+        IP_PROTOCOLS.register(IPv4.PROTOCOL_TCP, TCP::new);
+        IP_PROTOCOLS.register(IPv4.PROTOCOL_UDP, UDP::new);
+        UDP_PORTS.register(UDP.RIP_PORT, RIPv2::new);
+    }
+
+    /**
+     * Open-addressing table of keys, factories, and the classes the
+     * factories create. Keys are stored plus one, so 0 marks an empty slot.
+     * Replaced, never modified, once published.
+     */
+    private static class Table {
+        final int[] keys;
+        final Supplier<?>[] factories;
+        final Class<?>[] types;
+
+        Table(int slots) {
+            this.keys = new int[slots];
+            this.factories = new Supplier<?>[slots];
+            this.types = new Class<?>[slots];
+        }
+    }
+
+    private volatile Table table = new Table(16);
+    private int size = 0;
+
+    /**
+     * Register the parser for a protocol number, replacing any existing one.
+     * @param key protocol number; only the low 16 bits are used
+     * @param factory creates an empty packet to deserialize a payload into;
+     *        called once here to learn the class of its packets
+     */
+    public synchronized void register(int key, Supplier<? extends IPacket> factory) {
+        Class<?> type = factory.get().getClass();
+        Table current = this.table;
+        int slots = current.keys.length;
+        if ((size + 1) * 2 > slots)
+            slots *= 2;
+        Table updated = new Table(slots);
+        for (int i = 0; i < current.keys.length; i++) {
+            if (current.keys[i] != 0)
+                put(updated, current.keys[i], current.factories[i],
+                        current.types[i]);
+        }
+        if (put(updated, (key & 0xffff) + 1, factory, type))
+            size++;
+        this.table = updated;
+    }
+
+    /**
+     * @return true if the key was not in the table before
+     */
+    private static boolean put(Table table, int storedKey, Supplier<?> factory,
+            Class<?> type) {
+        int mask = table.keys.length - 1;
+        int slot = storedKey & mask;
+        while (table.keys[slot] != 0 && table.keys[slot] != storedKey)
+            slot = (slot + 1) & mask;
+        boolean added = (table.keys[slot] == 0);
+        table.keys[slot] = storedKey;
+        table.factories[slot] = factory;
+        table.types[slot] = type;
+        return added;
+    }
+
+    /**
+     * @param key protocol number; only the low 16 bits are used
+     * @return true if there is a parser for the protocol
+     */
+    public boolean contains(int key) {
+        return find(this.table, key) >= 0;
+    }
+
+    /**
+     * @param key protocol number; only the low 16 bits are used
+     * @return an empty packet of the class registered for the protocol; null
+     *         if there is none
+     */
+    public IPacket create(int key) {
+        Table current = this.table;
+        int slot = find(current, key);
+        if (slot < 0)
+            return null;
+        return PacketPool.acquireAny(current.types[slot],
+                current.factories[slot]);
+    }
+
+    /**
+     * @return slot of the key in the table; -1 if it is not there
+     */
+    private static int find(Table table, int key) {
+        int storedKey = (key & 0xffff) + 1;
+        int mask = table.keys.length - 1;
+        int slot = storedKey & mask;
+        while (table.keys[slot] != 0) {
+            if (table.keys[slot] == storedKey)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+}
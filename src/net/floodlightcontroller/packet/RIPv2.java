@@ -40,19 +40,17 @@ public class RIPv2 extends BasePacket
 	{ return this.command; }
 
 	@Override
-	public byte[] serialize() 
-    {
-		int length = 1 + 1 + 2 + this.entries.size() * (5*4);
-		byte[] data = new byte[length];
-		ByteBuffer bb = ByteBuffer.wrap(data);
+	public int getSerializedLength()
+	{ return 1 + 1 + 2 + this.entries.size() * RIPv2Entry.LENGTH; }
 
+	@Override
+	public void serializeInto(ByteBuffer bb) 
+    {
 		bb.put(this.command);
 		bb.put(this.version);
 		bb.putShort((short)0); // Put padding
 		for (RIPv2Entry entry : this.entries)
-		{ bb.put(entry.serialize()); }
-
-		return data;
+		{ entry.serializeInto(bb); }
 	}
 
 	@Override
@@ -68,12 +66,22 @@ public class RIPv2 extends BasePacket
         {
             RIPv2Entry entry = new RIPv2Entry();
             entry.deserialize(data, bb.position(), bb.limit()-bb.position());
-            bb.position(bb.position() +  5*4);
+            bb.position(bb.position() +  RIPv2Entry.LENGTH);
             this.entries.add(entry);
         }
 		return this;
 	}
 
+	@Override
+	public Object clone()
+	{
+		RIPv2 copy = (RIPv2)super.clone();
+		copy.entries = new LinkedList<RIPv2Entry>();
+		for (RIPv2Entry entry : this.entries)
+		{ copy.entries.add(entry.clone()); }
+		return copy;
+	}
+
     public boolean equals(Object obj)
     {
         if (this == obj)
@@ -5,9 +5,11 @@ import java.nio.ByteBuffer;
 /**
   * @author Anubhavnidhi Abhashkumar and Aaron Gember-Jacobson
   */
-public class RIPv2Entry 
+public class RIPv2Entry implements Cloneable
 {
     public static final short ADDRESS_FAMILY_IPv4 = 2;
+    /** Serialized length of an entry, in bytes */
+    public static final int LENGTH = 2*2 + 4*4;
 
     protected short addressFamily;
     protected short routeTag;
@@ -74,17 +76,23 @@ public class RIPv2Entry
 
 	public byte[] serialize() 
     {
-		int length = 2*2 + 4*4;
-		byte[] data = new byte[length];
-		ByteBuffer bb = ByteBuffer.wrap(data);
+		byte[] data = new byte[LENGTH];
+		this.serializeInto(ByteBuffer.wrap(data));
+		return data;
+	}
 
+	/**
+	 * Write the entry into a buffer at its position, and advance the position
+	 * past it.
+	 */
+	public void serializeInto(ByteBuffer bb)
+    {
 		bb.putShort(this.addressFamily);
 		bb.putShort(this.routeTag);
         bb.putInt(this.address);
         bb.putInt(this.subnetMask);
         bb.putInt(this.nextHopAddress);
         bb.putInt(this.metric);
-		return data;
 	}
 
 	public RIPv2Entry deserialize(byte[] data, int offset, int length) 
@@ -100,6 +108,14 @@ public class RIPv2Entry
 		return this;
 	}
 
+	public RIPv2Entry clone()
+	{
+		try
+		{ return (RIPv2Entry)super.clone(); }
+		catch (CloneNotSupportedException e)
+		{ throw new RuntimeException("Could not clone RIP entry"); }
+	}
+
     public boolean equals(Object obj)
     {
         if (this == obj)
@@ -47,6 +47,7 @@ public class TCP extends BasePacket {
      */
     public TCP setSourcePort(short sourcePort) {
         this.sourcePort = sourcePort;
+        markModified();
         return this;
     }
 
@@ -62,6 +63,7 @@ public class TCP extends BasePacket {
      */
     public TCP setDestinationPort(short destinationPort) {
         this.destinationPort = destinationPort;
+        markModified();
         return this;
     }
 
@@ -77,6 +79,7 @@ public class TCP extends BasePacket {
     }
     public TCP setSequence(int seq) {
         this.sequence = seq;
+        markModified();
         return this;
     }
     public int getAcknowledge() {
@@ -84,6 +87,7 @@ public class TCP extends BasePacket {
     }
     public TCP setAcknowledge(int ack) {
         this.acknowledge = ack;
+        markModified();
         return this;
     }
     public byte getDataOffset() {
@@ -91,6 +95,7 @@ public class TCP extends BasePacket {
     }
     public TCP setDataOffset(byte offset) {
         this.dataOffset = offset;
+        markModified();
         return this;
     }
     public short getFlags() {
@@ -98,6 +103,7 @@ public class TCP extends BasePacket {
     }
     public TCP setFlags(short flags) {
         this.flags = flags;
+        markModified();
         return this;
     }
     public short getWindowSize() {
@@ -105,6 +111,7 @@ public class TCP extends BasePacket {
     }
     public TCP setWindowSize(short windowSize) {
         this.windowSize = windowSize;
+        markModified();
         return this;
     }
     public short getTcpChecksum() {
@@ -112,6 +119,7 @@ public class TCP extends BasePacket {
     }
     public TCP setTcpChecksum(short checksum) {
         this.checksum = checksum;
+        markModified();
         return this;
     }
     
@@ -119,6 +127,7 @@ public class TCP extends BasePacket {
     public void resetChecksum() {
         this.checksum = 0;
         super.resetChecksum();
+        markModified();
     }
     
     public short getUrgentPointer(short urgentPointer) {
@@ -126,6 +135,7 @@ public class TCP extends BasePacket {
     }
     public TCP setUrgentPointer(short urgentPointer) {
         this.urgentPointer= urgentPointer;
+        markModified();
         return this;
     }
     public byte[] getOptions() {
@@ -134,6 +144,7 @@ public class TCP extends BasePacket {
     public TCP setOptions(byte[] options) {
         this.options = options;
         this.dataOffset = (byte) ((20 + options.length + 3) >> 2);
+        markModified();
         return this;
     }
     /**
@@ -141,29 +152,30 @@ public class TCP extends BasePacket {
      */
     public TCP setChecksum(short checksum) {
         this.checksum = checksum;
+        markModified();
         return this;
     }
 
+    public int getSerializedLength() {
+        if (!isModified())
+            return this.wireLength;
+        int headerLength = ((dataOffset == 0) ? 5 : dataOffset) << 2;
+        return headerLength
+                + ((payload == null) ? 0 : payload.getSerializedLength());
+    }
+
     /**
      * Serializes the packet. Will compute and set the following fields if they
      * are set to specific values at the time serialize is called:
      *      -checksum : 0
      *      -length : 0
      */
-    public byte[] serialize() {
-        int length;
+    public void serializeInto(ByteBuffer bb) {
+        if (putWireBytes(bb))
+            return;
         if (dataOffset == 0)
             dataOffset = 5;  // default header length
-        length = dataOffset << 2;
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-            length += payloadData.length;
-        }
-
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+        int start = bb.position();
 
         bb.putShort(this.sourcePort);
         bb.putShort(this.destinationPort);
@@ -180,42 +192,55 @@ public class TCP extends BasePacket {
             for (int i = 0; i < padding; i++)
                 bb.put((byte) 0);
         }
-        if (payloadData != null)
-            bb.put(payloadData);
+        if (payload != null) {
+            payload.setParent(this);
+            payload.serializeInto(bb);
+        }
+        int length = bb.position() - start;
 
         if (this.parent != null && this.parent instanceof IPv4)
             ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_TCP);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
+            long accumulation = 0;
 
             // compute pseudo header mac
             if (this.parent != null && this.parent instanceof IPv4) {
                 IPv4 ipv4 = (IPv4) this.parent;
-                accumulation += ((ipv4.getSourceAddress() >> 16) & 0xffff)
-                        + (ipv4.getSourceAddress() & 0xffff);
-                accumulation += ((ipv4.getDestinationAddress() >> 16) & 0xffff)
-                        + (ipv4.getDestinationAddress() & 0xffff);
-                accumulation += ipv4.getProtocol() & 0xff;
-                accumulation += length & 0xffff;
+                accumulation = Checksum.addPseudoHeader(accumulation,
+                        ipv4.getSourceAddress(), ipv4.getDestinationAddress(),
+                        ipv4.getProtocol(), length);
             }
 
-            for (int i = 0; i < length / 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            // pad to an even number of shorts
-            if (length % 2 > 0) {
-                accumulation += (bb.get() & 0xff) << 8;
-            }
-
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(16, this.checksum);
+            accumulation = Checksum.add(accumulation, bb, start, length);
+            this.checksum = Checksum.finish(accumulation);
+            bb.putShort(start + 16, this.checksum);
         }
-        return data;
+    }
+
+    @Override
+    public Object clone() {
+        TCP copy = (TCP) super.clone();
+        if (this.options != null)
+            copy.options = this.options.clone();
+        return copy;
+    }
+
+    @Override
+    protected boolean reset() {
+        super.reset();
+        this.sourcePort = 0;
+        this.destinationPort = 0;
+        this.sequence = 0;
+        this.acknowledge = 0;
+        this.dataOffset = 0;
+        this.flags = 0;
+        this.windowSize = 0;
+        this.checksum = 0;
+        this.urgentPointer = 0;
+        this.options = null;
+        return true;
     }
 
     /* (non-Javadoc)
@@ -282,9 +307,10 @@ public class TCP extends BasePacket {
             }
         }
         
-        this.payload = new Data();
+        this.payload = PacketPool.acquire(Data.class, Data::new);
         this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
         this.payload.setParent(this);
+        setWireBytes(data, offset, length);
         return this;
     }
 }
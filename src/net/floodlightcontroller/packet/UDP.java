@@ -18,24 +18,16 @@
 package net.floodlightcontroller.packet;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  *
  * @author David Erickson (daviderickson@cs.stanford.edu)
  */
 public class UDP extends BasePacket {
-    public static Map<Short, Class<? extends IPacket>> decodeMap;
     public static short DHCP_SERVER_PORT = (short)67;
     public static short DHCP_CLIENT_PORT = (short)68;
     public static short RIP_PORT = (short)520;
 
-    static {
-        decodeMap = new HashMap<Short, Class<? extends IPacket>>();
-        UDP.decodeMap.put(RIP_PORT, RIPv2.class);
-    }
-
     protected short sourcePort;
     protected short destinationPort;
     protected short length;
@@ -53,6 +45,7 @@ public class UDP extends BasePacket {
      */
     public UDP setSourcePort(short sourcePort) {
         this.sourcePort = sourcePort;
+        markModified();
         return this;
     }
 
@@ -68,6 +61,7 @@ public class UDP extends BasePacket {
      */
     public UDP setDestinationPort(short destinationPort) {
         this.destinationPort = destinationPort;
+        markModified();
         return this;
     }
 
@@ -90,6 +84,7 @@ public class UDP extends BasePacket {
      */
     public UDP setChecksum(short checksum) {
         this.checksum = checksum;
+        markModified();
         return this;
     }
 
@@ -97,6 +92,13 @@ public class UDP extends BasePacket {
     public void resetChecksum() {
         this.checksum = 0;
         super.resetChecksum();
+        markModified();
+    }
+
+    public int getSerializedLength() {
+        if (!isModified())
+            return this.wireLength;
+        return 8 + ((payload == null) ? 0 : payload.getSerializedLength());
     }
 
     /**
@@ -105,59 +107,59 @@ public class UDP extends BasePacket {
      *      -checksum : 0
      *      -length : 0
      */
-    public byte[] serialize() {
-        byte[] payloadData = null;
+    public void serializeInto(ByteBuffer bb) {
+        if (putWireBytes(bb))
+            return;
+        // The payload is written first, since its length sets the length
+        int start = bb.position();
+        bb.position(start + 8);
         if (payload != null) {
             payload.setParent(this);
-            payloadData = payload.serialize();
+            payload.serializeInto(bb);
         }
+        int end = bb.position();
+        this.length = (short) (end - start);
 
-        this.length = (short) (8 + ((payloadData == null) ? 0
-                : payloadData.length));
-
-        byte[] data = new byte[this.length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
-
+        bb.position(start);
         bb.putShort(this.sourcePort);
         bb.putShort(this.destinationPort);
         bb.putShort(this.length);
         bb.putShort(this.checksum);
-        if (payloadData != null)
-            bb.put(payloadData);
+        bb.position(end);
 
         if (this.parent != null && this.parent instanceof IPv4)
             ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_UDP);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
+            long accumulation = 0;
 
             // compute pseudo header mac
             if (this.parent != null && this.parent instanceof IPv4) {
                 IPv4 ipv4 = (IPv4) this.parent;
-                accumulation += ((ipv4.getSourceAddress() >> 16) & 0xffff)
-                        + (ipv4.getSourceAddress() & 0xffff);
-                accumulation += ((ipv4.getDestinationAddress() >> 16) & 0xffff)
-                        + (ipv4.getDestinationAddress() & 0xffff);
-                accumulation += ipv4.getProtocol() & 0xff;
-                accumulation += this.length & 0xffff;
+                accumulation = Checksum.addPseudoHeader(accumulation,
+                        ipv4.getSourceAddress(), ipv4.getDestinationAddress(),
+                        ipv4.getProtocol(), this.length);
             }
 
-            for (int i = 0; i < this.length / 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            // pad to an even number of shorts
-            if (this.length % 2 > 0) {
-                accumulation += (bb.get() & 0xff) << 8;
-            }
-
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(6, this.checksum);
+            accumulation = Checksum.add(accumulation, bb, start, end - start);
+            this.checksum = Checksum.finish(accumulation);
+            // a zero checksum means none was computed, so send its other
+            // ones' complement form
+            if (this.checksum == 0)
+                this.checksum = (short) 0xffff;
+            bb.putShort(start + 6, this.checksum);
         }
-        return data;
+    }
+
+    @Override
+    protected boolean reset() {
+        super.reset();
+        this.sourcePort = 0;
+        this.destinationPort = 0;
+        this.length = 0;
+        this.checksum = 0;
+        return true;
     }
 
     /* (non-Javadoc)
@@ -199,29 +201,34 @@ public class UDP extends BasePacket {
 
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
+        return deserialize(data, offset, length, ParserRegistry.ALL_LAYERS);
+    }
+
+    /**
+     * Deserializes the datagram, and its payload if a parser is registered
+     * for either port and maxLayer is above the transport layer.
+     * @param maxLayer highest layer to parse, such as
+     *        ParserRegistry.LAYER_4
+     */
+    public UDP deserialize(byte[] data, int offset, int length,
+            int maxLayer) {
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
         this.sourcePort = bb.getShort();
         this.destinationPort = bb.getShort();
         this.length = bb.getShort();
         this.checksum = bb.getShort();
 
-        if (UDP.decodeMap.containsKey(this.destinationPort)) {
-            try {
-                this.payload = UDP.decodeMap.get(this.destinationPort).getConstructor().newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Failure instantiating class", e);
-            }
-        } else if (UDP.decodeMap.containsKey(this.sourcePort)) {
-            try {
-                this.payload = UDP.decodeMap.get(this.sourcePort).getConstructor().newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Failure instantiating class", e);
-            }
-        } else {
-            this.payload = new Data();
+        this.payload = null;
+        if (maxLayer > ParserRegistry.LAYER_4) {
+            this.payload = ParserRegistry.UDP_PORTS.create(this.destinationPort);
+            if (this.payload == null)
+                this.payload = ParserRegistry.UDP_PORTS.create(this.sourcePort);
         }
+        if (this.payload == null)
+            this.payload = PacketPool.acquire(Data.class, Data::new);
         this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
         this.payload.setParent(this);
+        setWireBytes(data, offset, length);
         return this;
     }
 }
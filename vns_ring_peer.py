@@ -0,0 +1,181 @@
+#!/usr/bin/python
+
+"""
+Relay between a VNet device using the shared-memory transport
+(VNet -t shm -s RING_FILE) and a VNS server reached over TCP or a Unix domain
+socket, so the ring transport can be used and tested with an unchanged server.
+
+Creates the ring file, in the layout described in RingChannel.java, and
+relays bytes between the rings and the server until either side closes. Run
+one relay per device, since each pair of rings has one device at its end.
+Indexes are read and written as whole, aligned 64-bit words, so the relay
+must run on the same little-endian host as the device.
+"""
+
+import ctypes
+import mmap
+import os
+import socket
+import struct
+import sys
+import threading
+import time
+from optparse import OptionParser
+
+MAGIC = 0x52534e56
+FILE_HEADER_SIZE = 64
+RING_HEADER_SIZE = 128
+WRITE_INDEX = 0
+CLOSED = 8
+READ_INDEX = 64
+
+DEFAULT_RING_SIZE = 256 * 1024
+SPIN_TRIES = 100
+MAX_SLEEP = 0.00005
+CHUNK_SIZE = 64 * 1024
+
+def wait(idle):
+    "Wait for the other side of a ring, spinning before sleeping"
+    if idle >= SPIN_TRIES:
+        time.sleep(min(MAX_SLEEP, 0.000001 * (1 << min(idle - SPIN_TRIES, 20))))
+
+class Ring:
+    def __init__(self, mm, offset, size):
+        self.mm = mm
+        self.size = size
+        self.data = offset + RING_HEADER_SIZE
+        self.written = ctypes.c_int64.from_buffer(mm, offset + WRITE_INDEX)
+        self.closed = ctypes.c_int32.from_buffer(mm, offset + CLOSED)
+        self.read = ctypes.c_int64.from_buffer(mm, offset + READ_INDEX)
+
+    def get(self, limit):
+        "Read up to limit bytes, waiting for some; None once closed and empty"
+        idle = 0
+        while True:
+            available = self.written.value - self.read.value
+            if available > 0:
+                break
+            if self.closed.value != 0:
+                if self.written.value == self.read.value:
+                    return None
+                continue
+            wait(idle)
+            idle += 1
+        count = min(available, limit)
+        offset = self.read.value & (self.size - 1)
+        first = min(count, self.size - offset)
+        start = self.data + offset
+        buf = self.mm[start:start + first] \
+            + self.mm[self.data:self.data + count - first]
+        self.read.value += count
+        return buf
+
+    def put(self, buf, peer):
+        "Write all of buf, waiting for space; False if the reader has gone"
+        while len(buf) > 0:
+            idle = 0
+            while True:
+                space = self.size - (self.written.value - self.read.value)
+                if space > 0:
+                    break
+                if peer.closed.value != 0:
+                    return False
+                wait(idle)
+                idle += 1
+            count = min(space, len(buf))
+            offset = self.written.value & (self.size - 1)
+            first = min(count, self.size - offset)
+            start = self.data + offset
+            self.mm[start:start + first] = buf[:first]
+            self.mm[self.data:self.data + count - first] = buf[first:count]
+            self.written.value += count
+            buf = buf[count:]
+        return True
+
+    def close(self):
+        self.closed.value = 1
+
+def create_rings(path, size):
+    "Create the ring file, renaming it into place once its header is written"
+    tmp = path + ".tmp"
+    f = open(tmp, "w+b")
+    f.truncate(FILE_HEADER_SIZE + 2 * (RING_HEADER_SIZE + size))
+    f.write(struct.pack("<ii", MAGIC, size))
+    f.flush()
+    mm = mmap.mmap(f.fileno(), 0)
+    f.close()
+    os.rename(tmp, path)
+    to_server = Ring(mm, FILE_HEADER_SIZE, size)
+    to_device = Ring(mm, FILE_HEADER_SIZE + RING_HEADER_SIZE + size, size)
+    return to_server, to_device
+
+def device_to_server(to_server, sock):
+    while True:
+        buf = to_server.get(CHUNK_SIZE)
+        if buf is None:
+            break
+        sock.sendall(buf)
+    try:
+        sock.shutdown(socket.SHUT_WR)
+    except socket.error:
+        pass
+
+def server_to_device(sock, to_device, to_server):
+    while True:
+        try:
+            buf = sock.recv(CHUNK_SIZE)
+        except socket.error:
+            break
+        if not buf or not to_device.put(buf, to_server):
+            break
+    to_device.close()
+
+def main():
+    parser = OptionParser(usage="%prog -r ring_file [-s server] [-p port] "
+            "[-u unix_socket] [-z ring_size]")
+    parser.add_option("-r", dest="ring", help="ring file to create")
+    parser.add_option("-s", dest="server", default="localhost",
+            help="VNS server host [default: %default]")
+    parser.add_option("-p", dest="port", type="int", default=8888,
+            help="VNS server port [default: %default]")
+    parser.add_option("-u", dest="unix", default=None,
+            help="connect to the server's Unix domain socket instead")
+    parser.add_option("-z", dest="size", type="int", default=DEFAULT_RING_SIZE,
+            help="bytes in each ring, a power of two [default: %default]")
+    (options, args) = parser.parse_args()
+    if options.ring is None:
+        parser.error("ring file is required")
+    if options.size <= 0 or (options.size & (options.size - 1)) != 0:
+        parser.error("ring size must be a power of two")
+
+    if options.unix is not None:
+        sock = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+        sock.connect(options.unix)
+    else:
+        sock = socket.create_connection((options.server, options.port))
+        sock.setsockopt(socket.IPPROTO_TCP, socket.TCP_NODELAY, 1)
+
+    to_server, to_device = create_rings(options.ring, options.size)
+    print("Relaying %s to VNS server" % options.ring)
+    sys.stdout.flush()
+
+    threads = [threading.Thread(target=device_to_server,
+                    args=(to_server, sock)),
+               threading.Thread(target=server_to_device,
+                    args=(sock, to_device, to_server))]
+    for t in threads:
+        t.daemon = True
+        t.start()
+    try:
+        while any(t.is_alive() for t in threads):
+            for t in threads:
+                t.join(0.5)
+    except KeyboardInterrupt:
+        pass
+    finally:
+        to_device.close()
+        sock.close()
+        os.remove(options.ring)
+
+if __name__ == '__main__':
+    main()